@@ -0,0 +1,298 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步事件分发器, 包装{@link DagEventHandler}使事件监听不占用调度线程
+ * <p>
+ * 调度线程只把事件写入有界无锁环形缓冲区, 由专用线程批量取出后依次通知被包装的监听器,
+ * 被包装的监听器同时实现{@link DagNodeStateChanged}时节点状态变化也一并异步通知.<br/>
+ * 缓冲区满时按{@link OverflowPolicy}处理, 被丢弃的事件数通过{@link AsyncDagEventHandler#getDroppedCount()}获取.<br/>
+ * 监听器在专用线程中被调用, 不能依赖节点运行时的线程上下文; 不再使用时调用{@link AsyncDagEventHandler#close()}
+ */
+@Slf4j
+public final class AsyncDagEventHandler implements DagEventHandler, DagNodeStateChanged, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final int SAMPLE_RATE = 8;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * 缓冲区满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃新事件
+         */
+        DROP,
+        /**
+         * 调度线程等待缓冲区有空位, 不丢弃事件
+         */
+        BLOCK,
+        /**
+         * 缓冲区使用超过3/4后只保留每8个事件中的1个, 缓冲区满时丢弃
+         */
+        SAMPLE
+    }
+
+    private enum EventType {
+        CREATED, NODE_ADDED, EDGE_ADDED, PREPARED, SCHEDULING, COMPLETED, NODE_STATE_CHANGED
+    }
+
+    private static final class Event {
+        EventType type;
+        Dag<?> graph;
+        DagNode<? extends NodeBean<?>> from;
+        DagNode<? extends NodeBean<?>> to;
+        DagNodeState oldState;
+        DagNodeState newState;
+        DagNodeInfo node;
+
+        void clear() {
+            graph = null;
+            from = null;
+            to = null;
+            oldState = null;
+            newState = null;
+            node = null;
+        }
+    }
+
+    private final DagEventHandler delegate;
+    private final DagNodeStateChanged stateDelegate;
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final Event[] entries;
+    // 每个槽位的序号: 等于写入位置时可写, 等于写入位置+1时可读
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final Thread dispatcher;
+    private volatile long head;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    public AsyncDagEventHandler(DagEventHandler delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param delegate 被包装的监听器
+     * @param capacity 缓冲区大小, 向上取整为2的幂
+     * @param policy   缓冲区满时的处理策略
+     */
+    public AsyncDagEventHandler(DagEventHandler delegate, int capacity, OverflowPolicy policy) {
+        if (null == delegate || null == policy) {
+            throw new IllegalArgumentException("Delegate handler and overflow policy can not be null");
+        }
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("Illegal event buffer capacity %s", capacity));
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.delegate = delegate;
+        this.stateDelegate = delegate instanceof DagNodeStateChanged ? (DagNodeStateChanged) delegate : null;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.entries = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Event();
+            sequences.set(i, i);
+        }
+        this.dispatcher = new Thread(this::dispatch, String.format("dag-event-dispatcher-%s", THREAD_COUNT.incrementAndGet()));
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @return 因缓冲区满或采样而被丢弃的事件数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 缓冲区中尚未通知的事件数
+     */
+    public int getPendingCount() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    @Override
+    public void onCreated(Dag<?> graph) {
+        publish(EventType.CREATED, graph, null, null, null, null, null);
+    }
+
+    @Override
+    public void onNodeAdded(DagNode<? extends NodeBean<?>> node, Dag<?> graph) {
+        publish(EventType.NODE_ADDED, graph, node, null, null, null, null);
+    }
+
+    @Override
+    public void onEdgeAdded(DagNode<? extends NodeBean<?>> from, DagNode<? extends NodeBean<?>> to, Dag<?> graph) {
+        publish(EventType.EDGE_ADDED, graph, from, to, null, null, null);
+    }
+
+    @Override
+    public void onPrepared(Dag<?> graph) {
+        publish(EventType.PREPARED, graph, null, null, null, null, null);
+    }
+
+    @Override
+    public void onScheduling(Dag<?> graph) {
+        publish(EventType.SCHEDULING, graph, null, null, null, null, null);
+    }
+
+    @Override
+    public void onCompleted(Dag<?> graph) {
+        publish(EventType.COMPLETED, graph, null, null, null, null, null);
+    }
+
+    @Override
+    public void onNodeStateChanged(DagNodeState oldState, DagNodeState newState, DagNodeInfo node) {
+        if (null != stateDelegate) {
+            publish(EventType.NODE_STATE_CHANGED, null, null, null, oldState, newState, node);
+        }
+    }
+
+    /**
+     * 停止接收新事件, 等待缓冲区中的事件通知完毕
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(EventType type, Dag<?> graph, DagNode<? extends NodeBean<?>> from, DagNode<? extends NodeBean<?>> to,
+                         DagNodeState oldState, DagNodeState newState, DagNodeInfo node) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (policy == OverflowPolicy.SAMPLE && tail.get() - head > (mask + 1) * 3L / 4
+                && sampled.getAndIncrement() % SAMPLE_RATE != 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        long position;
+        for (; ; ) {
+            position = tail.get();
+            int slot = (int) (position & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                // 缓冲区已满
+                if (policy != OverflowPolicy.BLOCK || closed) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                wakeup();
+                LockSupport.parkNanos(1000);
+            }
+        }
+
+        int slot = (int) (position & mask);
+        Event event = entries[slot];
+        event.type = type;
+        event.graph = graph;
+        event.from = from;
+        event.to = to;
+        event.oldState = oldState;
+        event.newState = newState;
+        event.node = node;
+        // 发布序号与读取waiting都是volatile操作, 不会与消费者设置waiting后检查序号交错而丢失唤醒
+        sequences.set(slot, position + 1);
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (waiting) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private void dispatch() {
+        for (; ; ) {
+            int count = drain();
+            if (count > 0) {
+                continue;
+            }
+            if (closed && tail.get() == head) {
+                return;
+            }
+            // 空闲时一直挂起, 由发布事件或关闭的线程唤醒
+            waiting = true;
+            if (sequences.get((int) (head & mask)) != head + 1 && !closed) {
+                LockSupport.park(this);
+            }
+            waiting = false;
+        }
+    }
+
+    // 单消费者批量取出事件, 槽位在通知结束后才归还给生产者
+    private int drain() {
+        long position = head;
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            int slot = (int) (position & mask);
+            if (sequences.get(slot) != position + 1) {
+                break;
+            }
+            Event event = entries[slot];
+            deliver(event);
+            event.clear();
+            sequences.lazySet(slot, position + mask + 1);
+            position++;
+            count++;
+        }
+        head = position;
+        return count;
+    }
+
+    private void deliver(Event event) {
+        try {
+            switch (event.type) {
+                case CREATED:
+                    delegate.onCreated(event.graph);
+                    break;
+                case NODE_ADDED:
+                    delegate.onNodeAdded(event.from, event.graph);
+                    break;
+                case EDGE_ADDED:
+                    delegate.onEdgeAdded(event.from, event.to, event.graph);
+                    break;
+                case PREPARED:
+                    delegate.onPrepared(event.graph);
+                    break;
+                case SCHEDULING:
+                    delegate.onScheduling(event.graph);
+                    break;
+                case COMPLETED:
+                    delegate.onCompleted(event.graph);
+                    break;
+                case NODE_STATE_CHANGED:
+                    stateDelegate.onNodeStateChanged(event.oldState, event.newState, event.node);
+                    break;
+            }
+        } catch (Throwable e) {
+            log.warn("{} delegate handler error on {} event", getClass().getSimpleName(), event.type, e);
+        }
+    }
+}
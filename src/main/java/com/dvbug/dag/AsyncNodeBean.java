@@ -0,0 +1,30 @@
+package com.dvbug.dag;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 异步执行的节点内连Bean对象, 适用于调用RPC、数据库等以等待IO为主的节点
+ * <p>
+ * 节点进入RUNNING后调度器调用{@link AsyncNodeBean#executeAsync()}发起执行, 随即释放工作线程;
+ * 返回的{@link CompletionStage}完成后在线程池中回填节点结果并传递给下游节点, 异常完成时节点执行失败.<br/>
+ * 节点超时由计时器判定: 超过节点超时时间(未设置时为调度截止时间)仍未完成时节点超时,
+ * 返回的{@link CompletionStage}同时实现{@link java.util.concurrent.Future}时尝试取消, 之后的完成结果被忽略
+ *
+ * @param <T> 节点输出类型
+ */
+public interface AsyncNodeBean<T> extends NodeBean<T> {
+    /**
+     * 在节点运行时内被调用, 可以读取上游节点传递过来的参数; 不应阻塞当前线程
+     *
+     * @return 节点结果
+     */
+    CompletionStage<T> executeAsync();
+
+    /**
+     * 设置同步执行{@link NodeBean#execute()}时等待{@link AsyncNodeBean#executeAsync()}结果的超时,
+     * 节点加入图时设置为节点超时, 远程worker按请求携带的节点超时设置
+     *
+     * @param timeout 超时毫秒数, 小于0时一直等待
+     */
+    void setTimeout(long timeout);
+}
@@ -10,7 +10,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.dvbug.dag.DagStateTransition.transAllow;
 
@@ -22,6 +22,8 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
     private final long timeout;
     @Getter(AccessLevel.NONE)
     private final ThreadableField<DagState> state = new ThreadableField<>();
+    private final Class<?> inputType;
+    private final Class<R> resultType;
     private int edgeCount = 0;
     private DagNode<? extends NodeBean<?>> rootDagNode;
     private DagNode<? extends NodeBean<?>> finalDagNode;
@@ -29,6 +31,16 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
     private final Map<DagNode<? extends NodeBean<?>>, Set<DagNode<? extends NodeBean<?>>>> depends;
     private final Map<DagNode<? extends NodeBean<?>>, Set<DagNode<? extends NodeBean<?>>>> children;
     private final DagEventHandler eventHandler;
+    // 单次调度同时提交到线程池的最大节点数, 0表示不限制
+    private volatile int maxParallelism;
+    // 单次调度的整体超时毫秒数, 小于0表示不限制, 只有节点超时生效
+    private volatile long runTimeout = -1;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, DagNode<? extends NodeBean<?>>> nodeIndex;
+    @Getter(AccessLevel.NONE)
+    private volatile DagPlan plan;
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger schedulingCount = new AtomicInteger();
 
     /**
      * 创建指定模式的DAG图
@@ -54,7 +66,7 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
      *
      * @param mode         DAG图模式
      * @param timeout      节点超时毫秒数(不代表整体超时数)
-     * @param eventHandler DAG图生命周期内事件监听器
+     * @param eventHandler DAG图生命周期内事件监听器, 同时实现{@link DagNodeStateChanged}时也接收节点状态变化
      */
     public Dag(DagMode mode, long timeout, DagEventHandler eventHandler) {
         this(mode, timeout, null, null, eventHandler);
@@ -79,19 +91,25 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
      * @param timeout      节点超时毫秒数(不代表整体超时数)
      * @param inputType    起始输入参数类型
      * @param resultType   最终输出参数类型
-     * @param eventHandler DAG图生命周期内事件监听器
+     * @param eventHandler DAG图生命周期内事件监听器, 同时实现{@link DagNodeStateChanged}时也接收节点状态变化
      */
     public Dag(DagMode mode, long timeout, Class<?> inputType, Class<R> resultType, DagEventHandler eventHandler) {
         this(UUID.randomUUID().toString().replaceAll("-", ""), mode, timeout, inputType, resultType, eventHandler);
     }
 
-    private Dag(String graphId, DagMode mode, long timeout, Class<?> inputType, Class<R> resultType, DagEventHandler eventHandler) {
+    Dag(String graphId, DagMode mode, long timeout, Class<?> inputType, Class<R> resultType, DagEventHandler eventHandler) {
+        if (mode == DagMode.QUORUM) {
+            throw new IllegalArgumentException(String.format("%s can only be set on nodes", mode));
+        }
         this.mode = mode;
         this.graphId = graphId;
         this.timeout = timeout;
-        this.dagNodes = new HashSet<>();
+        this.inputType = inputType;
+        this.resultType = resultType;
+        this.dagNodes = new LinkedHashSet<>();
         this.depends = new HashMap<>();
         this.children = new HashMap<>();
+        this.nodeIndex = new HashMap<>();
         if (null != eventHandler) {
             this.eventHandler = eventHandler;
         } else {
@@ -101,17 +119,15 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
         setState(DagState.CREATED);
 
         if (null != inputType) {
-            this.rootDagNode = new DagNode<>(new RootStrategy(inputType));
-            addNode(this.rootDagNode);
+            addNode(new DagNode<>(new RootStrategy(inputType)));
         }
         if (null != resultType) {
-            this.finalDagNode = new DagNode<>(new FinalStrategy(resultType));
-            addNode(this.finalDagNode);
+            addNode(new DagNode<>(new FinalStrategy(resultType)));
         }
     }
 
     public void addNode(NodeBean<?> nodeBean) {
-        if (dagNodes.stream().anyMatch(n -> n.getBean().getName().equals(nodeBean.getName()))) {
+        if (nodeIndex.containsKey(nodeBean.getName())) {
             throw new IllegalArgumentException(String.format("%s is existed in graph[%s]", nodeBean, graphId));
         }
         addNode(new DagNode<>(nodeBean));
@@ -121,40 +137,32 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
         if (dagNodes.contains(dagNode)) {
             throw new IllegalArgumentException(String.format("%s is existed in graph[%s]", dagNode, graphId));
         }
-        if (dagNode.getBean().isRoot() && dagNodes.stream().anyMatch(t -> t.getBean().isRoot())) {
+        if (dagNode.getBean().isRoot() && null != rootDagNode) {
             throw new IllegalArgumentException(String.format("Just set root once in graph[%s]", graphId));
         }
 
-        if (dagNode.getBean().isFinal() && dagNodes.stream().anyMatch(t -> t.getBean().isFinal())) {
+        if (dagNode.getBean().isFinal() && null != finalDagNode) {
             throw new IllegalArgumentException(String.format("Just set final once in graph[%s]", graphId));
         }
 
-        if (dagNode.getBean().isRoot()) {
-            rootDagNode = dagNode;
-        }
-        if (dagNode.getBean().isFinal()) {
-            finalDagNode = dagNode;
-        }
-
-        dagNode.init(this);
-        dagNodes.add(dagNode);
+        attachNode(dagNode);
 
         setState(DagState.INITIALIZING);
         raiseEventOnNodeAdded(dagNode);
     }
 
     public void addEdge(String beanName, String beanNameDependOn) {
-        Optional<DagNode<? extends NodeBean<?>>> beanNode = dagNodes.stream().filter(n -> n.getBean().getName().equals(beanName)).findFirst();
-        Optional<DagNode<? extends NodeBean<?>>> dependNode = dagNodes.stream().filter(n -> n.getBean().getName().equals(beanNameDependOn)).findFirst();
+        DagNode<? extends NodeBean<?>> beanNode = nodeIndex.get(beanName);
+        DagNode<? extends NodeBean<?>> dependNode = nodeIndex.get(beanNameDependOn);
 
-        if (!beanNode.isPresent()) {
+        if (null == beanNode) {
             throw new IllegalArgumentException(String.format("No %s bean named [%s] in graph[%s]", DagNode.class.getSimpleName(), beanName, graphId));
         }
-        if (!dependNode.isPresent()) {
+        if (null == dependNode) {
             throw new IllegalArgumentException(String.format("No %s bean named [%s] in graph[%s]", DagNode.class.getSimpleName(), beanNameDependOn, graphId));
         }
 
-        addEdge(beanNode.get(), dependNode.get());
+        addEdge(beanNode, dependNode);
     }
 
     public void addEdge(DagNode<? extends NodeBean<?>> dagNode, DagNode<? extends NodeBean<?>> dependOn) {
@@ -164,20 +172,97 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
             throw new IllegalStateException(String.format("Dag graph edge[%s] can not independent in graph[%s]", edgeName, graphId));
         }
 
-        Set<DagNode<? extends NodeBean<?>>> depends = this.depends.computeIfAbsent(dagNode, k -> new HashSet<>());
-        Set<DagNode<? extends NodeBean<?>>> children = this.children.computeIfAbsent(dependOn, k -> new HashSet<>());
-
-        if (depends.contains(dependOn)) {
+        if (!attachEdge(dagNode, dependOn)) {
             throw new IllegalStateException(String.format("Dag graph edge[%s] is existed in graph[%s]", edgeName, graphId));
         }
 
-        depends.add(dependOn);
+        setState(DagState.INITIALIZING);
+        raiseEventOnEdgeAdded(dependOn, dagNode);
+    }
+
+    // 由 DAG和快照加载调用, 不做校验也不触发事件
+    void attachNode(DagNode<? extends NodeBean<?>> dagNode) {
+        if (dagNode.getBean().isRoot()) {
+            rootDagNode = dagNode;
+        }
+        if (dagNode.getBean().isFinal()) {
+            finalDagNode = dagNode;
+        }
+
+        dagNode.init(this);
+        dagNode.setStateChangedHandler(this);
+        dagNodes.add(dagNode);
+        nodeIndex.putIfAbsent(dagNode.getBean().getName(), dagNode);
+        plan = null;
+    }
+
+    // 由 DAG和快照加载调用, 不触发事件
+    boolean attachEdge(DagNode<? extends NodeBean<?>> dagNode, DagNode<? extends NodeBean<?>> dependOn) {
+        Set<DagNode<? extends NodeBean<?>>> depends = this.depends.computeIfAbsent(dagNode, k -> new HashSet<>());
+        if (!depends.add(dependOn)) {
+            return false;
+        }
         dagNode.setExpectDependCount(depends.size());
-        children.add(dagNode);
+        this.children.computeIfAbsent(dependOn, k -> new HashSet<>()).add(dagNode);
         edgeCount++;
+        plan = null;
+        return true;
+    }
 
+    // 由快照加载调用, 批量加载结束后直接挂载已编译的执行计划
+    void attached(DagPlan plan) {
         setState(DagState.INITIALIZING);
-        raiseEventOnEdgeAdded(dependOn, dagNode);
+        this.plan = plan;
+    }
+
+    /**
+     * 编译当前图结构为执行计划, 图结构未变化时复用上次的编译结果
+     *
+     * @return 按拓扑序编号的执行计划
+     */
+    DagPlan compile() {
+        DagPlan current = plan;
+        if (null == current) {
+            current = DagPlan.compile(this);
+            plan = current;
+        }
+        return current;
+    }
+
+    /**
+     * 设置单次调度的最大并行度<br/>
+     * 扇出很大的图一次提交大量节点会占满共享线程池, 其他调度只能排在其后;
+     * 设置后每次调度同时提交到线程池的节点数不超过该值, 其余可执行节点在调度内排队, 有节点执行完后再逐个提交.<br/>
+     * 记录在之后编译的执行计划中, 对之后开始的调度生效; 已经发布的版本保持发布时的值
+     *
+     * @param maxParallelism 最大并行度, 0表示不限制
+     */
+    public void setMaxParallelism(int maxParallelism) {
+        if (maxParallelism < 0) {
+            throw new IllegalArgumentException(String.format("Illegal max parallelism %s of graph[%s]", maxParallelism, graphId));
+        }
+        this.maxParallelism = maxParallelism;
+        plan = null;
+    }
+
+    /**
+     * 设置单次调度的整体超时<br/>
+     * 默认不限制, 每个节点只受自身超时约束; 设置后调度开始超过该时间仍未执行的节点记录为TIMEOUT, 调度返回已经结束节点组成的部分结果
+     *
+     * @param runTimeout 整体超时毫秒数, 小于0表示不限制
+     */
+    public void setRunTimeout(long runTimeout) {
+        this.runTimeout = runTimeout;
+    }
+
+    /**
+     * 按策略名称查找节点
+     *
+     * @param beanName 节点内连Bean名称
+     * @return 节点, 不存在时返回null
+     */
+    public DagNode<? extends NodeBean<?>> getDagNode(String beanName) {
+        return nodeIndex.get(beanName);
     }
 
     public <P> void setInput(P param) {
@@ -189,40 +274,63 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
         root.getBean().setParam(param);
     }
 
+    /**
+     * 终节点在最近一次执行中的结果; 图的节点在调度之间共享运行时状态, 调度结束后该值可能已经属于其他调度
+     *
+     * @deprecated 使用{@link DagScheduler#schedule}返回的{@link DagResult#getResult()}, 按需调度的中间结果使用{@link DagResult#getOutput(String)}
+     */
+    @Deprecated
     public R getOutput() {
         return (R) getFinalDagNode().getTrace().getFinalResult();
     }
 
+    /**
+     * 从图中移除节点以及与之相连的边<br/>
+     * 图结构的修改不是线程安全的, 正在进行的调度各自持有编译好的执行计划, 不受修改影响;
+     * 线上变更图结构时应构建新的图并通过{@link DagScheduler#publish(String, Dag)}发布为新版本
+     *
+     * @param dagNode 待移除的节点
+     * @return 节点是否存在于图中
+     */
     public boolean remove(DagNode<? extends NodeBean<?>> dagNode) {
-        if (!dagNodes.contains(dagNode)) {
+        if (!dagNodes.remove(dagNode)) {
             return false;
         }
-        synchronized (depends) {
-            depends.remove(dagNode);
-            for (Set<DagNode<?>> set : depends.values()) {
-                set.remove(dagNode);
-            }
+        nodeIndex.remove(dagNode.getBean().getName(), dagNode);
+        if (dagNode == rootDagNode) {
+            rootDagNode = null;
+        }
+        if (dagNode == finalDagNode) {
+            finalDagNode = null;
         }
 
-        synchronized (children) {
-            children.remove(dagNode);
-            for (Set<DagNode<?>> set : children.values()) {
-                set.remove(dagNode);
+        Set<DagNode<? extends NodeBean<?>>> dependOn = depends.remove(dagNode);
+        if (null != dependOn) {
+            for (DagNode<? extends NodeBean<?>> depend : dependOn) {
+                children.get(depend).remove(dagNode);
+                edgeCount--;
+            }
+        }
+        Set<DagNode<? extends NodeBean<?>>> dependBy = children.remove(dagNode);
+        if (null != dependBy) {
+            for (DagNode<? extends NodeBean<?>> child : dependBy) {
+                Set<DagNode<? extends NodeBean<?>>> childDepends = depends.get(child);
+                childDepends.remove(dagNode);
+                child.setExpectDependCount(childDepends.size());
+                edgeCount--;
             }
         }
+        plan = null;
         return true;
     }
 
     public boolean isScheduling() {
-        return dagNodes.stream().anyMatch(n -> n.isScheduled() && !n.isFinished());
+        return schedulingCount.get() > 0;
     }
 
     // 由 DAG调度器调用
-    void setPrepared(String traceId) {
-        getDagNodes().forEach(t -> {
-            t.getTrace().setId(traceId);
-            t.setStateChangedHandler(this);
-        });
+    void setPrepared() {
+        schedulingCount.incrementAndGet();
         setState(DagState.PREPARED);
     }
 
@@ -235,14 +343,9 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
     void setCompleted() {
         setState(DagState.COMPLETED);
 
-        //reset
+        //reset, 节点的调度状态保存在每次调度的上下文中, 无需重置
         this.state.reset();
-        this.dagNodes.forEach(DagNode::reset);
-    }
-
-    // 由 DAG调度器调用
-    Set<DagNode<? extends NodeBean<?>>> getRootNodes() {
-        return dagNodes.stream().filter(t -> t.getBean().isRoot()).collect(Collectors.toSet());
+        schedulingCount.decrementAndGet();
     }
 
     private void setState(DagState state) {
@@ -303,7 +406,7 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
         for (int i = 0; i < size; i++) {
             DagNode<?> node = nodes[i];
             for (int j = 0; j < nodes.length; j++) {
-                boolean contains = children.getOrDefault(node, new HashSet<>()).contains(nodes[j]);
+                boolean contains = children.getOrDefault(node, Collections.emptySet()).contains(nodes[j]);
                 matrix[i][j] = contains ? 1 : 0;
             }
         }
@@ -372,41 +475,40 @@ public class Dag<R> implements DagEventHandler, DagNodeStateChanged {
 
     @Override
     public void onNodeStateChanged(DagNodeState oldState, DagNodeState newState, DagNodeInfo node) {
-        log.trace("Node[{}] state changed: {} -> {}", node.getName(), oldState, newState);
+        if (log.isTraceEnabled()) {
+            log.trace("Node[{}] state changed: {} -> {}", node.getName(), oldState, newState);
+        }
+        // 事件监听器同时关注节点状态时一并通知
+        if (eventHandler != this && eventHandler instanceof DagNodeStateChanged) {
+            ((DagNodeStateChanged) eventHandler).onNodeStateChanged(oldState, newState, node);
+        }
     }
 
     private static String edgeName(@NonNull DagNode<? extends NodeBean<?>> from, @NonNull DagNode<? extends NodeBean<?>> to) {
         return String.format("%s->%s", from.getInfo().getName(), to.getInfo().getName());
     }
 
+    /**
+     * 输出本图正在进行的调度快照, 节点状态从各次调度的运行时上下文无锁读取, 可以在任意线程调用
+     *
+     * @return 快照文本
+     */
     public String dumpSnapshot() {
-        return buildLog(String.format("%s SNAPSHOT", this.getClass().getSimpleName()), this.getGraphId(), this.getMode(), this.getDagNodes(), this.getOutput());
-    }
-
-    private String buildLog(String marker, String graphId, DagMode mode, Collection<DagNode<?>> nodes, Object result) {
+        List<DagRunSnapshot> snapshots = DagRun.snapshots(run -> run.getPlan().getGraph() == this);
         StringBuilder builder = new StringBuilder();
-        String title = String.format("%s INFOS", marker);
+        String title = String.format("%s SNAPSHOT INFOS", this.getClass().getSimpleName());
         title = Util.covering(title, title.length() + 10, "=", true);
         title = Util.covering(title, title.length() + 10, "=", false);
         int len = title.length();
         builder.append(title).append("\n");
-        builder.append("graphId=").append(graphId).append("\n");
-        builder.append("mode=").append(mode).append("\n");
-        builder.append("nodes:\n");
-        nodes.forEach(t -> {
-            builder.append(t.toString());
-            if (t.isFinished()) {
-                builder.append(" result: ").append(t.getBean().getResult());
-            }
-            builder.append("\n");
-        });
-        builder.append("traces:\n");
-        nodes.forEach(t -> {
-            builder.append(t.toString()).append(" trace: ").append(t.getTrace()).append("\n");
+        builder.append("graphId=").append(getGraphId()).append("\n");
+        builder.append("mode=").append(getMode()).append("\n");
+        builder.append("runs=").append(snapshots.size()).append("\n");
+        snapshots.forEach(snapshot -> {
+            builder.append(snapshot).append("\n");
+            snapshot.getNodes().forEach(node -> builder.append("  ").append(node).append("\n"));
         });
-        builder.append(Util.repeat("=", len)).append("\n");
-        builder.append("Result:\n");
-        builder.append(result);
+        builder.append(Util.repeat("=", len));
         return builder.toString();
     }
 }
@@ -0,0 +1,126 @@
+package com.dvbug.dag;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link DagAnalyzer}的分析结果, 时间单位均为微秒
+ * <p>
+ * 分析多次调度时, 节点耗时和排队时间为各次调度的平均值, 关键路径和松弛时间基于平均耗时计算
+ */
+@Getter
+public final class DagAnalysis {
+    private final String graphId;
+    private final int runCount;
+    private final int threads;
+    /**
+     * 以节点执行耗时计算的关键路径长度
+     */
+    private final long criticalPathLength;
+    /**
+     * 实际观测到的调度耗时(第一个节点就绪到最后一个节点结束)
+     */
+    private final long makespan;
+    private final List<String> criticalPath;
+    private final List<NodeStats> nodes;
+    private final double averageParallelism;
+    private final int peakParallelism;
+    /**
+     * 各时刻正在执行的节点数, 仅分析单次调度时提供
+     */
+    private final List<long[]> parallelismTimeline;
+
+    DagAnalysis(String graphId, int runCount, int threads, long criticalPathLength, long makespan, List<String> criticalPath,
+                List<NodeStats> nodes, double averageParallelism, int peakParallelism, List<long[]> parallelismTimeline) {
+        this.graphId = graphId;
+        this.runCount = runCount;
+        this.threads = threads;
+        this.criticalPathLength = criticalPathLength;
+        this.makespan = makespan;
+        this.criticalPath = Collections.unmodifiableList(criticalPath);
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.averageParallelism = averageParallelism;
+        this.peakParallelism = peakParallelism;
+        this.parallelismTimeline = Collections.unmodifiableList(parallelismTimeline);
+    }
+
+    /**
+     * @return 平均并行度与可用线程数之比
+     */
+    public double getThreadUtilization() {
+        return threads <= 0 ? 0 : averageParallelism / threads;
+    }
+
+    /**
+     * @return 排队时间在调度耗时中的占比, 占比较高且线程利用率接近1时增加线程可以缩短调度耗时
+     */
+    public double getQueueingRatio() {
+        long queueing = nodes.stream().filter(NodeStats::isCritical).mapToLong(NodeStats::getQueueingDelay).sum();
+        return makespan <= 0 ? 0 : (double) queueing / makespan;
+    }
+
+    /**
+     * 单个节点的分析结果
+     */
+    @Getter
+    public static final class NodeStats {
+        private final String name;
+        private final long duration;
+        private final long queueingDelay;
+        private final long earliestStart;
+        private final long latestStart;
+        private final long slack;
+        private final boolean critical;
+
+        NodeStats(String name, long duration, long queueingDelay, long earliestStart, long latestStart) {
+            this.name = name;
+            this.duration = duration;
+            this.queueingDelay = queueingDelay;
+            this.earliestStart = earliestStart;
+            this.latestStart = latestStart;
+            this.slack = latestStart - earliestStart;
+            this.critical = slack == 0;
+        }
+    }
+
+    public String toText() {
+        StringBuilder builder = new StringBuilder();
+        String title = String.format("%s REPORT", getClass().getSimpleName());
+        title = Util.covering(title, title.length() + 10, "=", true);
+        title = Util.covering(title, title.length() + 10, "=", false);
+        int len = title.length();
+        builder.append(title).append("\n");
+        builder.append("graphId=").append(graphId).append("\n");
+        builder.append("runs=").append(runCount).append(", threads=").append(threads).append("\n");
+        builder.append("makespan=").append(makespan).append("us, criticalPath=").append(criticalPathLength).append("us\n");
+        builder.append("criticalPath=").append(String.join(" -> ", criticalPath)).append("\n");
+        builder.append(String.format("parallelism avg=%.2f, peak=%s, utilization=%.2f%%, queueing=%.2f%%%n",
+                averageParallelism, peakParallelism, getThreadUtilization() * 100, getQueueingRatio() * 100));
+        builder.append(Util.repeat("-", len)).append("\n");
+        builder.append(String.format("%-24s %12s %12s %12s %12s%n", "node", "duration", "queueing", "start", "slack"));
+        for (NodeStats node : nodes) {
+            builder.append(String.format("%-24s %12s %12s %12s %12s%s%n", node.getName(), node.getDuration(), node.getQueueingDelay(),
+                    node.getEarliestStart(), node.getSlack(), node.isCritical() ? " *" : ""));
+        }
+        builder.append(Util.repeat("=", len)).append("\n");
+        return builder.toString();
+    }
+
+    public String toJson() {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        JsonObject json = gson.toJsonTree(this).getAsJsonObject();
+        json.addProperty("threadUtilization", getThreadUtilization());
+        json.addProperty("queueingRatio", getQueueingRatio());
+        return gson.toJson(json);
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+}
@@ -0,0 +1,229 @@
+package com.dvbug.dag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 调度结果分析器, 基于{@link DagResult}中的节点轨迹计算关键路径、松弛时间、排队时间和实际并行度
+ * <p>
+ * 节点耗时为开始执行到最终状态的时间, 排队时间为依赖满足到开始执行的时间;
+ * 关键路径只考虑节点耗时, 与实际调度耗时的差距即为排队和调度开销.<br/>
+ * 松弛时间为节点在不延长关键路径的前提下可以推迟的时间, 优化松弛时间为0的节点才能缩短调度耗时.<br/>
+ * 子图节点的轨迹以"子图graphId/节点名称"区分, 避免与外层图的根节点、终节点等同名节点合并
+ */
+public final class DagAnalyzer {
+    private DagAnalyzer() {
+    }
+
+    public static DagAnalysis analyze(DagResult<?> result) {
+        return analyze(Collections.singletonList(result), DagScheduler.DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * 分析单次调度
+     *
+     * @param result  调度结果
+     * @param threads 调度可用的线程数
+     * @return 分析结果
+     */
+    public static DagAnalysis analyze(DagResult<?> result, int threads) {
+        return analyze(Collections.singletonList(result), threads);
+    }
+
+    /**
+     * 分析同一个图的多次调度, 节点耗时和排队时间取平均值; 没有可分析轨迹的调度不计入平均
+     *
+     * @param results 调度结果
+     * @param threads 调度可用的线程数
+     * @return 分析结果
+     */
+    public static DagAnalysis analyze(Collection<? extends DagResult<?>> results, int threads) {
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("No DagResult to analyze");
+        }
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        Map<String, Set<String>> parents = new HashMap<>();
+        long makespanTotal = 0;
+        double parallelismTotal = 0;
+        int peak = 0;
+        List<long[]> timeline = Collections.emptyList();
+        String graphId = null;
+        int runs = 0;
+        for (DagResult<?> result : results) {
+            if (null == graphId) {
+                graphId = result.getGraphId();
+            }
+            long first = Long.MAX_VALUE;
+            long last = 0;
+            List<long[]> intervals = new ArrayList<>();
+            for (TraceInfo trace : result.getHistory()) {
+                String graph = trace.getNodeInfo().getGraphId();
+                String name = qualify(result.getGraphId(), graph, trace.getNodeInfo().getName());
+                long start = trace.getStateTimeMicros(DagNodeState.START);
+                long end = endTime(trace);
+                long ready = trace.getReadyTime() > 0 ? trace.getReadyTime() : start;
+                if (start <= 0 || end < start) {
+                    continue;
+                }
+                long[] total = totals.computeIfAbsent(name, k -> new long[3]);
+                total[0] += end - start;
+                total[1] += Math.max(0, start - ready);
+                total[2]++;
+                Set<String> depends = parents.computeIfAbsent(name, k -> new LinkedHashSet<>());
+                for (String parent : trace.getParents()) {
+                    depends.add(qualify(result.getGraphId(), graph, parent));
+                }
+                first = Math.min(first, ready);
+                last = Math.max(last, end);
+                intervals.add(new long[]{start, end});
+            }
+            if (intervals.isEmpty()) {
+                continue;
+            }
+            runs++;
+            long makespan = last - first;
+            makespanTotal += makespan;
+            timeline = timeline(intervals, first);
+            long busy = intervals.stream().mapToLong(i -> i[1] - i[0]).sum();
+            parallelismTotal += makespan <= 0 ? intervals.size() : (double) busy / makespan;
+            for (long[] step : timeline) {
+                peak = Math.max(peak, (int) step[1]);
+            }
+        }
+
+        // 按依赖关系进行拓扑排序, 上游不在分析范围内的依赖被忽略
+        List<String> order = topologicalOrder(totals.keySet(), parents);
+        Map<String, Long> durations = new HashMap<>();
+        Map<String, Long> queueing = new HashMap<>();
+        totals.forEach((name, total) -> {
+            durations.put(name, total[0] / total[2]);
+            queueing.put(name, total[1] / total[2]);
+        });
+
+        Map<String, Long> earliest = new HashMap<>();
+        long length = 0;
+        String tail = null;
+        for (String name : order) {
+            long start = 0;
+            for (String parent : parents.get(name)) {
+                if (earliest.containsKey(parent)) {
+                    start = Math.max(start, earliest.get(parent) + durations.get(parent));
+                }
+            }
+            earliest.put(name, start);
+            long finish = start + durations.get(name);
+            if (null == tail || finish > length) {
+                length = finish;
+                tail = name;
+            }
+        }
+
+        Map<String, List<String>> children = new HashMap<>();
+        for (String name : order) {
+            for (String parent : parents.get(name)) {
+                if (earliest.containsKey(parent)) {
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(name);
+                }
+            }
+        }
+        Map<String, Long> latest = new HashMap<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            String name = order.get(i);
+            long finish = length;
+            for (String child : children.getOrDefault(name, Collections.emptyList())) {
+                finish = Math.min(finish, latest.get(child));
+            }
+            latest.put(name, finish - durations.get(name));
+        }
+
+        List<String> criticalPath = new ArrayList<>();
+        for (String current = tail; null != current; ) {
+            criticalPath.add(current);
+            String next = null;
+            for (String parent : parents.get(current)) {
+                if (earliest.containsKey(parent) && earliest.get(parent) + durations.get(parent) == earliest.get(current)
+                        && latest.get(parent).equals(earliest.get(parent))) {
+                    next = parent;
+                    break;
+                }
+            }
+            current = next;
+        }
+        Collections.reverse(criticalPath);
+
+        List<DagAnalysis.NodeStats> nodes = new ArrayList<>(order.size());
+        for (String name : order) {
+            nodes.add(new DagAnalysis.NodeStats(name, durations.get(name), queueing.get(name), earliest.get(name), latest.get(name)));
+        }
+        int divisor = Math.max(1, runs);
+        return new DagAnalysis(graphId, runs, threads, length, makespanTotal / divisor, criticalPath, nodes,
+                parallelismTotal / divisor, peak, runs == 1 ? timeline : Collections.emptyList());
+    }
+
+    // 外层图的节点使用节点名称, 子图的节点以子图graphId限定
+    static String qualify(String resultGraphId, String graphId, String name) {
+        return null == graphId || graphId.equals(resultGraphId) ? name : graphId + "/" + name;
+    }
+
+    private static long endTime(TraceInfo trace) {
+        DagNodeState state = trace.getFinalState();
+        return null != state && DagNodeStateTransition.isFinalState(state) ? trace.getStateTimeMicros(state) : 0;
+    }
+
+    // 扫描线计算各时刻正在执行的节点数, 返回(相对时间, 并行数)阶梯序列
+    private static List<long[]> timeline(List<long[]> intervals, long origin) {
+        TreeMap<Long, Integer> deltas = new TreeMap<>();
+        for (long[] interval : intervals) {
+            deltas.merge(interval[0] - origin, 1, Integer::sum);
+            deltas.merge(interval[1] - origin, -1, Integer::sum);
+        }
+        List<long[]> steps = new ArrayList<>(deltas.size());
+        int running = 0;
+        for (Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+            running += delta.getValue();
+            steps.add(new long[]{delta.getKey(), running});
+        }
+        return steps;
+    }
+
+    private static List<String> topologicalOrder(Set<String> names, Map<String, Set<String>> parents) {
+        Map<String, Integer> inDegrees = new HashMap<>();
+        Map<String, List<String>> children = new HashMap<>();
+        for (String name : names) {
+            int degree = 0;
+            for (String parent : parents.get(name)) {
+                if (names.contains(parent)) {
+                    degree++;
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(name);
+                }
+            }
+            inDegrees.put(name, degree);
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        names.stream().filter(n -> inDegrees.get(n) == 0).forEach(ready::add);
+        List<String> order = new ArrayList<>(names.size());
+        while (!ready.isEmpty()) {
+            String current = ready.poll();
+            order.add(current);
+            for (String child : children.getOrDefault(current, Collections.emptyList())) {
+                if (inDegrees.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        if (order.size() != names.size()) {
+            throw new IllegalStateException(String.format("Dag history has cycle, nodes=%s", names));
+        }
+        return order;
+    }
+}
@@ -0,0 +1,267 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单次调度的堆外内存区, 用于节点之间传递大块数据(特征向量、二进制载荷等)
+ * <p>
+ * 节点运行时内通过{@link DagArena#current()}获取本次调度的内存区, 分配的{@link DagBuffer}作为结果传递给下游时,
+ * 每个下游节点收到共享同一块内存的只读视图, 数据不在堆上复制.<br/>
+ * 内存按块从直接内存中分配, 块内顺序分配不单独回收; 调度结束时内存区整体释放, 内存块归还到全局块池供后续调度复用,
+ * 调度结束时仍有节点在执行(超时、竞速取消)的内存区不归还内存块.<br/>
+ * 调度结果中的{@link DagBuffer}在内存区释放前被复制到堆上, 内存区释放后访问其他{@link DagBuffer}抛出{@link IllegalStateException},
+ * 通过{@link DagBuffer#buffer()}取得的{@link ByteBuffer}不能在调度结束后继续使用
+ */
+@Slf4j
+public final class DagArena implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_POOLED_CHUNKS = 64;
+    private static final ThreadLocal<DagArena> CURRENT = new ThreadLocal<>();
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    private static final AtomicInteger OPENED = new AtomicInteger();
+    private static final AtomicLong RESERVED = new AtomicLong();
+    private static final AtomicLong BULK_FREED = new AtomicLong();
+    private static final AtomicLong STALE_ACCESSES = new AtomicLong();
+
+    @Getter
+    private String traceId;
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer chunk;
+    @Getter
+    private long allocatedBytes;
+    @Getter
+    private int allocatedCount;
+    @Getter
+    private long releasedBytes;
+    @Getter
+    private int releasedCount;
+    private long reserved;
+    // 每次释放后加1, 用于识别上一次调度遗留的缓冲区
+    private volatile int generation;
+    private volatile boolean closed;
+
+    DagArena(String traceId) {
+        this(traceId, DEFAULT_CHUNK_SIZE);
+    }
+
+    DagArena(String traceId, int chunkSize) {
+        this.traceId = traceId;
+        this.chunkSize = chunkSize;
+        OPENED.incrementAndGet();
+    }
+
+    /**
+     * @return 当前节点运行时所属调度的内存区
+     * @throws IllegalStateException 不在节点运行时内调用
+     */
+    public static DagArena current() {
+        DagArena arena = CURRENT.get();
+        if (null == arena) {
+            throw new IllegalStateException("No arena bound, DagArena can only be used in node runtime");
+        }
+        return arena;
+    }
+
+    /**
+     * @return 尚未释放的内存区数, 所有调度结束后不为0说明有内存区泄漏
+     */
+    public static int getOpenedCount() {
+        return OPENED.get();
+    }
+
+    /**
+     * @return 尚未释放的内存区占用的直接内存字节数
+     */
+    public static long getReservedBytes() {
+        return RESERVED.get();
+    }
+
+    /**
+     * @return 内存区释放时仍未被显式释放的{@link DagBuffer}字节数累计
+     */
+    public static long getBulkFreedBytes() {
+        return BULK_FREED.get();
+    }
+
+    /**
+     * @return 内存区释放后仍被访问的次数累计, 不为0说明有{@link DagBuffer}被带出了调度
+     */
+    public static long getStaleAccessCount() {
+        return STALE_ACCESSES.get();
+    }
+
+    /**
+     * 由 DAG调度器调用, 将内存区绑定到当前线程
+     *
+     * @return 之前绑定的内存区, 用于{@link DagArena#unbind(DagArena)}恢复
+     */
+    static DagArena bind(DagArena arena) {
+        DagArena previous = CURRENT.get();
+        CURRENT.set(arena);
+        return previous;
+    }
+
+    // 由 DAG调度器调用
+    static void unbind(DagArena previous) {
+        if (null == previous) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * 由 DAG调度器调用, 复用已经释放的内存区
+     *
+     * @param traceId 新调度的traceId
+     */
+    synchronized void reopen(String traceId) {
+        if (!closed) {
+            throw new IllegalStateException(String.format("%s of trace %s is still open", getClass().getSimpleName(), this.traceId));
+        }
+        this.traceId = traceId;
+        allocatedBytes = 0;
+        allocatedCount = 0;
+        releasedBytes = 0;
+        releasedCount = 0;
+        reserved = 0;
+        closed = false;
+        OPENED.incrementAndGet();
+    }
+
+    /**
+     * 分配指定大小的堆外缓冲区, 超过块大小的请求单独分配一个块; 内存块可能来自块池, 缓冲区内容不保证清零
+     *
+     * @param size 字节数
+     * @return 可写的缓冲区
+     */
+    public synchronized DagBuffer allocate(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException(String.format("Illegal buffer size %s", size));
+        }
+        check(generation);
+        ByteBuffer region;
+        if (size > chunkSize) {
+            region = reserve(size);
+        } else {
+            if (null == chunk || chunk.remaining() < size) {
+                chunk = reserve(chunkSize);
+            }
+            region = chunk.slice();
+            region.limit(size);
+            chunk.position(chunk.position() + size);
+        }
+        allocatedBytes += size;
+        allocatedCount++;
+        return new DagBuffer(this, generation, region.slice(), false);
+    }
+
+    /**
+     * 分配缓冲区并写入数据
+     *
+     * @param bytes 数据
+     * @return 可写的缓冲区, position为0
+     */
+    public DagBuffer copyOf(byte[] bytes) {
+        DagBuffer buffer = allocate(bytes.length);
+        buffer.buffer().put(bytes);
+        return buffer;
+    }
+
+    /**
+     * @return 未被显式释放的字节数
+     */
+    public synchronized long getLiveBytes() {
+        return allocatedBytes - releasedBytes;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 整体释放内存区, 内存块归还到全局块池
+     */
+    @Override
+    public void close() {
+        close(true);
+    }
+
+    /**
+     * 由 DAG调度器调用, 整体释放内存区
+     *
+     * @param reuse 内存块是否归还到全局块池; 仍有节点可能持有缓冲区时不归还, 由GC回收直接内存
+     */
+    synchronized void close(boolean reuse) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        generation++;
+        long live = allocatedBytes - releasedBytes;
+        BULK_FREED.addAndGet(live);
+        RESERVED.addAndGet(-reserved);
+        OPENED.decrementAndGet();
+        for (ByteBuffer buffer : chunks) {
+            // 块池满时不再归还, 由GC回收直接内存
+            if (reuse && buffer.capacity() == DEFAULT_CHUNK_SIZE && POOLED.get() < MAX_POOLED_CHUNKS) {
+                POOLED.incrementAndGet();
+                buffer.clear();
+                POOL.offer(buffer);
+            }
+        }
+        chunks.clear();
+        chunk = null;
+        if (allocatedCount > 0) {
+            log.debug("{} of trace {} closed, allocated {} buffers {} bytes, bulk freed {} buffers {} bytes", getClass().getSimpleName(),
+                    traceId, allocatedCount, allocatedBytes, allocatedCount - releasedCount, live);
+        }
+    }
+
+    // 由DagBuffer调用
+    synchronized void release(int generation, int size) {
+        if (generation == this.generation && !closed) {
+            releasedBytes += size;
+            releasedCount++;
+        }
+    }
+
+    void check(int generation) {
+        if (closed || generation != this.generation) {
+            STALE_ACCESSES.incrementAndGet();
+            throw new IllegalStateException(String.format("%s of trace %s already closed", getClass().getSimpleName(), traceId));
+        }
+    }
+
+    private ByteBuffer reserve(int size) {
+        ByteBuffer buffer = null;
+        if (size == DEFAULT_CHUNK_SIZE) {
+            buffer = POOL.poll();
+            if (null != buffer) {
+                POOLED.decrementAndGet();
+            }
+        }
+        if (null == buffer) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        chunks.add(buffer);
+        reserved += buffer.capacity();
+        RESERVED.addAndGet(buffer.capacity());
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[trace=%s, allocated=%s, live=%s, closed=%s]", getClass().getSimpleName(), traceId, allocatedBytes, getLiveBytes(), closed);
+    }
+}
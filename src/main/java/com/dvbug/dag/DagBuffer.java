@@ -0,0 +1,127 @@
+package com.dvbug.dag;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DagArena}中分配的堆外缓冲区句柄
+ * <p>
+ * 作为节点结果传递时每个下游节点收到一个只读视图({@link DagBuffer#slice()}), 与上游共享同一块内存.<br/>
+ * 句柄可以显式{@link DagBuffer#release()}以便泄漏统计, 内存本身在内存区释放时整体回收.<br/>
+ * 序列化(检查点、远程执行)时写出数据内容, 反序列化得到堆上的缓冲区
+ */
+public final class DagBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final transient DagArena arena;
+    private final transient int generation;
+    private final transient ByteBuffer buffer;
+    private final transient boolean readOnly;
+    private transient boolean released;
+
+    DagBuffer(DagArena arena, int generation, ByteBuffer buffer, boolean readOnly) {
+        this.arena = arena;
+        this.generation = generation;
+        this.buffer = buffer;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * 包装堆上的数据, 不属于任何内存区
+     *
+     * @param bytes 数据
+     * @return 可写的缓冲区
+     */
+    public static DagBuffer wrap(byte[] bytes) {
+        return new DagBuffer(null, 0, ByteBuffer.wrap(bytes), false);
+    }
+
+    /**
+     * @return 覆盖整个缓冲区的新视图(position为0, limit为容量), 只读句柄返回只读视图
+     */
+    public ByteBuffer buffer() {
+        check();
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        return view;
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return 是否为堆外缓冲区
+     */
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * @return 共享同一块内存的只读句柄
+     */
+    public DagBuffer slice() {
+        check();
+        return new DagBuffer(arena, generation, buffer.asReadOnlyBuffer(), true);
+    }
+
+    /**
+     * @return 复制到堆上的数据
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size()];
+        buffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 声明不再使用该缓冲区, 只读视图的释放不计入统计
+     */
+    public void release() {
+        if (released || readOnly) {
+            return;
+        }
+        released = true;
+        if (null != arena) {
+            arena.release(generation, size());
+        }
+    }
+
+    // 由 DAG调度器调用, 内存区释放前把需要带出调度的缓冲区复制到堆上
+    DagBuffer detach() {
+        return null == arena ? this : wrap(toByteArray());
+    }
+
+    private void check() {
+        if (null != arena) {
+            arena.check(generation);
+        }
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new Serialized(toByteArray());
+    }
+
+    private static final class Serialized implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final byte[] bytes;
+
+        private Serialized(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return wrap(bytes);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%s, direct=%s, readOnly=%s]", getClass().getSimpleName(), size(), isDirect(), readOnly);
+    }
+}
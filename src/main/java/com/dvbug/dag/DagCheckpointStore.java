@@ -0,0 +1,432 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 节点结果检查点存储, 用于从失败的调度中恢复
+ * <p>
+ * 调度开始时记录输入参数, 节点执行成功后记录其结果, 调度成功结束后标记完成,
+ * 全部记录追加写入一个内存映射的日志文件.<br/>
+ * 日志记录格式:
+ * <pre>
+ * length(int) type(byte) runId [graphName input | node payload] crc32(int)
+ * </pre>
+ * 字符串以 长度(int)+UTF-8字节 存放, 二进制数据以 长度(int)+字节 存放, crc32覆盖type到crc32之前的全部内容;
+ * length为0表示日志结尾, 打开时遇到校验失败的记录(写入中断)也视为日志结尾.<br/>
+ * 已完成调度的记录由{@link DagCheckpointStore#compact()}清除
+ */
+@Slf4j
+public final class DagCheckpointStore implements AutoCloseable {
+    public static final long DEFAULT_CAPACITY = 16L * 1024 * 1024;
+
+    private static final byte TYPE_STARTED = 1;
+    private static final byte TYPE_NODE = 2;
+    private static final byte TYPE_COMPLETED = 3;
+
+    private final Path file;
+    private final DagCodec codec;
+    private final Map<String, Checkpoint> runs = new LinkedHashMap<>();
+    // 写入可能扩展文件映射, 不使用synchronized以免在虚拟线程中占住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    /**
+     * 单次调度的检查点
+     */
+    public static final class Checkpoint {
+        @Getter
+        private final String runId;
+        @Getter
+        private final String graphName;
+        private final int inputOffset;
+        private final Map<String, int[]> nodes = new LinkedHashMap<>();
+        @Getter
+        private boolean completed;
+
+        private Checkpoint(String runId, String graphName, int inputOffset) {
+            this.runId = runId;
+            this.graphName = graphName;
+            this.inputOffset = inputOffset;
+        }
+
+        /**
+         * @return 已经执行成功的节点名称
+         */
+        public List<String> getFinishedNodes() {
+            return new ArrayList<>(nodes.keySet());
+        }
+    }
+
+    public DagCheckpointStore(Path file, DagCodec codec) throws IOException {
+        this(file, codec, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 打开或创建日志文件, 并从已有记录中重建索引
+     *
+     * @param file     日志文件
+     * @param codec    节点结果和输入参数的序列化器
+     * @param capacity 初始映射大小, 写满后按倍数扩展
+     */
+    public DagCheckpointStore(Path file, DagCodec codec, long capacity) throws IOException {
+        this.file = file;
+        this.codec = codec;
+        open(Math.max(capacity, Files.exists(file) ? Files.size(file) : 0));
+        recover();
+    }
+
+    /**
+     * 记录调度开始
+     *
+     * @param runId     调度标识(traceId)
+     * @param graphName 通过名称调度时的图名称, 否则为空字符串
+     * @param input     起始输入参数
+     */
+    public void started(String runId, String graphName, Object input) {
+        lock.lock();
+        try {
+            if (runs.containsKey(runId)) {
+                return;
+            }
+            byte[] payload = codec.encode(input);
+            int offset = append(TYPE_STARTED, runId, graphName, payload);
+            runs.put(runId, new Checkpoint(runId, graphName, payloadOffset(offset, runId, graphName)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录节点执行成功
+     *
+     * @param runId  调度标识
+     * @param node   节点名称
+     * @param result 节点结果
+     */
+    public void finished(String runId, String node, Object result) {
+        lock.lock();
+        try {
+            Checkpoint checkpoint = runs.get(runId);
+            if (null == checkpoint || checkpoint.completed) {
+                return;
+            }
+            byte[] payload = codec.encode(result);
+            int offset = append(TYPE_NODE, runId, node, payload);
+            checkpoint.nodes.put(node, new int[]{payloadOffset(offset, runId, node), payload.length});
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录调度成功结束, 其记录在下次压缩时清除
+     *
+     * @param runId 调度标识
+     */
+    public void completed(String runId) {
+        lock.lock();
+        try {
+            Checkpoint checkpoint = runs.get(runId);
+            if (null == checkpoint || checkpoint.completed) {
+                return;
+            }
+            append(TYPE_COMPLETED, runId, "", new byte[0]);
+            checkpoint.completed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param runId 调度标识
+     * @return 检查点, 不存在时返回null
+     */
+    public Checkpoint get(String runId) {
+        lock.lock();
+        try {
+            return runs.get(runId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 未完成的调度标识
+     */
+    public List<String> getUnfinishedRuns() {
+        lock.lock();
+        try {
+            List<String> unfinished = new ArrayList<>();
+            runs.values().forEach(c -> {
+                if (!c.completed) unfinished.add(c.runId);
+            });
+            return unfinished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param runId 调度标识
+     * @return 调度的起始输入参数
+     */
+    public Object loadInput(String runId) {
+        lock.lock();
+        try {
+            Checkpoint checkpoint = require(runId);
+            ByteBuffer view = buffer.duplicate();
+            view.position(checkpoint.inputOffset - 4);
+            return codec.decode(readBytes(view));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param runId 调度标识
+     * @return 已经执行成功的节点结果, 节点名称 -> 结果
+     */
+    public Map<String, Object> loadResults(String runId) {
+        lock.lock();
+        try {
+            Checkpoint checkpoint = require(runId);
+            Map<String, Object> results = new LinkedHashMap<>();
+            checkpoint.nodes.forEach((node, location) -> {
+                byte[] bytes = new byte[location[1]];
+                ByteBuffer view = buffer.duplicate();
+                view.position(location[0]);
+                view.get(bytes);
+                results.put(node, codec.decode(bytes));
+            });
+            return results;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 压缩日志: 只保留未完成调度的记录, 写入临时文件后原子替换
+     *
+     * @return 被清除的调度数
+     */
+    public int compact() throws IOException {
+        lock.lock();
+        try {
+            List<Checkpoint> kept = new ArrayList<>();
+            runs.values().forEach(c -> {
+                if (!c.completed) kept.add(c);
+            });
+            int removed = runs.size() - kept.size();
+            if (removed == 0) {
+                return 0;
+            }
+
+            Path temp = file.resolveSibling(file.getFileName() + ".compact");
+            Map<String, Checkpoint> rebuilt = new LinkedHashMap<>();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                int written = 0;
+                for (Checkpoint checkpoint : kept) {
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(checkpoint.inputOffset - 4);
+                    byte[] input = readBytes(view);
+                    ByteBuffer record = encode(TYPE_STARTED, checkpoint.runId, checkpoint.graphName, input);
+                    Checkpoint copy = new Checkpoint(checkpoint.runId, checkpoint.graphName, written + payloadOffset(0, checkpoint.runId, checkpoint.graphName));
+                    written += writeFully(out, record);
+                    for (Map.Entry<String, int[]> node : checkpoint.nodes.entrySet()) {
+                        byte[] payload = new byte[node.getValue()[1]];
+                        view.position(node.getValue()[0]);
+                        view.get(payload);
+                        record = encode(TYPE_NODE, checkpoint.runId, node.getKey(), payload);
+                        copy.nodes.put(node.getKey(), new int[]{written + payloadOffset(0, checkpoint.runId, node.getKey()), payload.length});
+                        written += writeFully(out, record);
+                    }
+                    rebuilt.put(copy.runId, copy);
+                }
+                out.force(true);
+                long capacity = buffer.capacity();
+                closeChannel();
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                open(capacity);
+                position = written;
+            }
+            runs.clear();
+            runs.putAll(rebuilt);
+            log.info("{} compacted {}, removed {} completed runs, kept {}", getClass().getSimpleName(), file, removed, kept.size());
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            buffer.force();
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Checkpoint require(String runId) {
+        Checkpoint checkpoint = runs.get(runId);
+        if (null == checkpoint) {
+            throw new IllegalArgumentException(String.format("No checkpoint of run [%s] in %s", runId, file));
+        }
+        return checkpoint;
+    }
+
+    private void open(long capacity) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void closeChannel() throws IOException {
+        channel.close();
+    }
+
+    // 扫描日志重建索引, 遇到结尾或损坏的记录时停止, 之后的写入覆盖损坏部分
+    private void recover() {
+        ByteBuffer view = buffer.duplicate();
+        int offset = 0;
+        while (offset + 4 <= view.capacity()) {
+            view.position(offset);
+            int length = view.getInt();
+            if (length <= 0 || offset + 4 + length + 4 > view.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            view.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != view.getInt()) {
+                log.warn("{} found broken record at {} in {}, truncated", getClass().getSimpleName(), offset, file);
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            String runId = readString(record);
+            String name = readString(record);
+            int payloadOffset = offset + 4 + record.position() + 4;
+            int payloadLength = record.getInt();
+            switch (type) {
+                case TYPE_STARTED:
+                    runs.putIfAbsent(runId, new Checkpoint(runId, name, payloadOffset));
+                    break;
+                case TYPE_NODE:
+                    Checkpoint checkpoint = runs.get(runId);
+                    if (null != checkpoint) checkpoint.nodes.put(name, new int[]{payloadOffset, payloadLength});
+                    break;
+                case TYPE_COMPLETED:
+                    Checkpoint completed = runs.get(runId);
+                    if (null != completed) completed.completed = true;
+                    break;
+                default:
+                    log.warn("{} unknown record type {} at {} in {}", getClass().getSimpleName(), type, offset, file);
+            }
+            offset += 4 + length + 4;
+        }
+        position = offset;
+        // 清除结尾之后可能存在的残留数据, 保证下次打开时在同一位置停止
+        if (position + 4 <= buffer.capacity()) {
+            buffer.putInt(position, 0);
+        }
+        log.debug("{} recovered {} runs from {}", getClass().getSimpleName(), runs.size(), file);
+    }
+
+    private int append(byte type, String runId, String name, byte[] payload) {
+        ByteBuffer record = encode(type, runId, name, payload);
+        int size = record.remaining();
+        ensureCapacity(size + 4);
+        int offset = position;
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(record);
+        // 先写入记录, 再写入结尾标记
+        if (view.remaining() >= 4) {
+            view.putInt(0);
+        }
+        position += size;
+        return offset;
+    }
+
+    private void ensureCapacity(int size) {
+        long required = (long) position + size;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Checkpoint journal %s is full, compact it first", file));
+        }
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Checkpoint journal %s can not grow to %s bytes", file, capacity), e);
+        }
+    }
+
+    private static ByteBuffer encode(byte type, String runId, String name, byte[] payload) {
+        byte[] runIdBytes = runId.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + runIdBytes.length + 4 + nameBytes.length + 4 + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+        record.putInt(length);
+        record.put(type);
+        record.putInt(runIdBytes.length).put(runIdBytes);
+        record.putInt(nameBytes.length).put(nameBytes);
+        record.putInt(payload.length).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    // 记录起始位置 -> payload起始位置
+    private static int payloadOffset(int offset, String runId, String name) {
+        return offset + 4 + 1 + 4 + runId.getBytes(StandardCharsets.UTF_8).length + 4 + name.getBytes(StandardCharsets.UTF_8).length + 4;
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer record) throws IOException {
+        int size = record.remaining();
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+        return size;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
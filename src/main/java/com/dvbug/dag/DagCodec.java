@@ -0,0 +1,50 @@
+package com.dvbug.dag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+
+/**
+ * 节点参数和结果的序列化器
+ * <p>
+ * 节点参数和结果需要跨进程传递(远程执行)或者落盘(检查点)时使用, 默认使用Java序列化{@link DagCodec#JAVA}
+ */
+public interface DagCodec {
+    /**
+     * Java序列化, 要求对象实现{@link Serializable}
+     */
+    DagCodec JAVA = new DagCodec() {
+        @Override
+        public byte[] encode(Object value) {
+            if (null != value && !(value instanceof Serializable)) {
+                throw new IllegalArgumentException(String.format("%s is not serializable", value.getClass().getName()));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Object decode(byte[] bytes) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return in.readObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    byte[] encode(Object value);
+
+    Object decode(byte[] bytes);
+}
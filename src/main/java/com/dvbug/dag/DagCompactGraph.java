@@ -0,0 +1,547 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link Dag}的紧凑表示, 用于常驻内存的大图(十万级节点)
+ * <p>
+ * 节点名称、策略标识、超时、标志位、汇合模式、层级和邻接关系都存放在按拓扑序排列的并行基本类型数组中,
+ * 依赖和下游关系为CSR形式, 策略标识按字典去重, 名称查找使用开放寻址的int散列表.<br/>
+ * 不持有{@link DagNode}和{@link NodeBean}实例, 需要时通过{@link DagCompactGraph#node(int, NodeBeanFactory)}创建单个节点视图,
+ * 或者通过{@link DagCompactGraph#toDag(NodeBeanFactory)}还原为可调度的{@link Dag}.<br/>
+ * 实例不可变, 可以被多个线程同时读取
+ */
+public final class DagCompactGraph {
+    private static final byte FLAG_ROOT = 1;
+    private static final byte FLAG_FINAL = 2;
+    // 节点超时取图超时
+    private static final long INHERIT_TIMEOUT = Integer.MIN_VALUE;
+    // 节点汇合模式取图模式
+    private static final byte INHERIT_JOIN = -1;
+    private static final DagMode[] MODES = DagMode.values();
+
+    @Getter
+    private final String graphId;
+    @Getter
+    private final DagMode mode;
+    @Getter
+    private final long timeout;
+    @Getter
+    private final Class<?> inputType;
+    @Getter
+    private final Class<?> resultType;
+    private final String[] names;
+    private final String[] strategies;
+    private final int[] strategyIndexes;
+    private final long[] timeouts;
+    private final byte[] flags;
+    // 节点自己的汇合模式序号, 以及法定数汇合所需的成功上游数(没有法定数汇合节点时为null)
+    private final byte[] joins;
+    private final int[] quorums;
+    private final int[] levels;
+    private final int[] childOffsets;
+    private final int[] childIndexes;
+    private final int[] parentOffsets;
+    private final int[] parentIndexes;
+    // 开放寻址散列表, 存放节点序号+1, 0为空槽
+    private final int[] nameTable;
+
+    private DagCompactGraph(String graphId, DagMode mode, long timeout, Class<?> inputType, Class<?> resultType,
+                            String[] names, String[] strategies, int[] strategyIndexes, long[] timeouts, byte[] flags,
+                            byte[] joins, int[] quorums, int[] levels, int[] childOffsets, int[] childIndexes) {
+        this.graphId = graphId;
+        this.mode = mode;
+        this.timeout = timeout;
+        this.inputType = inputType;
+        this.resultType = resultType;
+        this.names = names;
+        this.strategies = strategies;
+        this.strategyIndexes = strategyIndexes;
+        this.timeouts = timeouts;
+        this.flags = flags;
+        this.joins = joins;
+        this.quorums = quorums;
+        this.levels = levels;
+        this.childOffsets = childOffsets;
+        this.childIndexes = childIndexes;
+
+        int size = names.length;
+        this.parentOffsets = new int[size + 1];
+        this.parentIndexes = new int[childIndexes.length];
+        for (int child : childIndexes) {
+            parentOffsets[child + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            parentOffsets[i + 1] += parentOffsets[i];
+        }
+        int[] cursor = Arrays.copyOf(parentOffsets, size);
+        for (int i = 0; i < size; i++) {
+            for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++) {
+                parentIndexes[cursor[childIndexes[k]]++] = i;
+            }
+        }
+
+        this.nameTable = new int[tableSize(size)];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(names[i]);
+            while (nameTable[slot] != 0) {
+                slot = (slot + 1) & (nameTable.length - 1);
+            }
+            nameTable[slot] = i + 1;
+        }
+    }
+
+    /**
+     * 由已有的图生成紧凑表示, 节点的策略标识为Bean对象的类名
+     *
+     * @param graph {@link Dag}实例
+     * @return 紧凑表示
+     */
+    public static DagCompactGraph of(Dag<?> graph) {
+        DagPlan plan = graph.compile();
+        int size = plan.size();
+        String[] names = new String[size];
+        int[] strategyIndexes = new int[size];
+        long[] timeouts = new long[size];
+        byte[] flags = new byte[size];
+        byte[] joins = new byte[size];
+        int[] quorums = null;
+        Map<String, Integer> dictionary = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            DagNode<? extends NodeBean<?>> node = plan.node(i);
+            names[i] = node.getBean().getName();
+            strategyIndexes[i] = dictionary.computeIfAbsent(node.getBean().getClass().getName(), k -> dictionary.size());
+            timeouts[i] = node.getInfo().getTimeout();
+            flags[i] = flags(node.getBean().isRoot(), node.getBean().isFinal());
+            joins[i] = null == node.getJoin() ? INHERIT_JOIN : (byte) node.getJoin().ordinal();
+            if (node.getJoin() == DagMode.QUORUM) {
+                if (null == quorums) {
+                    quorums = new int[size];
+                }
+                quorums[i] = node.getInfo().getQuorum();
+            }
+        }
+        return new DagCompactGraph(graph.getGraphId(), graph.getMode(), graph.getTimeout(), graph.getInputType(), graph.getResultType(),
+                names, strategies(dictionary), strategyIndexes, timeouts, flags, joins, quorums, Arrays.copyOf(plan.getLevels(), size),
+                plan.getChildOffsets().clone(), plan.getChildIndexes().clone());
+    }
+
+    /**
+     * @param mode    图模式
+     * @param timeout 节点超时毫秒数
+     * @return 紧凑图构建器
+     */
+    public static Builder builder(DagMode mode, long timeout) {
+        return new Builder(mode, timeout);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int getEdgeCount() {
+        return childIndexes.length;
+    }
+
+    /**
+     * @param name 节点名称
+     * @return 节点序号, 不存在时返回-1
+     */
+    public int indexOf(String name) {
+        int slot = slot(name);
+        for (; ; ) {
+            int entry = nameTable[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (names[entry - 1].equals(name)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (nameTable.length - 1);
+        }
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getStrategyId(int index) {
+        return strategies[strategyIndexes[index]];
+    }
+
+    public long getTimeout(int index) {
+        return timeouts[index] == INHERIT_TIMEOUT ? timeout : timeouts[index];
+    }
+
+    public boolean isRoot(int index) {
+        return (flags[index] & FLAG_ROOT) != 0;
+    }
+
+    public boolean isFinal(int index) {
+        return (flags[index] & FLAG_FINAL) != 0;
+    }
+
+    /**
+     * @return 节点自己的汇合模式, 为null时使用图的模式
+     */
+    public DagMode getJoin(int index) {
+        return joins[index] == INHERIT_JOIN ? null : MODES[joins[index]];
+    }
+
+    /**
+     * @return {@link DagMode#QUORUM}节点执行所需的成功上游数, 其他节点为0
+     */
+    public int getQuorum(int index) {
+        return null == quorums ? 0 : quorums[index];
+    }
+
+    public int getLevel(int index) {
+        return levels[index];
+    }
+
+    public int childCount(int index) {
+        return childOffsets[index + 1] - childOffsets[index];
+    }
+
+    public int childAt(int index, int k) {
+        return childIndexes[childOffsets[index] + k];
+    }
+
+    public int parentCount(int index) {
+        return parentOffsets[index + 1] - parentOffsets[index];
+    }
+
+    public int parentAt(int index, int k) {
+        return parentIndexes[parentOffsets[index] + k];
+    }
+
+    /**
+     * 创建单个节点的视图, 视图不属于任何{@link Dag}, 每次调用都创建新的实例
+     *
+     * @param index   节点序号
+     * @param factory 节点内连Bean对象工厂
+     * @return 节点视图
+     */
+    public DagNode<? extends NodeBean<?>> node(int index, NodeBeanFactory factory) {
+        if (isRoot(index) && null != inputType) {
+            return new DagNode<>(new RootStrategy(inputType));
+        }
+        if (isFinal(index) && null != resultType) {
+            return new DagNode<>(new FinalStrategy(resultType));
+        }
+        return newNode(index, factory);
+    }
+
+    /**
+     * 还原为可调度的{@link Dag}, 直接挂载按紧凑表示生成的执行计划, 不重复校验和编译
+     *
+     * @param factory 节点内连Bean对象工厂, 根节点和终节点在记录了输入输出类型时由图自行创建
+     * @param <R>     最终输出参数类型
+     * @return {@link Dag}实例
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Dag<R> toDag(NodeBeanFactory factory) {
+        Dag<R> graph = new Dag<>(graphId, mode, timeout, inputType, (Class<R>) resultType, null);
+        int size = size();
+        DagNode<? extends NodeBean<?>>[] nodes = new DagNode[size];
+        for (int i = 0; i < size; i++) {
+            if (isRoot(i) && null != graph.getRootDagNode()) {
+                nodes[i] = graph.getRootDagNode();
+            } else if (isFinal(i) && null != graph.getFinalDagNode()) {
+                nodes[i] = graph.getFinalDagNode();
+            } else {
+                nodes[i] = newNode(i, factory);
+                graph.attachNode(nodes[i]);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++) {
+                graph.attachEdge(nodes[childIndexes[k]], nodes[i]);
+            }
+        }
+        graph.attached(new DagPlan(graph, nodes, childOffsets.clone(), childIndexes.clone(), levels.clone()));
+        return graph;
+    }
+
+    /**
+     * @return 估算的占用字节数, 包含数组、散列表以及名称和策略标识字符串(按每个字符2字节计算)
+     */
+    public long estimateBytes() {
+        int size = size();
+        long bytes = 0;
+        bytes += arrayBytes(size, 4) * 2;       // names, strategyIndexes(引用按压缩指针计算)
+        bytes += arrayBytes(size, 8);           // timeouts
+        bytes += arrayBytes(size, 1) * 2;       // flags, joins
+        bytes += null == quorums ? 0 : arrayBytes(size, 4);
+        bytes += arrayBytes(size, 4);           // levels
+        bytes += arrayBytes(size + 1, 4) * 2;   // childOffsets, parentOffsets
+        bytes += arrayBytes(childIndexes.length, 4) * 2;
+        bytes += arrayBytes(nameTable.length, 4);
+        bytes += arrayBytes(strategies.length, 4);
+        for (String name : names) {
+            bytes += stringBytes(name);
+        }
+        for (String strategy : strategies) {
+            bytes += stringBytes(strategy);
+        }
+        return bytes;
+    }
+
+    private DagNode<? extends NodeBean<?>> newNode(int index, NodeBeanFactory factory) {
+        return new DagNode<>(factory.create(getStrategyId(index), names[index]), timeouts[index], getJoin(index), getQuorum(index));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[graphId=%s, mode=%s, nodes=%s, edges=%s]", getClass().getSimpleName(), graphId, mode, size(), getEdgeCount());
+    }
+
+    private int slot(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 16);
+        return h & (nameTable.length - 1);
+    }
+
+    private static int tableSize(int size) {
+        int capacity = Math.max(2, size * 2);
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static long arrayBytes(int length, int element) {
+        return 16 + (long) length * element;
+    }
+
+    // String对象头、hash等字段与字符数组
+    private static long stringBytes(String value) {
+        return 24 + arrayBytes(value.length(), 2);
+    }
+
+    private static byte flags(boolean isRoot, boolean isFinal) {
+        return (byte) ((isRoot ? FLAG_ROOT : 0) | (isFinal ? FLAG_FINAL : 0));
+    }
+
+    private static String[] strategies(Map<String, Integer> dictionary) {
+        String[] strategies = new String[dictionary.size()];
+        dictionary.forEach((id, index) -> strategies[index] = id);
+        return strategies;
+    }
+
+    /**
+     * 紧凑图构建器, 节点和边以基本类型数组累积, 构建时按拓扑序重排并检查环
+     */
+    public static final class Builder {
+        private final DagMode mode;
+        private final long timeout;
+        private String graphId;
+        private Class<?> inputType;
+        private Class<?> resultType;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private String[] names = new String[16];
+        private int[] strategyIndexes = new int[16];
+        private long[] timeouts = new long[16];
+        private byte[] flags = new byte[16];
+        private byte[] joins = new byte[16];
+        private int[] quorums = new int[16];
+        private boolean hasQuorum;
+        private int size;
+        // 边: edgeFrom依赖edgeTo
+        private int[] edgeFrom = new int[16];
+        private int[] edgeTo = new int[16];
+        private int edgeCount;
+
+        private Builder(DagMode mode, long timeout) {
+            this.mode = mode;
+            this.timeout = timeout;
+        }
+
+        public Builder graphId(String graphId) {
+            this.graphId = graphId;
+            return this;
+        }
+
+        /**
+         * 起始输入参数类型, 同时添加名为{@link RootStrategy#NAME}的根节点
+         */
+        public Builder input(Class<?> inputType) {
+            this.inputType = inputType;
+            add(RootStrategy.NAME, RootStrategy.class.getName(), INHERIT_TIMEOUT, FLAG_ROOT, null, 0);
+            return this;
+        }
+
+        /**
+         * 最终输出参数类型, 同时添加名为{@link FinalStrategy#NAME}的终节点
+         */
+        public Builder result(Class<?> resultType) {
+            this.resultType = resultType;
+            add(FinalStrategy.NAME, FinalStrategy.class.getName(), INHERIT_TIMEOUT, FLAG_FINAL, null, 0);
+            return this;
+        }
+
+        public Builder addNode(String name, String strategyId) {
+            return addNode(name, strategyId, INHERIT_TIMEOUT);
+        }
+
+        /**
+         * @param name       节点名称
+         * @param strategyId 策略标识, 由{@link NodeBeanFactory}创建Bean对象时使用
+         * @param timeout    节点超时毫秒数
+         */
+        public Builder addNode(String name, String strategyId, long timeout) {
+            add(name, strategyId, timeout, (byte) 0, null, 0);
+            return this;
+        }
+
+        /**
+         * @param name       节点名称
+         * @param strategyId 策略标识, 由{@link NodeBeanFactory}创建Bean对象时使用
+         * @param timeout    节点超时毫秒数
+         * @param join       节点自己的汇合模式, 为空时使用图的模式
+         * @param quorum     {@link DagMode#QUORUM}时执行所需的成功上游数, 其他模式忽略
+         */
+        public Builder addNode(String name, String strategyId, long timeout, DagMode join, int quorum) {
+            if (join == DagMode.QUORUM && quorum < 1) {
+                throw new IllegalArgumentException(String.format("%s quorum must be positive, but %s", name, quorum));
+            }
+            add(name, strategyId, timeout, (byte) 0, join, join == DagMode.QUORUM ? quorum : 0);
+            return this;
+        }
+
+        /**
+         * @param name         节点名称
+         * @param nameDependOn 被依赖的节点名称
+         */
+        public Builder addEdge(String name, String nameDependOn) {
+            Integer from = indexes.get(name);
+            Integer to = indexes.get(nameDependOn);
+            if (null == from || null == to) {
+                throw new IllegalArgumentException(String.format("No node named [%s] in compact graph", null == from ? name : nameDependOn));
+            }
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+            }
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeCount++;
+            return this;
+        }
+
+        public DagCompactGraph build() {
+            // 按被依赖节点统计下游数, 生成插入序的CSR
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                offsets[edgeTo[e] + 1]++;
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] children = new int[edgeCount];
+            int[] cursor = Arrays.copyOf(offsets, size);
+            int[] inDegrees = new int[size];
+            for (int e = 0; e < edgeCount; e++) {
+                children[cursor[edgeTo[e]]++] = edgeFrom[e];
+                inDegrees[edgeFrom[e]]++;
+            }
+            for (int i = 0; hasQuorum && i < size; i++) {
+                if (quorums[i] > inDegrees[i]) {
+                    throw new IllegalStateException(String.format("%s quorum %s exceeds %s depends", names[i], quorums[i], inDegrees[i]));
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                int[] sorted = Arrays.copyOfRange(children, offsets[i], offsets[i + 1]);
+                Arrays.sort(sorted);
+                for (int k = 1; k < sorted.length; k++) {
+                    if (sorted[k] == sorted[k - 1]) {
+                        throw new IllegalStateException(String.format("Edge [%s -> %s] is duplicated in compact graph", names[i], names[sorted[k]]));
+                    }
+                }
+            }
+
+            // Kahn拓扑排序, 数组作为队列
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            for (int i = 0; i < size; i++) {
+                if (inDegrees[i] == 0) queue[tail++] = i;
+            }
+            int[] insertedLevels = new int[size];
+            while (head < tail) {
+                int current = queue[head++];
+                for (int k = offsets[current]; k < offsets[current + 1]; k++) {
+                    int c = children[k];
+                    insertedLevels[c] = Math.max(insertedLevels[c], insertedLevels[current] + 1);
+                    if (--inDegrees[c] == 0) queue[tail++] = c;
+                }
+            }
+            if (tail != size) {
+                throw new IllegalStateException(String.format("Compact graph has cycle, %s nodes are not reachable in topological order", size - tail));
+            }
+
+            int[] orders = new int[size];
+            for (int i = 0; i < size; i++) {
+                orders[queue[i]] = i;
+            }
+            String[] sortedNames = new String[size];
+            int[] sortedStrategies = new int[size];
+            long[] sortedTimeouts = new long[size];
+            byte[] sortedFlags = new byte[size];
+            byte[] sortedJoins = new byte[size];
+            int[] sortedQuorums = hasQuorum ? new int[size] : null;
+            int[] levels = new int[size];
+            int[] childOffsets = new int[size + 1];
+            int[] childIndexes = new int[edgeCount];
+            for (int i = 0; i < size; i++) {
+                int source = queue[i];
+                sortedNames[i] = names[source];
+                sortedStrategies[i] = strategyIndexes[source];
+                sortedTimeouts[i] = timeouts[source];
+                sortedFlags[i] = flags[source];
+                sortedJoins[i] = joins[source];
+                if (hasQuorum) {
+                    sortedQuorums[i] = quorums[source];
+                }
+                levels[i] = insertedLevels[source];
+                int count = offsets[source + 1] - offsets[source];
+                childOffsets[i + 1] = childOffsets[i] + count;
+                for (int k = 0; k < count; k++) {
+                    childIndexes[childOffsets[i] + k] = orders[children[offsets[source] + k]];
+                }
+            }
+            String id = null == graphId ? UUID.randomUUID().toString().replaceAll("-", "") : graphId;
+            return new DagCompactGraph(id, mode, timeout, inputType, resultType, sortedNames, strategies(dictionary),
+                    sortedStrategies, sortedTimeouts, sortedFlags, sortedJoins, sortedQuorums, levels, childOffsets, childIndexes);
+        }
+
+        private void add(String name, String strategyId, long timeout, byte flag, DagMode join, int quorum) {
+            if (indexes.containsKey(name)) {
+                throw new IllegalArgumentException(String.format("Node [%s] is existed in compact graph", name));
+            }
+            if (size == names.length) {
+                int capacity = size * 2;
+                names = Arrays.copyOf(names, capacity);
+                strategyIndexes = Arrays.copyOf(strategyIndexes, capacity);
+                timeouts = Arrays.copyOf(timeouts, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                joins = Arrays.copyOf(joins, capacity);
+                quorums = Arrays.copyOf(quorums, capacity);
+            }
+            names[size] = name;
+            strategyIndexes[size] = dictionary.computeIfAbsent(strategyId, k -> dictionary.size());
+            timeouts[size] = timeout;
+            flags[size] = flag;
+            joins[size] = null == join ? INHERIT_JOIN : (byte) join.ordinal();
+            quorums[size] = quorum;
+            hasQuorum |= quorum > 0;
+            indexes.put(name, size);
+            size++;
+        }
+    }
+}
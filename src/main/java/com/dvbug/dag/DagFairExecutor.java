@@ -0,0 +1,437 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按租户加权公平分配线程的执行器, 用于多个团队的图共用一个{@link DagScheduler}
+ * <p>
+ * 每个租户有独立的任务队列, 工作线程以赤字轮询(DRR)在有任务的租户之间轮转, 每轮租户可以执行的任务数与其权重成正比,
+ * 单个租户的突发任务只会排在自己的队列中, 不会阻塞其他租户.<br/>
+ * 租户可以设置最少线程数: 正在执行的任务数低于最少线程数的租户优先获得线程,
+ * 并且其他租户不能占用为其保留的线程, 即使保留线程暂时空闲.<br/>
+ * 每个租户分别统计任务排队时间, 通过{@link DagFairExecutor#getStats(String)}获取.<br/>
+ * {@link DagScheduler}按名称调度时以图名称作为租户, 直接调度{@link Dag}实例时使用{@link DagFairExecutor#DEFAULT_TENANT}, 未注册的租户权重为1;
+ * 租户数达到1024时, 创建新租户前移除空闲的未注册租户及其统计
+ */
+@Slf4j
+public final class DagFairExecutor implements Executor, AutoCloseable {
+    public static final String DEFAULT_TENANT = "default";
+    public static final int DEFAULT_WEIGHT = 1;
+    // 租户数达到上限时, 创建新租户前移除空闲的未注册租户
+    private static final int MAX_TENANTS = 1024;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    // 有排队任务的租户, 按轮询顺序排列
+    private final ArrayDeque<Tenant> active = new ArrayDeque<>();
+    private final Thread[] workers;
+    // 只在持有锁时修改, 监控可以不加锁读取
+    private volatile int running;
+    private volatile int pending;
+    private int reserved;
+    private volatile boolean closed;
+
+    /**
+     * @param threads 工作线程数
+     */
+    public DagFairExecutor(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException(String.format("Illegal thread count %s", threads));
+        }
+        int id = THREAD_COUNT.incrementAndGet();
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, String.format("dag-fair-%s-%s", id, i));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 注册或者修改租户的权重和最少线程数
+     *
+     * @param tenant     租户名称
+     * @param weight     权重, 每轮可以执行的任务数
+     * @param minThreads 最少线程数, 所有租户的最少线程数之和不能超过工作线程数
+     */
+    public void register(String tenant, int weight, int minThreads) {
+        if (weight <= 0 || minThreads < 0) {
+            throw new IllegalArgumentException(String.format("Illegal weight %s or min threads %s of tenant [%s]", weight, minThreads, tenant));
+        }
+        lock.lock();
+        try {
+            Tenant t = tenants.computeIfAbsent(tenant, Tenant::new);
+            t.registered = true;
+            if (reserved - t.minThreads + minThreads > workers.length) {
+                throw new IllegalArgumentException(String.format("Total min threads %s exceeds %s threads",
+                        reserved - t.minThreads + minThreads, workers.length));
+            }
+            reserved += minThreads - t.minThreads;
+            t.weight = weight;
+            t.minThreads = minThreads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param tenant 租户名称
+     * @return 向指定租户队列提交任务的执行器
+     */
+    public Executor tenant(String tenant) {
+        Tenant t = tenants.get(tenant);
+        if (null != t) {
+            return t;
+        }
+        lock.lock();
+        try {
+            if (tenants.size() >= MAX_TENANTS) {
+                evictIdle();
+            }
+            return tenants.computeIfAbsent(tenant, Tenant::new);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 提交到{@link DagFairExecutor#DEFAULT_TENANT}租户
+     */
+    @Override
+    public void execute(Runnable command) {
+        tenant(DEFAULT_TENANT).execute(command);
+    }
+
+    /**
+     * @param tenant 租户名称
+     * @return 租户统计快照, 租户不存在时返回null
+     */
+    public TenantStats getStats(String tenant) {
+        Tenant t = tenants.get(tenant);
+        if (null == t) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return t.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 所有租户的统计快照
+     */
+    public List<TenantStats> getStats() {
+        lock.lock();
+        try {
+            List<TenantStats> stats = new ArrayList<>(tenants.size());
+            tenants.values().forEach(t -> stats.add(t.snapshot()));
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 由 DAG调度器调用, 提交到租户队列的任务计入租户的公平分配, 不能绕过队列在当前线程继续执行
+    static boolean isTenant(Executor executor) {
+        return executor instanceof DagFairExecutor || executor instanceof Tenant;
+    }
+
+    // 由 DAG调度器监控调用, 不加锁读取
+    int getRunning() {
+        return running;
+    }
+
+    // 由 DAG调度器监控调用, 不加锁读取
+    int getPending() {
+        return pending;
+    }
+
+    /**
+     * 停止接收新任务, 等待已提交的任务执行完毕
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void submit(Tenant tenant, Runnable command) {
+        if (null == command) {
+            throw new NullPointerException("command");
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException(String.format("%s already closed", getClass().getSimpleName()));
+            }
+            if (tenant.evicted) {
+                // 移除后仍被持有的租户重新加入
+                tenant.evicted = false;
+                tenants.putIfAbsent(tenant.name, tenant);
+            }
+            tenant.queue.offer(new Task(command, System.nanoTime()));
+            tenant.submitted++;
+            pending++;
+            if (!tenant.inRing) {
+                tenant.inRing = true;
+                active.addLast(tenant);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        for (; ; ) {
+            Tenant tenant = null;
+            Task task = null;
+            lock.lock();
+            try {
+                while (null == task) {
+                    if (closed && pending == 0) {
+                        return;
+                    }
+                    tenant = next();
+                    if (null != tenant) {
+                        task = take(tenant);
+                    } else {
+                        available.awaitUninterruptibly();
+                    }
+                }
+                tenant.record(System.nanoTime() - task.enqueued);
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.command.run();
+            } catch (Throwable e) {
+                log.error("{} task of tenant [{}] error", getClass().getSimpleName(), tenant.name, e);
+            } finally {
+                lock.lock();
+                try {
+                    running--;
+                    tenant.running--;
+                    tenant.completed++;
+                    if (pending > 0) {
+                        available.signal();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // 选出下一个执行任务的租户: 低于最少线程数的租户优先, 其余租户按DRR轮询且不能占用保留线程
+    private Tenant next() {
+        if (active.isEmpty()) {
+            return null;
+        }
+        for (Tenant t : active) {
+            if (t.running < t.minThreads) {
+                return t;
+            }
+        }
+        if (workers.length - running - 1 < shortfall()) {
+            return null;
+        }
+        Tenant head = active.peekFirst();
+        if (head.deficit < 1) {
+            head.deficit += head.weight;
+        }
+        head.deficit--;
+        return head;
+    }
+
+    // 保留给未达到最少线程数的租户的线程数
+    private int shortfall() {
+        if (reserved == 0) {
+            return 0;
+        }
+        int shortfall = 0;
+        for (Tenant t : tenants.values()) {
+            if (t.running < t.minThreads) {
+                shortfall += t.minThreads - t.running;
+            }
+        }
+        return shortfall;
+    }
+
+    // 移除没有排队和执行中任务的未注册租户, 只在持有锁时调用
+    private void evictIdle() {
+        tenants.values().removeIf(t -> {
+            if (t.registered || t.inRing || t.running > 0) {
+                return false;
+            }
+            t.evicted = true;
+            return true;
+        });
+    }
+
+    private Task take(Tenant tenant) {
+        Task task = tenant.queue.poll();
+        pending--;
+        running++;
+        tenant.running++;
+        if (tenant.queue.isEmpty()) {
+            active.remove(tenant);
+            tenant.inRing = false;
+            tenant.deficit = 0;
+        } else if (tenant.deficit < 1 && active.peekFirst() == tenant) {
+            active.pollFirst();
+            active.addLast(tenant);
+        }
+        return task;
+    }
+
+    private static final class Task {
+        private final Runnable command;
+        private final long enqueued;
+
+        private Task(Runnable command, long enqueued) {
+            this.command = command;
+            this.enqueued = enqueued;
+        }
+    }
+
+    // 租户队列和统计, 除提交入口外只在持有锁时访问
+    private final class Tenant implements Executor {
+        private final String name;
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        // 排队时间直方图, 第i个桶记录[2^i, 2^(i+1))微秒
+        private final long[] latencies = new long[64];
+        private int weight = DEFAULT_WEIGHT;
+        private int minThreads;
+        private int deficit;
+        private int running;
+        private boolean inRing;
+        private boolean registered;
+        private boolean evicted;
+        private long submitted;
+        private long completed;
+        private long totalLatency;
+        private long maxLatency;
+
+        private Tenant(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            submit(this, command);
+        }
+
+        private void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            latencies[63 - Long.numberOfLeadingZeros(Math.max(1, micros))]++;
+            totalLatency += micros;
+            maxLatency = Math.max(maxLatency, micros);
+        }
+
+        private TenantStats snapshot() {
+            return new TenantStats(name, weight, minThreads, submitted, completed, queue.size(), running,
+                    totalLatency, maxLatency, latencies.clone());
+        }
+    }
+
+    /**
+     * 租户统计快照, 时间单位为微秒
+     */
+    @Getter
+    public static final class TenantStats {
+        private final String tenant;
+        private final int weight;
+        private final int minThreads;
+        private final long submitted;
+        private final long completed;
+        private final int pending;
+        private final int running;
+        private final long maxQueueLatency;
+        private final double meanQueueLatency;
+        private final long[] histogram;
+
+        private TenantStats(String tenant, int weight, int minThreads, long submitted, long completed, int pending, int running,
+                            long totalLatency, long maxQueueLatency, long[] histogram) {
+            this.tenant = tenant;
+            this.weight = weight;
+            this.minThreads = minThreads;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.pending = pending;
+            this.running = running;
+            this.maxQueueLatency = maxQueueLatency;
+            long started = submitted - pending;
+            this.meanQueueLatency = started <= 0 ? 0 : (double) totalLatency / started;
+            this.histogram = histogram;
+        }
+
+        /**
+         * @param percentile 百分位, 取值(0, 100]
+         * @return 排队时间百分位的上界, 精度为2的幂
+         */
+        public long getQueueLatencyPercentile(double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException(String.format("Illegal percentile %s", percentile));
+            }
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return Math.min(maxQueueLatency, (1L << (i + 1)) - 1);
+                }
+            }
+            return maxQueueLatency;
+        }
+
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[tenant=%s, weight=%s, minThreads=%s, submitted=%s, pending=%s, running=%s, p50=%sus, p99=%sus, max=%sus]",
+                    getClass().getSimpleName(), tenant, weight, minThreads, submitted, pending, running,
+                    getQueueLatencyPercentile(50), getQueueLatencyPercentile(99), maxQueueLatency);
+        }
+    }
+}
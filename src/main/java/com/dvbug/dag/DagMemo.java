@@ -0,0 +1,154 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 增量调度的句柄, 记录一次调度中各节点的输入指纹、输入参数和执行结果
+ * <p>
+ * 通过{@link DagScheduler#recompute(Dag, Object, DagMemo)}传入上一次调度的句柄时,
+ * 节点的输入参数与上一次相同(指纹相同且参数逐个相等, 与到达顺序无关)则直接使用上一次的结果, 不再执行内连Bean对象;
+ * 输入变化的节点重新执行, 其结果与上一次相同时下游节点仍然可以复用, 因此只有输入真正变化的下游节点重新执行.<br/>
+ * 复用的前提是节点结果只由输入参数决定; 子图节点和流式节点总是重新执行.<br/>
+ * 句柄不可变, 复用的结果对象被多次调度共享, 节点不应修改收到的参数
+ */
+public final class DagMemo {
+    /**
+     * 没有任何记录的句柄, 所有节点都会执行
+     */
+    public static final DagMemo EMPTY = new DagMemo("", Collections.emptyMap(), Collections.emptySet());
+    @Getter
+    private final String graphId;
+    private final Map<String, Entry> entries;
+    // 本次调度中复用了上一次结果的节点名称
+    @Getter
+    private final Set<String> reused;
+
+    private DagMemo(String graphId, Map<String, Entry> entries, Set<String> reused) {
+        this.graphId = graphId;
+        this.entries = entries;
+        this.reused = reused;
+    }
+
+    /**
+     * @return 记录了结果的节点数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param name 节点名称
+     * @return 节点记录的结果, 没有记录时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResult(String name) {
+        Entry entry = entries.get(name);
+        return null == entry ? null : (T) entry.result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[graphId=%s, nodes=%s, reused=%s]", getClass().getSimpleName(), graphId, entries.size(), reused.size());
+    }
+
+    // 与参数顺序无关的输入指纹
+    static long fingerprint(List<Object> inputs) {
+        long fingerprint = inputs.size();
+        for (Object input : inputs) {
+            long h = Objects.hashCode(input) * 0x9E3779B97F4A7C15L;
+            fingerprint += h ^ (h >>> 32);
+        }
+        return fingerprint;
+    }
+
+    // 指纹相同后逐个比较参数, 排除散列冲突
+    private static boolean sameInputs(List<Object> previous, List<Object> inputs) {
+        if (previous.size() != inputs.size()) {
+            return false;
+        }
+        List<Object> remaining = new ArrayList<>(previous);
+        for (Object input : inputs) {
+            if (!remaining.remove(input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static final class Entry {
+        private final long fingerprint;
+        private final List<Object> inputs;
+        @Getter
+        private final Object result;
+
+        private Entry(long fingerprint, List<Object> inputs, Object result) {
+            this.fingerprint = fingerprint;
+            this.inputs = inputs;
+            this.result = result;
+        }
+    }
+
+    /**
+     * 单次增量调度的记录器, 由 DAG调度器调用
+     */
+    static final class Recorder {
+        private final DagMemo previous;
+        private final long[] fingerprints;
+        private final List<Object>[] inputs;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final Set<String> reused = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @param size     执行计划的节点数
+         * @param graphId  本次调度的图
+         * @param previous 上一次调度的句柄, 属于其他图时不复用任何结果
+         */
+        @SuppressWarnings("unchecked")
+        Recorder(int size, String graphId, DagMemo previous) {
+            this.previous = null == previous || !graphId.equals(previous.graphId) ? EMPTY : previous;
+            this.fingerprints = new long[size];
+            this.inputs = new List[size];
+        }
+
+        /**
+         * 记录节点的输入, 输入与上一次相同时返回上一次的结果
+         *
+         * @return 上一次的记录, 不能复用时返回null
+         */
+        Entry lookup(int index, String name, List<Object> params) {
+            long fingerprint = fingerprint(params);
+            fingerprints[index] = fingerprint;
+            inputs[index] = params;
+            Entry entry = previous.entries.get(name);
+            if (null == entry || entry.fingerprint != fingerprint || !sameInputs(entry.inputs, params)) {
+                return null;
+            }
+            reused.add(name);
+            return entry;
+        }
+
+        /**
+         * 节点执行成功后记录结果, 没有经过{@link Recorder#lookup}的节点不记录
+         */
+        void record(int index, String name, Object result) {
+            List<Object> params = inputs[index];
+            if (null != params) {
+                entries.put(name, new Entry(fingerprints[index], params, result));
+            }
+        }
+
+        DagMemo finish(String graphId) {
+            return new DagMemo(graphId, new HashMap<>(entries), Collections.unmodifiableSet(new HashSet<>(reused)));
+        }
+    }
+}
@@ -11,5 +11,17 @@ public enum DagMode {
     /**
      * 单路径开关图
      */
-    SWITCH
+    SWITCH,
+    /**
+     * 竞速汇合: 节点在第一个成功的上游到达后执行, 只使用该上游的结果;
+     * 调度器随即取消其他还没有结束、且结果不再被需要的上游分支, 这些分支记录为INEFFECTIVE.<br/>
+     * 通常通过{@link DagNode#DagNode(NodeBean, DagMode)}只设置在汇合节点上
+     */
+    RACE,
+    /**
+     * 法定数汇合: 节点在k个上游成功到达后执行, 只使用最先到达的k个结果;
+     * 失败的上游使k无法达到时节点变为INEFFECTIVE; 节点执行后其余上游分支与{@link DagMode#RACE}一样被取消.<br/>
+     * 只能通过{@link DagNode#quorum(NodeBean, int)}设置在节点上
+     */
+    QUORUM
 }
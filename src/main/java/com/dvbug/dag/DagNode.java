@@ -5,7 +5,10 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.dvbug.dag.DagNodeStateTransition.*;
 
@@ -16,19 +19,24 @@ import static com.dvbug.dag.DagNodeStateTransition.*;
  */
 @Slf4j
 public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitializable {
+    // WAITING状态下每次挂起的最短和最长时间
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
     @Getter
     private final DagNodeInfo info;
     @Getter
     private final T bean;
+    // 节点自己的汇合模式, 为空时使用图的模式
     @Getter
-    @Setter(AccessLevel.MODULE)
-    private int expectDependCount;
+    private final DagMode join;
+    // 法定数汇合所需的成功上游数
+    private final int quorum;
     @Getter
     @Setter(AccessLevel.MODULE)
     private DagNodeStateChanged stateChangedHandler;
 
+    private final ThreadableField<Integer> expectDependCount = new ThreadableField<>(0);
     private final ThreadableField<TraceInfo> trace = new ThreadableField<>();
-    private final ThreadableField<DagNodeState> state = new ThreadableField<>();
     private final ThreadableField<Throwable> nodeThrowable = new ThreadableField<>();
 
     public DagNode(T bean) {
@@ -36,36 +44,84 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
     }
 
     public DagNode(T bean, long timeout) {
+        this(bean, timeout, null);
+    }
+
+    /**
+     * @param bean 节点内连业务逻辑
+     * @param join 节点的汇合模式, 例如{@link DagMode#RACE}, 为空时使用图的模式
+     */
+    public DagNode(T bean, DagMode join) {
+        this(bean, Integer.MIN_VALUE, join);
+    }
+
+    public DagNode(T bean, long timeout, DagMode join) {
+        this(bean, timeout, join, 0);
+    }
+
+    /**
+     * @param bean    节点内连业务逻辑
+     * @param timeout 节点超时毫秒数
+     * @param join    节点的汇合模式, 为空时使用图的模式
+     * @param quorum  {@link DagMode#QUORUM}时执行所需的成功上游数, 其他模式忽略
+     */
+    public DagNode(T bean, long timeout, DagMode join, int quorum) {
+        if (join == DagMode.QUORUM && quorum < 1) {
+            throw new IllegalArgumentException(String.format("%s quorum must be positive, but %s", bean.getName(), quorum));
+        }
         this.bean = bean;
+        this.join = join;
+        this.quorum = join == DagMode.QUORUM ? quorum : 0;
         this.info = new DagNodeInfo(String.format("node-%s", bean.getName()), timeout, bean.isRoot(), bean.isFinal());
         this.trace.set(new TraceInfo(this.info)); //todo bug TraceInfo属于动态信息,不应该在这里设置
     }
 
+    /**
+     * 创建法定数汇合节点, 参见{@link DagMode#QUORUM}
+     *
+     * @param bean   节点内连业务逻辑
+     * @param quorum 执行所需的成功上游数
+     */
+    public static <T extends NodeBean<?>> DagNode<T> quorum(T bean, int quorum) {
+        return new DagNode<>(bean, Integer.MIN_VALUE, DagMode.QUORUM, quorum);
+    }
+
     // 由 DAG调用
     void init(Dag<?> graph) {
         this.info.setGraphId(graph.getGraphId());
-        this.info.setMode(graph.getMode());
+        this.info.setMode(null == join ? graph.getMode() : join);
+        this.info.setQuorum(info.getMode() == DagMode.RACE ? 1 : quorum);
         if (this.info.getTimeout() == Integer.MIN_VALUE) {
             this.info.setTimeout(graph.getTimeout());
         }
+        if (bean instanceof AsyncNodeBean) {
+            ((AsyncNodeBean<?>) bean).setTimeout(info.getTimeout());
+        }
         setState(DagNodeState.CREATED);
         onAfterInit();
     }
 
-    // 由 DAG调度器调用
-    void putParam(Object param) {
-        bean.setParam(param);
-        printParamsCount();
+    // 由 DAG调度器调用, 在调度线程上为本次调度的节点轨迹设置PREPARED状态
+    void setPrepared(TraceInfo trace) {
+        setState(trace, DagNodeState.PREPARED);
     }
 
-    // 由 DAG调度器调用
-    void setPrepared() {
-        setState(DagNodeState.PREPARED);
+    // 由 DAG调用
+    void setExpectDependCount(int expectDependCount) {
+        this.expectDependCount.set(expectDependCount);
     }
 
-    // 由 DAG调度器调用
-    void notifyDependFail(DagNode<? extends NodeBean<?>> depend) {
-        getTrace().getFailedDepends().add(depend);
+    public int getExpectDependCount() {
+        return expectDependCount.get();
+    }
+
+    // 由 DAG调度器调用, 节点运行时内绑定本次调度所用执行计划中的依赖数、节点轨迹和上游传递的参数
+    void bindRuntime(int expectDependCount, TraceInfo trace, List<Object> params) {
+        this.expectDependCount.set(expectDependCount);
+        this.trace.set(trace);
+        for (Object param : params) {
+            bean.setParam(param);
+        }
     }
 
     TraceInfo getTrace() {
@@ -77,22 +133,23 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
     }
 
     public DagNodeState getState() {
-        return state.get();
+        TraceInfo trace = getTrace();
+        return null == trace ? null : trace.getFinalState();
     }
 
 
     @Override
     public void beforeRuntime() {
+        this.expectDependCount.beforeRuntime();
         this.trace.beforeRuntime();
-        this.state.beforeRuntime();
         this.nodeThrowable.beforeRuntime();
         this.getBean().beforeRuntime();
     }
 
     @Override
     public void afterRuntime() {
+        this.expectDependCount.afterRuntime();
         this.trace.afterRuntime();
-        this.state.afterRuntime();
         this.nodeThrowable.afterRuntime();
         this.getBean().afterRuntime();
     }
@@ -100,26 +157,42 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
     @Override
     public void reset() {
         this.trace.reset();
-        this.state.reset();
         this.nodeThrowable.reset();
         this.getBean().reset();
 
-        this.trace.set(new TraceInfo(this.info));
-        this.state.set(DagNodeState.CREATED);
+        TraceInfo trace = new TraceInfo(this.info);
+        trace.setFinalState(DagNodeState.CREATED);
+        this.trace.set(trace);
     }
 
     @Override
     public final boolean execute(DagNodeExecutionCallback callback) {
+        return execute(callback, null);
+    }
+
+    /**
+     * 由 DAG调度器调用<br/>
+     * {@code launcher}不为空时, 节点进入RUNNING后不再同步执行内连Bean对象,
+     * 而是由{@code launcher}发起异步执行, 执行结束后通过{@link DagNode#complete}回填结果
+     *
+     * @param callback 节点执行完毕回调
+     * @param launcher 异步执行发起动作
+     * @return 节点是否正常调度运行(与业务无关)
+     */
+    final boolean execute(DagNodeExecutionCallback callback, Runnable launcher) {
         onBeforeExecute();
         setState(DagNodeState.START);
 
         boolean nodeExecuteOk = false;
         long expired = 0;
+        long park = MIN_PARK_NANOS;
         while (maybeCanRunning(expired)) { //是否有必要继续循环等待进入RUNNING
             printParamsCount();
             if (canRunningInMode()) { // 模式判断是否可以RUNNING
                 setState(DagNodeState.RUNNING);
-                if (bean.execute()) {
+                if (null != launcher) {
+                    launcher.run();
+                } else if (bean.execute()) {
                     setState(DagNodeState.SUCCESS);
                     callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), bean.getResult()));
                 } else {
@@ -138,7 +211,9 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
 
                 //不可以RUNNING 则进行等待
                 setState(DagNodeState.WAITING);
-                // 不进行线程sleep 避免线程切换开销
+                // 挂起等待而不是自旋, 虚拟线程挂起时释放载体线程; 等待时间从很短开始逐次加倍, 避免条件很快满足时的切换开销
+                LockSupport.parkNanos(this, park);
+                park = Math.min(park << 1, MAX_PARK_NANOS);
 //                try {
 //                    setState(DagNodeState.WAITING);
 //                    sleep(1);
@@ -166,6 +241,55 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
         return nodeExecuteOk;
     }
 
+    /**
+     * 由 DAG调度器调用, 回填异步执行的结果
+     *
+     * @param result    执行结果
+     * @param throwable 执行异常, 不为空时节点执行失败
+     * @param callback  节点执行完毕回调
+     */
+    void complete(Object result, Throwable throwable, DagNodeExecutionCallback callback) {
+        if (null == throwable) {
+            setState(DagNodeState.SUCCESS);
+            callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), result));
+        } else {
+            nodeThrowable.set(throwable);
+            setState(DagNodeState.FAILED);
+            callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), throwable));
+        }
+    }
+
+    /**
+     * 由 DAG调度器调用, 调度截止时间已过, 节点不再执行直接超时
+     *
+     * @param callback 节点执行完毕回调
+     */
+    void expire(DagNodeExecutionCallback callback) {
+        setState(DagNodeState.START);
+        setState(DagNodeState.TIMEOUT);
+        callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), new IllegalStateException(String.format("%s node timeout", info.getName()))));
+    }
+
+    /**
+     * 由 DAG调度器调用, 竞速汇合的下游已经执行, 本节点的结果不再需要
+     *
+     * @param callback 节点执行完毕回调
+     */
+    void cancel(DagNodeExecutionCallback callback) {
+        setState(DagNodeState.INEFFECTIVE);
+        callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), new IllegalStateException(String.format("%s node cancelled", info.getName()))));
+    }
+
+    /**
+     * 由 DAG调度器调用, 异步执行超过超时时间仍未完成
+     *
+     * @param callback 节点执行完毕回调
+     */
+    void timeout(DagNodeExecutionCallback callback) {
+        setState(DagNodeState.TIMEOUT);
+        callback.onCompleted(new DagNodeExecuteResult<>(info, getTrace(), new IllegalStateException(String.format("%s node timeout", info.getName()))));
+    }
+
     public boolean isRunning() {
         DagNodeState state = getState();
         return state == DagNodeState.RUNNING;
@@ -215,9 +339,12 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
     private boolean canRunningInMode() {
         switch (info.getMode()) {
             case PARALLEL:
-                return bean.getParamCount() >= expectDependCount && bean.executeEnable();
+                return bean.getParamCount() >= getExpectDependCount() && bean.executeEnable();
             case SWITCH:
                 return bean.getParamCount() > 0 && bean.executeEnable();
+            case RACE:
+            case QUORUM:
+                return bean.getParamCount() >= info.getQuorum() && bean.executeEnable();
             default:
                 return false;
         }
@@ -228,29 +355,40 @@ public class DagNode<T extends NodeBean<?>> implements Executable, RuntimeInitia
             case PARALLEL:
                 return getTrace().getFailedDepends().size() > 0;
             case SWITCH:
-                return getTrace().getFailedDepends().size() >= expectDependCount;
+                return getTrace().getFailedDepends().size() >= getExpectDependCount();
+            case RACE:
+            case QUORUM:
+                // 剩余的上游全部成功也达不到法定数
+                return getTrace().getFailedDepends().size() > getExpectDependCount() - info.getQuorum();
             default:
                 return false;
         }
     }
 
-    private void setState(DagNodeState state) {
-        if (null != getState() && getState().equals(state)) {
-            return;
-        }
-        DagNodeState oldState = getState();
-        if (!transAllow(oldState, state)) {
-            return;
-        }
-        this.state.set(state);
-        getTrace().setFinalState(state);
-        if (null != stateChangedHandler) {
-            stateChangedHandler.onNodeStateChanged(oldState, state, info);
+    private boolean setState(DagNodeState state) {
+        return setState(getTrace(), state);
+    }
+
+    // 无锁改变状态, 与其他线程并发改变同一轨迹的状态时以CAS保证只有合法的转化生效
+    private boolean setState(TraceInfo trace, DagNodeState state) {
+        for (; ; ) {
+            DagNodeState oldState = trace.getFinalState();
+            if (oldState == state || !transAllow(oldState, state)) {
+                return false;
+            }
+            if (trace.compareAndSetFinalState(oldState, state)) {
+                if (null != stateChangedHandler) {
+                    stateChangedHandler.onNodeStateChanged(oldState, state, info);
+                }
+                return true;
+            }
         }
     }
 
     private void printParamsCount() {
-        log.debug("{}, param depend expect={}, actual={}", this, expectDependCount, bean.getParamCount());
+        if (log.isDebugEnabled()) {
+            log.debug("{}, param depend expect={}, actual={}", this, getExpectDependCount(), bean.getParamCount());
+        }
     }
 }
 
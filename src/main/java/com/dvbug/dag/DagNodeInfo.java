@@ -14,6 +14,8 @@ import java.util.Objects;
 public class DagNodeInfo {
     private String graphId;
     private DagMode mode;
+    // 竞速或法定数汇合时执行所需的成功上游数, 其他模式为0
+    private int quorum;
     private long timeout;
     private final String name;
     private final boolean isRoot;
@@ -1,6 +1,5 @@
 package com.dvbug.dag;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -8,6 +7,8 @@ import static com.dvbug.dag.DagNodeState.*;
 
 /**
  * {@link DagNodeState}状态机
+ * <p>
+ * 状态转化定义在类加载时编译为位掩码表, 所有检测均为O(1)
  */
 final class DagNodeStateTransition {
     public static final Map<DagNodeState, DagNodeState[]> ALLOWED_TRANSFERS = new HashMap<DagNodeState, DagNodeState[]>() {{
@@ -21,6 +22,7 @@ final class DagNodeStateTransition {
         put(INEFFECTIVE, new DagNodeState[]{PREPARED, START, WAITING, RUNNING});
         put(TIMEOUT, new DagNodeState[]{START, WAITING, RUNNING});
     }};
+    private static final TransitionTable<DagNodeState> TABLE = new TransitionTable<>(DagNodeState.class, ALLOWED_TRANSFERS);
 
     /**
      * 状态改变合法性检测
@@ -30,9 +32,7 @@ final class DagNodeStateTransition {
      * @return 是否可以转化
      */
     public static boolean transAllow(DagNodeState oldState, DagNodeState newState) {
-        return !ALLOWED_TRANSFERS.containsKey(newState) ||
-                ALLOWED_TRANSFERS.get(newState).length == 0 ||
-                Arrays.stream(ALLOWED_TRANSFERS.get(newState)).anyMatch(t -> t == oldState);
+        return TABLE.transAllow(oldState, newState);
     }
 
     /**
@@ -43,7 +43,7 @@ final class DagNodeStateTransition {
      * @return 是否可能转化
      */
     public static boolean maybeTransAllow(DagNodeState current, DagNodeState maybeState) {
-        return Arrays.stream(ALLOWED_TRANSFERS.get(maybeState)).anyMatch(t -> t == current || maybeTransAllow(current, t));
+        return TABLE.maybeTransAllow(current, maybeState);
     }
 
     /**
@@ -53,6 +53,6 @@ final class DagNodeStateTransition {
      * @return 是否是最终状态
      */
     public static boolean isFinalState(DagNodeState state) {
-        return Arrays.stream(values()).noneMatch(t -> maybeTransAllow(state, t));
+        return TABLE.isFinalState(state);
     }
 }
@@ -0,0 +1,84 @@
+package com.dvbug.dag;
+
+import java.util.Arrays;
+
+/**
+ * 将执行计划中可以远程执行的节点分配到各个worker, 尽量减少跨worker的依赖边
+ * <p>
+ * 按拓扑序贪心分配(线性确定性贪心): 节点优先分配到已分配上游最多的worker,
+ * 并以worker的剩余容量加权避免全部集中到同一个worker; 得分相同时分配到节点最少的worker.<br/>
+ * 不能远程执行的节点(根节点、终节点、子图、流式节点等)留在本地, 以{@link DagPartitioner#LOCAL}表示
+ */
+final class DagPartitioner {
+    static final int LOCAL = -1;
+    // 容量放宽系数, 允许分配存在少量不均衡以换取更少的跨worker边
+    private static final double SLACK = 1.1;
+
+    private DagPartitioner() {
+    }
+
+    /**
+     * @param plan    执行计划
+     * @param workers worker数
+     * @return 以计划节点下标为下标的worker编号, 本地执行的节点为{@link DagPartitioner#LOCAL}
+     */
+    static int[] partition(DagPlan plan, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException(String.format("Illegal worker count %s", workers));
+        }
+        int size = plan.size();
+        int[] partitions = new int[size];
+        int remote = 0;
+        for (int i = 0; i < size; i++) {
+            boolean eligible = isRemote(plan.node(i).getBean());
+            partitions[i] = eligible ? 0 : LOCAL;
+            if (eligible) remote++;
+        }
+        double capacity = Math.max(1, Math.ceil(remote * SLACK / workers));
+        int[] loads = new int[workers];
+        int[] neighbors = new int[workers];
+        for (int i = 0; i < size; i++) {
+            if (partitions[i] == LOCAL) {
+                continue;
+            }
+            Arrays.fill(neighbors, 0);
+            for (int k = 0; k < plan.parentCount(i); k++) {
+                int parent = partitions[plan.parentAt(i, k)];
+                if (parent != LOCAL) neighbors[parent]++;
+            }
+            int best = 0;
+            double bestScore = -1;
+            for (int w = 0; w < workers; w++) {
+                if (loads[w] >= capacity) {
+                    continue;
+                }
+                double score = neighbors[w] * (1 - loads[w] / capacity);
+                if (score > bestScore || (score == bestScore && loads[w] < loads[best])) {
+                    best = w;
+                    bestScore = score;
+                }
+            }
+            partitions[i] = best;
+            loads[best]++;
+        }
+        return partitions;
+    }
+
+    /**
+     * @return 两端分配在不同位置(不同worker或者一端在本地)的依赖边数
+     */
+    static int crossEdges(DagPlan plan, int[] partitions) {
+        int count = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            for (int k = 0; k < plan.childCount(i); k++) {
+                if (partitions[i] != partitions[plan.childAt(i, k)]) count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean isRemote(NodeBean<?> bean) {
+        return bean instanceof RemoteNodeBean && !bean.isRoot() && !bean.isFinal()
+                && !(bean instanceof SubDagNodeBean) && !(bean instanceof StreamingNodeBean);
+    }
+}
@@ -0,0 +1,351 @@
+package com.dvbug.dag;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Dag}编译后的静态执行计划
+ * <p>
+ * 节点按拓扑序编号, 依赖和下游关系以CSR(压缩稀疏行)形式存放,
+ * 编译完成后不再改变, 可以被多个调度线程同时读取.<br/>
+ * 按需调度时由完整计划裁剪出输出节点的反向可达子计划, 子计划按输出集合缓存在完整计划中,
+ * 最多缓存{@link DagPlan#MAX_DEMANDS}个, 超出时淘汰最久未使用的子计划.<br/>
+ * 图的最大并行度在编译时记录在计划中, 子计划沿用完整计划的值
+ */
+final class DagPlan {
+    // 每个执行计划最多缓存的运行时上下文数
+    static final int MAX_POOLED_RUNS = 32;
+    // 每个执行计划最多缓存的按需子计划数, 输出集合由调用方决定, 不能无限缓存
+    static final int MAX_DEMANDS = 64;
+    @Getter
+    private final Dag<?> graph;
+    @Getter(AccessLevel.PACKAGE)
+    private final DagNode<? extends NodeBean<?>>[] nodes;
+    @Getter(AccessLevel.PACKAGE)
+    private final int[] childOffsets;
+    @Getter(AccessLevel.PACKAGE)
+    private final int[] childIndexes;
+    @Getter(AccessLevel.PACKAGE)
+    private final int[] levels;
+    private final int[] parentOffsets;
+    private final int[] parentIndexes;
+    private final Map<DagNode<?>, Integer> indexes;
+    @Getter
+    private final int rootIndex;
+    @Getter
+    private final int finalIndex;
+    // 按需调度时调用方请求的输出节点
+    @Getter(AccessLevel.PACKAGE)
+    private final int[] outputIndexes;
+    @Getter
+    private final int maxParallelism;
+    private final Map<Set<String>, DagPlan> demands = new LinkedHashMap<Set<String>, DagPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<String>, DagPlan> eldest) {
+            return size() > MAX_DEMANDS;
+        }
+    };
+    private final ConcurrentMap<Integer, int[]> partitions = new ConcurrentHashMap<>();
+    private volatile DagSharing.Key[] sharingKeys;
+    // 可复用的运行时上下文
+    private final Queue<DagRun<?>> runs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledRuns = new AtomicInteger();
+
+    DagPlan(Dag<?> graph, DagNode<? extends NodeBean<?>>[] nodes, int[] childOffsets, int[] childIndexes, int[] levels) {
+        this(graph, nodes, childOffsets, childIndexes, levels, new int[0], graph.getMaxParallelism());
+    }
+
+    private DagPlan(Dag<?> graph, DagNode<? extends NodeBean<?>>[] nodes, int[] childOffsets, int[] childIndexes, int[] levels,
+                    int[] outputIndexes, int maxParallelism) {
+        this.graph = graph;
+        this.outputIndexes = outputIndexes;
+        this.maxParallelism = maxParallelism;
+        this.nodes = nodes;
+        this.childOffsets = childOffsets;
+        this.childIndexes = childIndexes;
+        this.levels = levels;
+        this.indexes = new HashMap<>(nodes.length * 2);
+
+        int size = nodes.length;
+        int rootIndex = -1;
+        int finalIndex = -1;
+        for (int i = 0; i < size; i++) {
+            indexes.put(nodes[i], i);
+            if (nodes[i].getBean().isRoot()) rootIndex = i;
+            if (nodes[i].getBean().isFinal()) finalIndex = i;
+        }
+        this.rootIndex = rootIndex;
+        this.finalIndex = finalIndex;
+
+        // 由下游关系反推依赖关系
+        this.parentOffsets = new int[size + 1];
+        this.parentIndexes = new int[childIndexes.length];
+        for (int child : childIndexes) {
+            parentOffsets[child + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            parentOffsets[i + 1] += parentOffsets[i];
+        }
+        int[] cursor = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++) {
+                int child = childIndexes[k];
+                parentIndexes[parentOffsets[child] + cursor[child]++] = i;
+            }
+        }
+    }
+
+    /**
+     * 编译图结构, 使用Kahn算法进行拓扑排序并校验无环
+     *
+     * @param graph {@link Dag}实例
+     * @return 执行计划
+     */
+    @SuppressWarnings("unchecked")
+    static DagPlan compile(Dag<?> graph) {
+        Set<DagNode<? extends NodeBean<?>>> dagNodes = graph.getDagNodes();
+        int size = dagNodes.size();
+        DagNode<? extends NodeBean<?>>[] inserted = dagNodes.toArray(new DagNode[0]);
+        Map<DagNode<?>, Integer> insertedIndexes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            insertedIndexes.put(inserted[i], i);
+        }
+
+        int[] inDegrees = new int[size];
+        int edgeCount = 0;
+        for (int i = 0; i < size; i++) {
+            Set<DagNode<? extends NodeBean<?>>> depends = graph.getDepends().get(inserted[i]);
+            inDegrees[i] = null == depends ? 0 : depends.size();
+            edgeCount += inDegrees[i];
+            DagNodeInfo info = inserted[i].getInfo();
+            if (info.getMode() == DagMode.QUORUM && info.getQuorum() > inDegrees[i]) {
+                throw new IllegalStateException(String.format("%s quorum %s exceeds %s depends", info.getName(), info.getQuorum(), inDegrees[i]));
+            }
+        }
+
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            if (inDegrees[i] == 0) ready.add(i);
+        }
+
+        DagNode<? extends NodeBean<?>>[] nodes = new DagNode[size];
+        int[] orders = new int[size];
+        int[] insertedLevels = new int[size];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int current = ready.poll();
+            orders[current] = count;
+            nodes[count++] = inserted[current];
+            Set<DagNode<? extends NodeBean<?>>> children = graph.getChildren().get(inserted[current]);
+            if (null == children) continue;
+            for (DagNode<? extends NodeBean<?>> child : children) {
+                int c = insertedIndexes.get(child);
+                insertedLevels[c] = Math.max(insertedLevels[c], insertedLevels[current] + 1);
+                if (--inDegrees[c] == 0) ready.add(c);
+            }
+        }
+        if (count != size) {
+            throw new IllegalStateException(String.format("Dag graph has cycle, %s", graph));
+        }
+
+        int[] childOffsets = new int[size + 1];
+        int[] childIndexes = new int[edgeCount];
+        int[] levels = new int[size];
+        int edge = 0;
+        for (int i = 0; i < size; i++) {
+            levels[i] = insertedLevels[insertedIndexes.get(nodes[i])];
+            Set<DagNode<? extends NodeBean<?>>> children = graph.getChildren().get(nodes[i]);
+            if (null != children) {
+                for (DagNode<? extends NodeBean<?>> child : children) {
+                    childIndexes[edge++] = orders[insertedIndexes.get(child)];
+                }
+            }
+            childOffsets[i + 1] = edge;
+        }
+        return new DagPlan(graph, nodes, childOffsets, childIndexes, levels);
+    }
+
+    /**
+     * 裁剪出计算指定输出节点所需的子计划: 输出节点及其全部上游节点, 根节点总是包含在内<br/>
+     * 子计划保留原有拓扑序, 缓存中的相同输出集合不重复裁剪
+     *
+     * @param outputs 输出节点名称
+     * @return 子计划
+     */
+    DagPlan demand(Collection<String> outputs) {
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Demand outputs can not be empty, %s", graph));
+        }
+        Set<String> key = Collections.unmodifiableSet(new TreeSet<>(outputs));
+        DagPlan demand;
+        synchronized (demands) {
+            demand = demands.get(key);
+        }
+        if (null != demand) {
+            return demand;
+        }
+        // 在锁外裁剪, 并发裁剪相同输出集合时保留先放入的子计划
+        DagPlan pruned = prune(key);
+        synchronized (demands) {
+            demand = demands.putIfAbsent(key, pruned);
+        }
+        return null == demand ? pruned : demand;
+    }
+
+    @SuppressWarnings("unchecked")
+    private DagPlan prune(Set<String> outputs) {
+        int size = nodes.length;
+        Map<String, Integer> names = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            names.put(nodes[i].getBean().getName(), i);
+        }
+
+        boolean[] needed = new boolean[size];
+        Deque<Integer> pending = new ArrayDeque<>();
+        int[] outputOrigins = new int[outputs.size()];
+        int n = 0;
+        for (String output : outputs) {
+            Integer index = names.get(output);
+            if (null == index) {
+                throw new IllegalArgumentException(String.format("Graph has no node named [%s], %s", output, graph));
+            }
+            outputOrigins[n++] = index;
+            pending.add(index);
+        }
+        if (rootIndex >= 0) {
+            pending.add(rootIndex);
+        }
+        while (!pending.isEmpty()) {
+            int current = pending.poll();
+            if (needed[current]) continue;
+            needed[current] = true;
+            for (int k = 0; k < parentCount(current); k++) {
+                pending.add(parentAt(current, k));
+            }
+        }
+
+        // 原计划为拓扑序, 按原顺序保留的子集仍是拓扑序
+        int[] mapping = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            mapping[i] = needed[i] ? count++ : -1;
+        }
+        DagNode<? extends NodeBean<?>>[] prunedNodes = new DagNode[count];
+        int[] prunedLevels = new int[count];
+        int[] prunedOffsets = new int[count + 1];
+        int edges = 0;
+        for (int i = 0; i < size; i++) {
+            if (!needed[i]) continue;
+            for (int k = 0; k < childCount(i); k++) {
+                if (needed[childAt(i, k)]) edges++;
+            }
+        }
+        int[] prunedChildren = new int[edges];
+        int edge = 0;
+        for (int i = 0; i < size; i++) {
+            if (!needed[i]) continue;
+            int m = mapping[i];
+            prunedNodes[m] = nodes[i];
+            prunedLevels[m] = levels[i];
+            for (int k = 0; k < childCount(i); k++) {
+                int child = childAt(i, k);
+                if (needed[child]) prunedChildren[edge++] = mapping[child];
+            }
+            prunedOffsets[m + 1] = edge;
+        }
+        int[] prunedOutputs = new int[outputOrigins.length];
+        for (int i = 0; i < outputOrigins.length; i++) {
+            prunedOutputs[i] = mapping[outputOrigins[i]];
+        }
+        return new DagPlan(graph, prunedNodes, prunedOffsets, prunedChildren, prunedLevels, prunedOutputs, maxParallelism);
+    }
+
+    /**
+     * @param workers worker数
+     * @return 节点到worker的分配结果, 参见{@link DagPartitioner}, 相同worker数只分配一次
+     */
+    int[] partition(int workers) {
+        return partitions.computeIfAbsent(workers, k -> DagPartitioner.partition(this, k));
+    }
+
+    /**
+     * @return 各节点的子图标识, 参见{@link DagSharing}, 只计算一次
+     */
+    DagSharing.Key[] sharingKeys() {
+        DagSharing.Key[] keys = sharingKeys;
+        if (null == keys) {
+            sharingKeys = keys = DagSharing.keys(this);
+        }
+        return keys;
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    // 由 DAG调度器调用, 取出可复用的运行时上下文
+    DagRun<?> pollRun() {
+        DagRun<?> run = runs.poll();
+        if (null != run) {
+            pooledRuns.decrementAndGet();
+        }
+        return run;
+    }
+
+    // 由 DAG调度器调用, 归还运行时上下文, 池满时丢弃
+    void recycleRun(DagRun<?> run) {
+        if (pooledRuns.incrementAndGet() <= MAX_POOLED_RUNS) {
+            runs.offer(run);
+        } else {
+            pooledRuns.decrementAndGet();
+        }
+    }
+
+    int edgeCount() {
+        return childIndexes.length;
+    }
+
+    DagNode<? extends NodeBean<?>> node(int index) {
+        return nodes[index];
+    }
+
+    int indexOf(DagNode<?> node) {
+        Integer index = indexes.get(node);
+        return null == index ? -1 : index;
+    }
+
+    int level(int index) {
+        return levels[index];
+    }
+
+    int childCount(int index) {
+        return childOffsets[index + 1] - childOffsets[index];
+    }
+
+    int childAt(int index, int k) {
+        return childIndexes[childOffsets[index] + k];
+    }
+
+    int parentCount(int index) {
+        return parentOffsets[index + 1] - parentOffsets[index];
+    }
+
+    int parentAt(int index, int k) {
+        return parentIndexes[parentOffsets[index] + k];
+    }
+}
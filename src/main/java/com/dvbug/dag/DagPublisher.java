@@ -0,0 +1,15 @@
+package com.dvbug.dag;
+
+/**
+ * 流式节点输出的数据流发布者(Reactive Streams风格)
+ *
+ * @param <T> 数据元素类型
+ */
+public interface DagPublisher<T> {
+    /**
+     * 订阅数据流, 订阅者通过{@link DagSubscription#request(long)}声明需求后才会收到数据
+     *
+     * @param subscriber 订阅者
+     */
+    void subscribe(DagSubscriber<? super T> subscriber);
+}
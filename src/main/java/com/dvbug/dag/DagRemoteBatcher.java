@@ -0,0 +1,132 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次调度中远程节点的批量发送器
+ * <p>
+ * 节点就绪后不立即发送, 而是放入所属worker的待发送队列, 队列由空变为非空时向线程池提交一次发送任务,
+ * 发送任务执行前陆续就绪的节点合并到同一个{@link DagWorkRequest}中; worker批量返回的结果在线程池中逐个回填.<br/>
+ * 每个任务的结果是一个独立的阶段, 由调度按节点超时等待; 超时或被取消的任务不再发送, 晚到的结果直接丢弃
+ */
+@Slf4j
+final class DagRemoteBatcher {
+    private final String runId;
+    private final List<? extends DagWorker> workers;
+    private final DagCodec codec;
+    private final int[] partitions;
+    private final Executor executor;
+    private final List<List<DagWorkRequest.Task>> outbound;
+    private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger taskIds = new AtomicInteger();
+
+    DagRemoteBatcher(String runId, List<? extends DagWorker> workers, DagCodec codec, int[] partitions, Executor executor) {
+        this.runId = runId;
+        this.workers = workers;
+        this.codec = codec;
+        this.partitions = partitions;
+        this.executor = executor;
+        this.outbound = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            outbound.add(new ArrayList<>());
+        }
+    }
+
+    boolean isRemote(int index) {
+        return partitions[index] != DagPartitioner.LOCAL;
+    }
+
+    /**
+     * 序列化参数并放入待发送队列
+     *
+     * @param index   计划节点下标
+     * @param bean    节点内连Bean对象
+     * @param inputs  上游参数
+     * @param timeout 节点超时毫秒数
+     * @return 任务结果, 在线程池中完成; 取消后不再发送
+     */
+    CompletableFuture<Object> submit(int index, RemoteNodeBean<?> bean, List<Object> inputs, long timeout) {
+        List<byte[]> params = new ArrayList<>(inputs.size());
+        for (Object input : inputs) {
+            params.add(codec.encode(input));
+        }
+        int taskId = taskIds.incrementAndGet();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        pending.put(taskId, result);
+        // 超时或取消的任务不再等待worker返回
+        result.whenComplete((value, throwable) -> pending.remove(taskId));
+
+        int worker = partitions[index];
+        List<DagWorkRequest.Task> queue = outbound.get(worker);
+        boolean first;
+        synchronized (queue) {
+            first = queue.isEmpty();
+            queue.add(new DagWorkRequest.Task(taskId, bean.getStrategyId(), bean.getName(), timeout, params));
+        }
+        if (first) {
+            try {
+                executor.execute(() -> flush(worker));
+            } catch (RejectedExecutionException e) {
+                flush(worker);
+            }
+        }
+        return result;
+    }
+
+    private void flush(int worker) {
+        List<DagWorkRequest.Task> queue = outbound.get(worker);
+        List<DagWorkRequest.Task> batch;
+        synchronized (queue) {
+            batch = new ArrayList<>(queue.size());
+            for (DagWorkRequest.Task task : queue) {
+                if (pending.containsKey(task.getTaskId())) {
+                    batch.add(task);
+                }
+            }
+            queue.clear();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        DagWorker target = workers.get(worker);
+        log.debug("{} sending {} tasks to {}", runId, batch.size(), target);
+        target.execute(new DagWorkRequest(runId, batch)).whenCompleteAsync((response, throwable) -> {
+            if (null != throwable) {
+                batch.forEach(task -> complete(task.getTaskId(), null, throwable));
+                return;
+            }
+            for (DagWorkResponse.Result result : response.getResults()) {
+                if (result.isSuccess()) {
+                    Object value;
+                    try {
+                        value = codec.decode(result.getPayload());
+                    } catch (RuntimeException e) {
+                        complete(result.getTaskId(), null, e);
+                        continue;
+                    }
+                    complete(result.getTaskId(), value, null);
+                } else {
+                    complete(result.getTaskId(), null, new IllegalStateException(String.format("%s remote execute error: %s", target.getId(), result.getError())));
+                }
+            }
+        }, executor);
+    }
+
+    private void complete(int taskId, Object value, Throwable throwable) {
+        CompletableFuture<Object> result = pending.remove(taskId);
+        if (null == result) {
+            return;
+        }
+        if (null == throwable) result.complete(value);
+        else result.completeExceptionally(throwable);
+    }
+}
@@ -3,6 +3,7 @@ package com.dvbug.dag;
 import lombok.Data;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 public class DagResult<R> {
@@ -11,12 +12,31 @@ public class DagResult<R> {
     private final DagMode graphMode;
     private final R result;
     private final List<TraceInfo> history;
+    /**
+     * 按需调度时请求的输出节点中执行成功的节点结果, 节点名称 -> 结果
+     */
+    private final Map<String, Object> outputs;
+    /**
+     * 增量调度的句柄, 作为下一次增量调度的输入, 非增量调度时为null
+     */
+    private final DagMemo memo;
 
-    DagResult(String graphId, String traceId, DagMode graphMode, List<TraceInfo> history, R result) {
+    DagResult(String graphId, String traceId, DagMode graphMode, List<TraceInfo> history, R result, Map<String, Object> outputs, DagMemo memo) {
         this.graphId = graphId;
         this.traceId = traceId;
         this.graphMode = graphMode;
         this.history = history;
         this.result = result;
+        this.outputs = outputs;
+        this.memo = memo;
+    }
+
+    /**
+     * @param name 节点名称
+     * @return 指定输出节点的结果, 节点未被请求或未执行成功时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOutput(String name) {
+        return (T) outputs.get(name);
     }
 }
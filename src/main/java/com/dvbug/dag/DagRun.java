@@ -0,0 +1,984 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * {@link Dag}单次调度的运行时上下文
+ * <p>
+ * 图结构来自编译后的{@link DagPlan}, 节点轨迹、上游参数和依赖到达情况都保存在本次调度中,
+ * 同一个{@link Dag}实例可以被多个调度同时使用.<br/>
+ * 节点只在其依赖满足调度条件后才提交到线程池, 不会占用工作线程等待上游结果.<br/>
+ * 节点执行完后新就绪的第一个下游节点留在当前线程继续执行(不经过线程池队列), 其余下游节点提交到线程池;
+ * 同一线程连续执行的节点数不超过{@link DagRun#MAX_CONTINUATION_DEPTH}, 连续执行以循环实现, 不增加调用栈深度.<br/>
+ * 图设置了最大并行度时, 同时提交到线程池的节点数不超过该值, 其余可执行节点在本次调度的就绪队列中等待.<br/>
+ * 流式节点打开数据流后立即把数据流交给流式下游节点, 不等待本节点结束.<br/>
+ * 异步节点发起执行后释放工作线程, 结果完成后再回填, 超时由计时器判定.<br/>
+ * 节点运行时内可以通过{@link DagArena#current()}使用本次调度的堆外内存区, 调度结束时整体释放.<br/>
+ * 设置了{@link DagCheckpointStore}时节点执行成功后记录其结果, 恢复调度时已有结果的节点不再执行内连Bean对象.<br/>
+ * 增量调度时输入参数与上一次调度相同的节点直接使用{@link DagMemo}中记录的结果.<br/>
+ * 调度器开始调度时登记运行时上下文, 监控通过{@link DagRun#snapshots}无锁读取正在进行的调度.<br/>
+ * 运行时上下文由{@link DagRun#obtain}从执行计划的对象池中获取, 调度正常结束后由{@link DagRun#recycle()}归还,
+ * 各节点的状态数组、参数列表和执行回调在多次调度之间复用
+ *
+ * @param <R> 最终输出参数类型
+ */
+@Slf4j
+final class DagRun<R> {
+    // 一个线程池任务内连续执行的最大节点数, 超过后下游节点重新提交到线程池, 避免单个调度长期占用线程
+    static final int MAX_CONTINUATION_DEPTH = 32;
+    // 当前线程正在执行的线程池任务, 用于把新就绪的下游节点留在本线程继续执行
+    private static final ThreadLocal<Continuation> CONTINUATION = ThreadLocal.withInitial(Continuation::new);
+    // 正在进行的调度, traceId -> 运行时上下文, 只用于监控读取
+    private static final ConcurrentMap<String, DagRun<?>> IN_FLIGHT = new ConcurrentHashMap<>();
+    // 没有设置整体超时的调度, 节点只受自身超时约束
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    // 异步节点的超时计时器
+    private static final ScheduledThreadPoolExecutor TIMER = newTimer();
+    @Getter
+    private final DagPlan plan;
+    @Getter
+    private String traceId;
+    @Getter
+    private long deadline;
+    @Getter
+    private CompletableFuture<DagResult<R>> completion;
+    private Executor executor;
+    private final List<TraceInfo> history;
+    private final List<String>[] parents;
+    private final DagNodeExecutionCallback[] callbacks;
+    private final TraceInfo[] traces;
+    private final List<Object>[] params;
+    private final int[] reported;
+    private final boolean[] dispatched;
+    private final boolean[] closed;
+    private final boolean[] subscribed;
+    // 竞速汇合取消的上游分支, 以及正在异步执行的节点的取消动作
+    private final boolean[] cancelled;
+    private final Runnable[] cancels;
+    private final DagStream<?>[] streams;
+    private final AtomicIntegerArray finished;
+    private final AtomicInteger remaining;
+    // 并行度窗口: 超出窗口的可执行节点按就绪顺序排队, 每个节点只入队一次
+    private final int[] ready;
+    private int readyHead;
+    private int readyTail;
+    private int active;
+    private int window;
+    private final DagArena arena;
+    // 是否发起过异步执行(子图、流式节点、远程节点), 异步执行的回调可能晚于调度结束, 这样的上下文不再复用
+    private volatile boolean launched;
+    private DagRemoteBatcher remote;
+    private DagCheckpointStore checkpoints;
+    private Map<String, Object> restored = Collections.emptyMap();
+    private DagMemo.Recorder memo;
+    private DagSharing sharing;
+    // 本次调度负责执行的共享子图节点, 执行结束后回填给其他调度
+    private final CompletableFuture<Object>[] owned;
+    @Getter
+    private volatile DagScheduler owner;
+    private volatile long startTime;
+
+    DagRun(DagPlan plan, String traceId, Executor executor, long deadline) {
+        this(plan, traceId, executor, deadline, Collections.synchronizedList(new ArrayList<>()), new DagArena(traceId));
+    }
+
+    @SuppressWarnings("unchecked")
+    private DagRun(DagPlan plan, String traceId, Executor executor, long deadline, List<TraceInfo> history, DagArena arena) {
+        int size = plan.size();
+        this.plan = plan;
+        this.traceId = traceId;
+        this.executor = executor;
+        this.deadline = deadline;
+        this.completion = new CompletableFuture<>();
+        this.history = history;
+        this.traces = new TraceInfo[size];
+        this.params = new List[size];
+        this.parents = new List[size];
+        this.callbacks = new DagNodeExecutionCallback[size];
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            params[i] = new ArrayList<>(plan.parentCount(i));
+            parents[i] = parentNames(i);
+            callbacks[i] = new DagNodeExecutionCallback() {
+                @Override
+                public <T> void onCompleted(DagNodeExecuteResult<T> result) {
+                    onNodeCompleted(index, result);
+                }
+            };
+        }
+        this.reported = new int[size];
+        this.dispatched = new boolean[size];
+        this.closed = new boolean[size];
+        this.subscribed = new boolean[size];
+        this.cancelled = new boolean[size];
+        this.cancels = new Runnable[size];
+        this.owned = new CompletableFuture[size];
+        this.streams = new DagStream[size];
+        this.finished = new AtomicIntegerArray(size);
+        this.remaining = new AtomicInteger(size);
+        this.ready = new int[size];
+        this.arena = arena;
+    }
+
+    /**
+     * 从执行计划的对象池中获取运行时上下文, 池为空时新建
+     */
+    @SuppressWarnings("unchecked")
+    static <R> DagRun<R> obtain(DagPlan plan, String traceId, Executor executor, long deadline) {
+        DagRun<R> run = (DagRun<R>) plan.pollRun();
+        if (null == run) {
+            return new DagRun<>(plan, traceId, executor, deadline);
+        }
+        run.traceId = traceId;
+        run.executor = executor;
+        run.deadline = deadline;
+        run.completion = new CompletableFuture<>();
+        run.remaining.set(run.plan.size());
+        run.arena.reopen(traceId);
+        return run;
+    }
+
+    /**
+     * 调度结束后调用, 整体释放本次调度的堆外内存区; 所有节点都已结束且没有异步执行时归还到执行计划的对象池
+     */
+    void recycle() {
+        // 仍有节点在执行或者异步回调未到达时, 节点可能还持有内存块中的缓冲区, 内存块不能交给其他调度复用
+        boolean quiescent = !launched && remaining.get() == 0 && completion.isDone();
+        arena.close(quiescent);
+        if (!quiescent) {
+            return;
+        }
+        int size = plan.size();
+        for (int i = 0; i < size; i++) {
+            traces[i] = null;
+            params[i].clear();
+            reported[i] = 0;
+            dispatched[i] = false;
+            closed[i] = false;
+            subscribed[i] = false;
+            cancelled[i] = false;
+            cancels[i] = null;
+            owned[i] = null;
+            streams[i] = null;
+            finished.set(i, 0);
+        }
+        synchronized (ready) {
+            readyHead = 0;
+            readyTail = 0;
+        }
+        history.clear();
+        remote = null;
+        checkpoints = null;
+        restored = Collections.emptyMap();
+        memo = null;
+        sharing = null;
+        completion = null;
+        plan.recycleRun(this);
+    }
+
+    /**
+     * 为本次调度创建节点轨迹, 所有节点进入PREPARED状态
+     */
+    void prepare() {
+        if (plan.getRootIndex() < 0) {
+            throw new IllegalStateException(String.format("Graph can not schedule without root node, %s", plan.getGraph()));
+        }
+        window = plan.getMaxParallelism();
+        for (int i = 0; i < plan.size(); i++) {
+            DagNode<? extends NodeBean<?>> node = plan.node(i);
+            TraceInfo trace = new TraceInfo(node.getInfo());
+            trace.setId(traceId);
+            trace.setFinalState(DagNodeState.CREATED);
+            trace.setParents(parents[i]);
+            traces[i] = trace;
+            node.setPrepared(trace);
+        }
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 登记为正在进行的调度
+     *
+     * @param owner 发起调度的调度器
+     */
+    void track(DagScheduler owner) {
+        this.owner = owner;
+        this.startTime = System.currentTimeMillis();
+        IN_FLIGHT.put(traceId, this);
+    }
+
+    /**
+     * 调度结束后、{@link DagRun#recycle()}之前调用, 取消登记
+     */
+    void untrack() {
+        IN_FLIGHT.remove(traceId, this);
+        owner = null;
+    }
+
+    /**
+     * @param filter 运行时上下文过滤条件
+     * @return 正在进行的调度快照
+     */
+    static List<DagRunSnapshot> snapshots(Predicate<DagRun<?>> filter) {
+        List<DagRunSnapshot> snapshots = new ArrayList<>();
+        for (DagRun<?> run : IN_FLIGHT.values()) {
+            if (filter.test(run)) {
+                DagRunSnapshot snapshot = run.snapshot();
+                if (null != snapshot) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param owner 调度器
+     * @return 指定调度器正在进行的调度数
+     */
+    static int countInFlight(DagScheduler owner) {
+        int count = 0;
+        for (DagRun<?> run : IN_FLIGHT.values()) {
+            if (run.owner == owner) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 无锁读取节点轨迹; 读取期间上下文结束并被复用时返回null
+    private DagRunSnapshot snapshot() {
+        String id = traceId;
+        long started = startTime;
+        long now = TraceInfo.currentTimeMicros();
+        int size = plan.size();
+        List<DagRunSnapshot.NodeSnapshot> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            TraceInfo trace = traces[i];
+            if (null != trace) {
+                nodes.add(DagRunSnapshot.NodeSnapshot.of(trace, now));
+            }
+        }
+        if (!id.equals(traceId) || null == owner) {
+            return null;
+        }
+        return new DagRunSnapshot(id, plan.getGraph().getGraphId(), started, size, size - remaining.get(), nodes);
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 可以远程执行的节点交给worker执行
+     *
+     * @param remote 远程节点批量发送器
+     */
+    void distribute(DagRemoteBatcher remote) {
+        this.remote = remote;
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 节点执行成功后将结果写入检查点
+     *
+     * @param checkpoints 检查点存储
+     */
+    void checkpoint(DagCheckpointStore checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 恢复之前调度中已经执行成功的节点结果
+     *
+     * @param restored 节点名称 -> 执行结果
+     */
+    void restore(Map<String, Object> restored) {
+        this.restored = restored;
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 增量调度时复用上一次调度中输入未变化的节点结果
+     *
+     * @param previous 上一次调度的句柄
+     */
+    void incremental(DagMemo previous) {
+        this.memo = new DagMemo.Recorder(plan.size(), plan.getGraph().getGraphId(), previous);
+    }
+
+    /**
+     * 在{@link DagRun#start(Object)}之前调用, 与同一批调度的其他图共享公共子图的结果
+     *
+     * @param sharing 同一批调度共用的共享表
+     */
+    void share(DagSharing sharing) {
+        this.sharing = sharing;
+    }
+
+    /**
+     * 将输入参数交给根节点, 并提交所有无依赖的节点
+     *
+     * @param input 起始输入参数
+     */
+    void start(Object input) {
+        params[plan.getRootIndex()].add(input);
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.parentCount(i) == 0) {
+                dispatched[i] = true;
+                dispatch(i);
+            }
+        }
+    }
+
+    /**
+     * 等待调度结束, 超时或出错时返回已经结束的节点组成的部分结果
+     *
+     * @param timeout 等待毫秒数, 小于0时一直等待到调度结束
+     * @return 调度结果
+     */
+    DagResult<R> await(long timeout) {
+        try {
+            return timeout < 0 ? completion.get() : completion.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Scheduler thread interrupted, traceId={}", traceId, e);
+        } catch (ExecutionException e) {
+            log.error("Scheduler execution error, traceId={}", traceId, e.getCause());
+        } catch (TimeoutException e) {
+            log.error("Scheduler timeout error, traceId={}, unfinished nodes={}", traceId, remaining.get());
+        }
+        return buildResult();
+    }
+
+    private List<String> parentNames(int index) {
+        int count = plan.parentCount(index);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            names.add(plan.node(plan.parentAt(index, k)).getInfo().getName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private void dispatch(int index) {
+        traces[index].markReady();
+        Continuation continuation = CONTINUATION.get();
+        // 租户公平执行器按提交的任务分配线程, 每个节点都要经过租户队列
+        if (continuation.run == this && continuation.next < 0 && continuation.depth < MAX_CONTINUATION_DEPTH
+                && !DagFairExecutor.isTenant(executor)) {
+            // 沿用当前任务(以及其并行度窗口), 当前节点结束后在本线程执行
+            continuation.next = index;
+            continuation.depth++;
+            return;
+        }
+        enqueue(index);
+    }
+
+    // 按并行度窗口提交到线程池, 超出窗口时排队
+    private void enqueue(int index) {
+        if (window > 0) {
+            synchronized (ready) {
+                if (active >= window) {
+                    ready[readyTail++] = index;
+                    return;
+                }
+                active++;
+            }
+        }
+        submit(index);
+    }
+
+    private void submit(int index) {
+        try {
+            if (window > 0) {
+                executor.execute(() -> {
+                    try {
+                        process(index);
+                    } finally {
+                        release();
+                    }
+                });
+            } else {
+                executor.execute(() -> process(index));
+            }
+        } catch (RejectedExecutionException e) {
+            completion.completeExceptionally(e);
+        }
+    }
+
+    // 节点离开线程池后把窗口让给下一个排队的节点; 异步执行的节点不占用窗口等待结果
+    private void release() {
+        int next;
+        synchronized (ready) {
+            if (readyHead == readyTail) {
+                active--;
+                return;
+            }
+            next = ready[readyHead++];
+        }
+        submit(next);
+    }
+
+    // 线程池任务: 执行节点, 然后依次执行留在本线程的下游节点
+    private void process(int index) {
+        Continuation continuation = CONTINUATION.get();
+        DagRun<?> outerRun = continuation.run;
+        int outerNext = continuation.next;
+        int outerDepth = continuation.depth;
+        continuation.run = this;
+        continuation.next = -1;
+        continuation.depth = 0;
+        try {
+            int current = index;
+            while (current >= 0) {
+                execute(current);
+                current = continuation.next;
+                continuation.next = -1;
+            }
+        } finally {
+            int pending = continuation.next;
+            continuation.run = outerRun;
+            continuation.next = outerNext;
+            continuation.depth = outerDepth;
+            if (pending >= 0) {
+                // 执行异常中断了连续执行, 留下的下游节点交给线程池
+                enqueue(pending);
+            }
+        }
+    }
+
+    private void execute(int index) {
+        DagNode<? extends NodeBean<?>> node = plan.node(index);
+        DagNodeExecutionCallback callback = callbacks[index];
+        traces[index].markThread(Thread.currentThread());
+        DagArena previous = DagArena.bind(arena);
+        node.beforeRuntime();
+        try {
+            List<Object> inputs;
+            boolean cancel;
+            synchronized (traces[index]) {
+                // 竞速和法定数汇合只使用最先到达的结果
+                int quorum = node.getInfo().getQuorum();
+                inputs = quorum > 0 && params[index].size() > quorum
+                        ? new ArrayList<>(params[index].subList(0, quorum)) : new ArrayList<>(params[index]);
+                cancel = cancelled[index];
+            }
+            node.bindRuntime(plan.parentCount(index), traces[index], inputs);
+
+            if (System.currentTimeMillis() > deadline) {
+                node.expire(callback);
+                return;
+            }
+            if (cancel) {
+                node.cancel(callback);
+                return;
+            }
+
+            Runnable launcher = null;
+            String name = node.getBean().getName();
+            DagMemo.Entry memoized;
+            CompletableFuture<Object> shared;
+            if (!restored.isEmpty() && restored.containsKey(name)) {
+                // 已有检查点结果, 不再执行
+                Object result = restored.get(name);
+                launcher = () -> node.complete(result, null, callback);
+            } else if (node.getBean() instanceof SubDagNodeBean) {
+                SubDagNodeBean<?> bean = (SubDagNodeBean<?>) node.getBean();
+                launched = true;
+                launcher = () -> launchSubDag(index, bean);
+            } else if (node.getBean() instanceof StreamingNodeBean) {
+                StreamingNodeBean<?> bean = (StreamingNodeBean<?>) node.getBean();
+                launched = true;
+                launcher = () -> launchStream(index, bean, inputs);
+            } else if (null != memo && traces[index].getFailedDepends().isEmpty()
+                    && null != (memoized = memo.lookup(index, name, inputs))) {
+                // 输入与上一次调度相同, 不再执行
+                launcher = () -> node.complete(memoized.getResult(), null, callback);
+            } else if (null != (shared = joinShared(index))) {
+                // 其他调度已经在执行相同的子图, 等待其结果
+                launcher = () -> awaitShared(index, shared);
+            } else if (null != remote && remote.isRemote(index)) {
+                // 分配到worker的节点即使是异步节点也在worker中执行
+                RemoteNodeBean<?> bean = (RemoteNodeBean<?>) node.getBean();
+                launched = true;
+                // 远程任务与异步节点一样按节点超时等待, 超时记录为TIMEOUT
+                launcher = () -> awaitStage(index, remote.submit(index, bean, inputs, node.getInfo().getTimeout()));
+            } else if (node.getBean() instanceof AsyncNodeBean) {
+                AsyncNodeBean<?> bean = (AsyncNodeBean<?>) node.getBean();
+                launcher = () -> launchAsync(index, bean);
+            }
+            if (!node.execute(callback, launcher) && !isCancelled(index)) {
+                log.error("{} execute fail, trace={}, {}", node, node.getTrace(), node.getNodeThrowable());
+            }
+        } catch (Throwable e) {
+            log.error("{} execute error", node, e);
+            node.complete(null, e, callback);
+        } finally {
+            node.afterRuntime();
+            DagArena.unbind(previous);
+        }
+    }
+
+    // 子图作为本次调度的一部分异步执行, 子图结束后在线程池中回填本节点结果
+    private void launchSubDag(int index, SubDagNodeBean<?> bean) {
+        Dag<?> subDag = bean.getSubDag();
+        DagRun<?> subRun = new DagRun<>(subDag.compile(), traceId, executor, deadline, history, arena);
+        log.debug("Node[{}] launching sub graph {}", plan.node(index).getInfo().getName(), subDag);
+
+        subRun.getCompletion().whenCompleteAsync((result, throwable) -> {
+            subDag.setCompleted();
+            if (null == throwable && null == result.getResult()) {
+                throwable = new IllegalStateException(String.format("%s sub graph has no result", plan.node(index).getInfo().getName()));
+            }
+            completeAsync(index, null == throwable ? result.getResult() : null, throwable);
+        }, executor);
+
+        subDag.setPrepared();
+        try {
+            subRun.prepare();
+            subDag.setScheduling();
+            subRun.start(bean.getSubDagInput());
+        } catch (RuntimeException e) {
+            subRun.getCompletion().completeExceptionally(e);
+        }
+    }
+
+    // 流式节点打开数据流后立即把数据流交给流式下游节点, 数据流结束后回填本节点结果
+    private void launchStream(int index, StreamingNodeBean<?> bean, List<Object> inputs) {
+        DagPublisher<?> upstream = null;
+        for (Object input : inputs) {
+            if (input instanceof DagPublisher) {
+                if (null != upstream) {
+                    throw new IllegalStateException(String.format("%s streaming node can not subscribe more than one upstream", bean.getName()));
+                }
+                upstream = (DagPublisher<?>) input;
+            }
+        }
+
+        int childCount = plan.childCount(index);
+        int streamingChildren = 0;
+        for (int k = 0; k < childCount; k++) {
+            if (isStreaming(plan.childAt(index, k))) {
+                streamingChildren++;
+            }
+        }
+        boolean collect = streamingChildren < childCount;
+        int expectSubscribers = streamingChildren + (collect ? 1 : 0);
+
+        DagStream<?> stream;
+        if (null == upstream) {
+            stream = DagStream.of(bean.open(), expectSubscribers, executor);
+        } else {
+            stream = DagStream.transform(upstream, bean, expectSubscribers, executor);
+            subscribed[index] = true;
+        }
+        log.debug("Node[{}] streaming to {} subscribers", bean.getName(), expectSubscribers);
+
+        if (collect) {
+            List<Object> items = Collections.synchronizedList(new ArrayList<>());
+            stream.subscribe(new DagSubscriber<Object>() {
+                @Override
+                public void onSubscribe(DagSubscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(Object item) {
+                    items.add(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completeAsync(index, null, throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completeAsync(index, items, null);
+                }
+            });
+        } else {
+            stream.getCompletion().whenComplete((count, throwable) -> completeAsync(index, count, throwable));
+        }
+
+        streams[index] = stream;
+        DagNodeExecuteResult<?> handle = new DagNodeExecuteResult<>(plan.node(index).getInfo(), traces[index], stream);
+        for (int k = 0; k < childCount; k++) {
+            int child = plan.childAt(index, k);
+            if (!isStreaming(child)) {
+                continue;
+            }
+            boolean abandon;
+            synchronized (traces[child]) {
+                abandon = closed[child];
+            }
+            if (abandon) {
+                stream.abandon();
+            } else {
+                deliver(child, index, handle);
+            }
+        }
+    }
+
+    // 异步节点发起执行后不占用线程, 结果和超时只有先到的一个生效; 晚到的回调只访问本次发起的状态, 不影响上下文复用
+    private void launchAsync(int index, AsyncNodeBean<?> bean) {
+        CompletionStage<?> stage = bean.executeAsync();
+        if (null == stage) {
+            throw new IllegalStateException(String.format("%s returns no completion stage", bean.getName()));
+        }
+        awaitStage(index, stage);
+    }
+
+    // 等待异步阶段完成后回填结果, 超时或被取消时取消该阶段
+    private void awaitStage(int index, CompletionStage<?> stage) {
+        long delay = plan.node(index).getInfo().getTimeout();
+        if (deadline != NO_DEADLINE) {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            delay = delay < 0 ? remaining : Math.min(delay, remaining);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        // 节点没有超时且调度没有整体超时时不计时
+        ScheduledFuture<?> timer = delay < 0 ? null : TIMER.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                if (stage instanceof Future) {
+                    ((Future<?>) stage).cancel(true);
+                }
+                executor.execute(() -> timeoutAsync(index));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        stage.whenCompleteAsync((result, throwable) -> {
+            if (done.compareAndSet(false, true)) {
+                if (null != timer) {
+                    timer.cancel(false);
+                }
+                completeAsync(index, result, unwrap(throwable));
+            }
+        }, executor);
+
+        Runnable cancel = () -> {
+            if (done.compareAndSet(false, true)) {
+                if (null != timer) {
+                    timer.cancel(false);
+                }
+                if (stage instanceof Future) {
+                    ((Future<?>) stage).cancel(true);
+                }
+                executor.execute(() -> cancelAsync(index));
+            }
+        };
+        boolean cancelNow;
+        synchronized (traces[index]) {
+            cancels[index] = cancel;
+            cancelNow = cancelled[index];
+        }
+        if (cancelNow) {
+            cancel.run();
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "dag-async-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // 异步执行的节点超时, 在节点运行时内回填超时
+    private void timeoutAsync(int index) {
+        DagNode<? extends NodeBean<?>> node = plan.node(index);
+        DagArena previous = DagArena.bind(arena);
+        node.beforeRuntime();
+        try {
+            node.bindRuntime(plan.parentCount(index), traces[index], Collections.emptyList());
+            node.timeout(callbacks[index]);
+        } finally {
+            node.afterRuntime();
+            DagArena.unbind(previous);
+        }
+    }
+
+    // 登记共享子图节点, 返回其他调度登记的结果; 本次调度负责执行时返回null
+    private CompletableFuture<Object> joinShared(int index) {
+        DagSharing.Key key;
+        if (null == sharing || null == (key = plan.sharingKeys()[index])) {
+            return null;
+        }
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        synchronized (traces[index]) {
+            // 已经被竞速汇合取消的节点不再负责共享子图, 避免其他调度等到取消的结果
+            if (cancelled[index]) {
+                return null;
+            }
+            CompletableFuture<Object> existing = sharing.join(key, result);
+            if (null == existing) {
+                owned[index] = result;
+            }
+            return existing;
+        }
+    }
+
+    // 以依赖的阶段等待共享结果, 超时或取消时不影响其他等待的调度
+    private void awaitShared(int index, CompletableFuture<Object> shared) {
+        awaitStage(index, shared.thenApply(result -> result));
+    }
+
+    private boolean isCancelled(int index) {
+        synchronized (traces[index]) {
+            return cancelled[index];
+        }
+    }
+
+    // 竞速汇合不再需要的节点, 在节点运行时内记录为INEFFECTIVE
+    private void cancelAsync(int index) {
+        DagNode<? extends NodeBean<?>> node = plan.node(index);
+        DagArena previous = DagArena.bind(arena);
+        node.beforeRuntime();
+        try {
+            node.bindRuntime(plan.parentCount(index), traces[index], Collections.emptyList());
+            node.cancel(callbacks[index]);
+        } finally {
+            node.afterRuntime();
+            DagArena.unbind(previous);
+        }
+    }
+
+    // 竞速或法定数汇合的节点已经提交执行, 取消其余还没有结束的上游分支
+    private void cancelBranches(int index) {
+        for (int k = 0; k < plan.parentCount(index); k++) {
+            cancelBranch(plan.parentAt(index, k));
+        }
+    }
+
+    /**
+     * 所有下游都已经执行或被取消时, 节点的结果不再被需要:
+     * 还没有执行的节点直接记录为INEFFECTIVE并继续向上游取消; 排队中的节点执行时跳过;
+     * 正在异步执行的节点取消其执行; 正在同步执行的节点无法中断, 立即记录为INEFFECTIVE, 晚到的结果被忽略;
+     * 本次调度负责执行的共享子图节点不取消, 其结果回填给等待的调度
+     */
+    private void cancelBranch(int index) {
+        if (finished.get(index) != 0) {
+            return;
+        }
+        for (int k = 0; k < plan.childCount(index); k++) {
+            int child = plan.childAt(index, k);
+            synchronized (traces[child]) {
+                if (!dispatched[child] && !cancelled[child]) {
+                    return;
+                }
+            }
+        }
+        boolean pending;
+        Runnable cancel;
+        synchronized (traces[index]) {
+            // 负责共享子图的节点还有其他调度在等待其结果, 不能取消
+            if (cancelled[index] || null != owned[index]) {
+                return;
+            }
+            cancelled[index] = true;
+            pending = !dispatched[index];
+            dispatched[index] = true;
+            cancel = cancels[index];
+        }
+        log.debug("Node[{}] cancelled by race or quorum join", plan.node(index).getInfo().getName());
+        if (pending) {
+            cancelAsync(index);
+            for (int k = 0; k < plan.parentCount(index); k++) {
+                cancelBranch(plan.parentAt(index, k));
+            }
+        } else if (null != cancel) {
+            cancel.run();
+        } else {
+            // 同步执行的节点结束前调度可能已经结束, 上下文不再复用
+            launched = true;
+            cancelAsync(index);
+        }
+    }
+
+    // 异步执行的节点(子图、流式节点、远程节点、异步节点)结束后, 在节点运行时内回填结果
+    private void completeAsync(int index, Object result, Throwable throwable) {
+        DagNode<? extends NodeBean<?>> node = plan.node(index);
+        DagArena previous = DagArena.bind(arena);
+        node.beforeRuntime();
+        try {
+            node.bindRuntime(plan.parentCount(index), traces[index], Collections.emptyList());
+            node.complete(result, throwable, callbacks[index]);
+        } finally {
+            node.afterRuntime();
+            DagArena.unbind(previous);
+        }
+    }
+
+    private boolean isStreaming(int index) {
+        return plan.node(index).getBean() instanceof StreamingNodeBean;
+    }
+
+    private void onNodeCompleted(int index, DagNodeExecuteResult<?> result) {
+        if (!finished.compareAndSet(index, 0, 1)) {
+            return;
+        }
+        int childCount = plan.childCount(index);
+        if (log.isDebugEnabled()) {
+            log.debug("Node[{}] executed done, begin delivering execute result [{}] to {} children", result.getInfo().getName(), result, childCount);
+        }
+
+        TraceInfo trace = traces[index];
+        trace.setFinalResult(result.isSucceed() ? result.getResult() : result.getThrowable());
+        history.add(trace);
+        if (result.isSucceed()) {
+            saveCheckpoint(index, result.getResult());
+            if (null != memo) {
+                memo.record(index, plan.node(index).getBean().getName(), detach(result.getResult()));
+            }
+        }
+        if (isStreaming(index)) {
+            closeStreaming(index);
+        }
+        CompletableFuture<Object> shared = owned[index];
+        if (null != shared) {
+            if (result.isSucceed()) {
+                shared.complete(detach(result.getResult()));
+            } else {
+                shared.completeExceptionally(null == result.getThrowable()
+                        ? new IllegalStateException(String.format("%s shared node failed", result.getInfo().getName())) : result.getThrowable());
+            }
+        }
+        for (int k = 0; k < childCount; k++) {
+            int child = plan.childAt(index, k);
+            // 数据流已经交给流式下游节点
+            if (null != streams[index] && isStreaming(child)) {
+                continue;
+            }
+            deliver(child, index, result);
+        }
+
+        if (remaining.decrementAndGet() == 0) {
+            completion.complete(buildResult());
+        }
+    }
+
+    // 流式节点的结果依赖于数据流, 不记录检查点; 写入失败只影响恢复, 不影响本次调度
+    private void saveCheckpoint(int index, Object result) {
+        String name = plan.node(index).getBean().getName();
+        if (null == checkpoints || isStreaming(index) || (!restored.isEmpty() && restored.containsKey(name))) {
+            return;
+        }
+        try {
+            checkpoints.finished(traceId, name, result);
+        } catch (RuntimeException e) {
+            log.warn("Node[{}] checkpoint skipped, traceId={}", name, traceId, e);
+        }
+    }
+
+    // 流式节点结束时没有订阅的上游数据流不再等待本节点
+    private void closeStreaming(int index) {
+        List<DagStream<?>> upstreams = new ArrayList<>();
+        synchronized (traces[index]) {
+            closed[index] = true;
+            for (int k = 0; k < plan.parentCount(index); k++) {
+                DagStream<?> stream = streams[plan.parentAt(index, k)];
+                if (null != stream) {
+                    upstreams.add(stream);
+                }
+            }
+        }
+        if (!subscribed[index]) {
+            upstreams.forEach(DagStream::abandon);
+        }
+    }
+
+    private void deliver(int child, int parent, DagNodeExecuteResult<?> result) {
+        TraceInfo trace = traces[child];
+        boolean ready;
+        synchronized (trace) {
+            reported[child]++;
+            if (result.isSucceed()) {
+                log.debug("Delivering node[{}] result to child node[{}]", result.getInfo().getName(), trace.getNodeInfo().getName());
+                params[child].add(share(result.getResult()));
+            } else {
+                log.debug("Delivering node[{}] failure to child node[{}]", result.getInfo().getName(), trace.getNodeInfo().getName());
+                trace.getFailedDepends().add(plan.node(parent));
+            }
+            ready = !dispatched[child] && isReady(child);
+            if (ready) {
+                dispatched[child] = true;
+            }
+        }
+        if (ready) {
+            dispatch(child);
+            if (plan.node(child).getInfo().getQuorum() > 0) {
+                cancelBranches(child);
+            }
+        }
+    }
+
+    // 堆外缓冲区以只读视图传递给每个下游节点
+    private static Object share(Object result) {
+        return result instanceof DagBuffer ? ((DagBuffer) result).slice() : result;
+    }
+
+    // 调度结果在内存区释放后仍然可用
+    private static Object detach(Object result) {
+        return result instanceof DagBuffer ? ((DagBuffer) result).detach() : result;
+    }
+
+    // 按图模式判断节点是否已经可以提交执行(执行或者变为INEFFECTIVE)
+    private boolean isReady(int index) {
+        int expect = plan.parentCount(index);
+        switch (plan.node(index).getInfo().getMode()) {
+            case PARALLEL:
+                return reported[index] >= expect || !traces[index].getFailedDepends().isEmpty();
+            case SWITCH:
+                return !params[index].isEmpty() || reported[index] >= expect;
+            case RACE:
+            case QUORUM:
+                int quorum = plan.node(index).getInfo().getQuorum();
+                return params[index].size() >= quorum || traces[index].getFailedDepends().size() > expect - quorum;
+            default:
+                return reported[index] >= expect;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private DagResult<R> buildResult() {
+        List<TraceInfo> histories;
+        synchronized (history) {
+            histories = new ArrayList<>(history);
+        }
+        R output = null;
+        int finalIndex = plan.getFinalIndex();
+        if (finalIndex >= 0 && null != traces[finalIndex] && traces[finalIndex].getFinalState() == DagNodeState.SUCCESS) {
+            output = (R) detach(traces[finalIndex].getFinalResult());
+        }
+        Map<String, Object> outputs = new LinkedHashMap<>();
+        for (int index : plan.getOutputIndexes()) {
+            TraceInfo trace = traces[index];
+            if (null != trace && trace.getFinalState() == DagNodeState.SUCCESS) {
+                outputs.put(plan.node(index).getBean().getName(), detach(trace.getFinalResult()));
+            }
+        }
+        Dag<?> graph = plan.getGraph();
+        return new DagResult<>(graph.getGraphId(), traceId, graph.getMode(), histories, output, outputs,
+                null == memo ? null : memo.finish(graph.getGraphId()));
+    }
+
+    private static final class Continuation {
+        private DagRun<?> run;
+        private int next = -1;
+        private int depth;
+    }
+}
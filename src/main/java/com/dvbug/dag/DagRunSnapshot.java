@@ -0,0 +1,98 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+
+import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 正在进行的调度的快照, 由{@link Dag#dumpSnapshot()}和{@link DagSchedulerMXBean}读取
+ * <p>
+ * 快照直接读取运行时上下文中各节点的轨迹, 每个节点的状态和时间以原子变量读取, 不加锁也不影响调度;
+ * 各节点的读取时刻不完全相同, 但每个节点自身的状态与时间一致
+ */
+@Getter
+public final class DagRunSnapshot {
+    private final String traceId;
+    private final String graphId;
+    /**
+     * 调度开始时间(毫秒)
+     */
+    private final long startTime;
+    private final long elapsedMillis;
+    private final int totalNodes;
+    private final int finishedNodes;
+    private final List<NodeSnapshot> nodes;
+
+    DagRunSnapshot(String traceId, String graphId, long startTime, int totalNodes, int finishedNodes, List<NodeSnapshot> nodes) {
+        this(traceId, graphId, startTime, System.currentTimeMillis() - startTime, totalNodes, finishedNodes, nodes);
+    }
+
+    /**
+     * JMX客户端通过MXBean代理读取时还原快照
+     */
+    @ConstructorProperties({"traceId", "graphId", "startTime", "elapsedMillis", "totalNodes", "finishedNodes", "nodes"})
+    public DagRunSnapshot(String traceId, String graphId, long startTime, long elapsedMillis, int totalNodes, int finishedNodes, List<NodeSnapshot> nodes) {
+        this.traceId = traceId;
+        this.graphId = graphId;
+        this.startTime = startTime;
+        this.elapsedMillis = elapsedMillis;
+        this.totalNodes = totalNodes;
+        this.finishedNodes = finishedNodes;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[traceId=%s, graphId=%s, elapsed=%sms, finished=%s/%s]",
+                getClass().getSimpleName(), traceId, graphId, elapsedMillis, finishedNodes, totalNodes);
+    }
+
+    /**
+     * 节点快照
+     */
+    @Getter
+    public static final class NodeSnapshot {
+        private final String name;
+        /**
+         * 节点状态, 尚未设置时为null
+         */
+        private final DagNodeState state;
+        /**
+         * 节点从开始执行到结束(未结束时到读取时刻)的微秒数, 未开始时为0
+         */
+        private final long elapsedMicros;
+        /**
+         * 执行节点的线程, 未执行时为null
+         */
+        private final String threadName;
+
+        /**
+         * JMX客户端通过MXBean代理读取时还原快照
+         */
+        @ConstructorProperties({"name", "state", "elapsedMicros", "threadName"})
+        public NodeSnapshot(String name, DagNodeState state, long elapsedMicros, String threadName) {
+            this.name = name;
+            this.state = state;
+            this.elapsedMicros = elapsedMicros;
+            this.threadName = threadName;
+        }
+
+        static NodeSnapshot of(TraceInfo trace, long nowMicros) {
+            DagNodeState state = trace.getFinalState();
+            long start = trace.getStateTimeMicros(DagNodeState.START);
+            long elapsed = 0;
+            if (start > 0) {
+                long end = null != state && trace.isCompleted() ? trace.getStateTimeMicros(state) : nowMicros;
+                elapsed = Math.max(0, end - start);
+            }
+            return new NodeSnapshot(trace.getNodeInfo().getName(), state, elapsed, trace.getThreadName());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s, elapsed=%sus, thread=%s]", name, state, elapsedMicros, threadName);
+        }
+    }
+}
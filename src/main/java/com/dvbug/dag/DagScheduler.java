@@ -1,115 +1,464 @@
 package com.dvbug.dag;
 
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.*;
-import java.util.concurrent.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * {@link Dag<>}调度器
  */
 @Slf4j
 public final class DagScheduler {
-    private static final ExecutorService pool = Executors.newFixedThreadPool(24);
+    public static final int DEFAULT_POOL_SIZE = 24;
+    // 先进先出的固定线程池, 各次调度按提交顺序公平执行; 下游节点的局部性由DagRun的连续执行保证
+    private static final ExecutorService pool = Executors.newFixedThreadPool(DEFAULT_POOL_SIZE);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long TRACE_PREFIX = new SecureRandom().nextInt() & 0xffffffffL;
+    private static final AtomicLong TRACE_SEQUENCE = new AtomicLong();
+    private static final AtomicInteger MBEAN_SEQUENCE = new AtomicInteger();
+    private final ConcurrentMap<String, DagVersion> registry = new ConcurrentHashMap<>();
+    private final List<DagWorker> workers;
+    private final DagCodec codec;
+    private final DagCheckpointStore checkpoints;
+    @Getter(AccessLevel.PACKAGE)
+    private final DagFairExecutor fairExecutor;
+    @Getter(AccessLevel.PACKAGE)
+    private final Executor executor;
+    private final LongAdder scheduledRuns = new LongAdder();
+    private final LongAdder failedRuns = new LongAdder();
 
-    public <P, R> DagResult<R> schedule(Dag<R> graph, P inputParam) {
-        String traceId = UUID.randomUUID().toString().toLowerCase().replaceAll("-", "");
+    public DagScheduler() {
+        this(Collections.emptyList(), DagCodec.JAVA);
+    }
+
+    /**
+     * 创建记录检查点的调度器, 失败的调度可以通过{@link DagScheduler#resume(String)}恢复
+     *
+     * @param checkpoints 检查点存储
+     */
+    public DagScheduler(DagCheckpointStore checkpoints) {
+        this(Collections.emptyList(), DagCodec.JAVA, checkpoints);
+    }
 
-        log.info("{}[{}] start with input={} to graph={}", traceId, this.getClass().getSimpleName(), inputParam, graph);
+    /**
+     * 创建使用远程worker的调度器, 实现{@link RemoteNodeBean}的节点由{@link DagPartitioner}分配到各个worker执行,
+     * 其余节点仍在本地执行
+     *
+     * @param workers 远程worker
+     * @param codec   节点参数和结果的序列化器
+     */
+    public DagScheduler(List<? extends DagWorker> workers, DagCodec codec) {
+        this(workers, codec, null);
+    }
 
-        if (graph.isScheduling()) {
-            log.info(graph.dumpSnapshot());
-            throw new IllegalStateException(String.format("%s is scheduling now", graph));
+    /**
+     * @param workers     远程worker
+     * @param codec       节点参数和结果的序列化器
+     * @param checkpoints 检查点存储, 为null时不记录检查点
+     */
+    public DagScheduler(List<? extends DagWorker> workers, DagCodec codec, DagCheckpointStore checkpoints) {
+        this(workers, codec, checkpoints, null);
+    }
+
+    /**
+     * 创建按租户公平分配线程的调度器, 节点在{@link DagFairExecutor}中执行而不是默认线程池;
+     * 按名称调度时以图名称作为租户, 直接调度{@link Dag}实例时使用{@link DagFairExecutor#DEFAULT_TENANT}
+     *
+     * @param fairExecutor 租户公平执行器
+     */
+    public DagScheduler(DagFairExecutor fairExecutor) {
+        this(Collections.emptyList(), DagCodec.JAVA, null, fairExecutor);
+    }
+
+    /**
+     * 创建在指定执行器中执行节点的调度器, 例如以阻塞IO为主的图可以使用{@link DagVirtualThreads#newExecutor()}每个节点一个虚拟线程
+     *
+     * @param executor 节点执行器
+     */
+    public DagScheduler(Executor executor) {
+        this(Collections.emptyList(), DagCodec.JAVA, null, null, executor);
+    }
+
+    /**
+     * @param workers      远程worker
+     * @param codec        节点参数和结果的序列化器
+     * @param checkpoints  检查点存储, 为null时不记录检查点
+     * @param fairExecutor 租户公平执行器, 为null时使用默认线程池
+     */
+    public DagScheduler(List<? extends DagWorker> workers, DagCodec codec, DagCheckpointStore checkpoints, DagFairExecutor fairExecutor) {
+        this(workers, codec, checkpoints, fairExecutor, pool);
+    }
+
+    private DagScheduler(List<? extends DagWorker> workers, DagCodec codec, DagCheckpointStore checkpoints, DagFairExecutor fairExecutor, Executor executor) {
+        this.workers = Collections.unmodifiableList(new ArrayList<>(workers));
+        this.codec = codec;
+        this.checkpoints = checkpoints;
+        this.fairExecutor = fairExecutor;
+        this.executor = executor;
+    }
+
+    /**
+     * 将图发布为指定名称的新版本, 替换当前版本<br/>
+     * 发布时编译图结构, 之后对图的修改不影响已发布的版本;
+     * 正在使用旧版本的调度继续使用旧版本, 旧版本在其最后一个调度结束后释放
+     *
+     * @param name  图名称
+     * @param graph {@link Dag}实例
+     * @return 新发布的版本
+     */
+    public DagVersion publish(String name, Dag<?> graph) {
+        DagPlan plan = graph.compile();
+        DagVersion[] replaced = new DagVersion[1];
+        DagVersion published = registry.compute(name, (k, old) -> {
+            replaced[0] = old;
+            return new DagVersion(k, null == old ? 1 : old.getVersion() + 1, plan);
+        });
+        if (null != replaced[0]) {
+            replaced[0].retire();
+        }
+        log.info("{} published {}", this.getClass().getSimpleName(), published);
+        return published;
+    }
+
+    /**
+     * 撤销指定名称的图, 正在进行的调度不受影响
+     *
+     * @param name 图名称
+     * @return 被撤销的版本, 不存在时返回null
+     */
+    public DagVersion unpublish(String name) {
+        DagVersion removed = registry.remove(name);
+        if (null != removed) {
+            removed.retire();
         }
+        return removed;
+    }
 
-        List<TraceInfo> history = new ArrayList<>();
-        List<Future<TraceInfo>> cache = new ArrayList<>();
+    /**
+     * @param name 图名称
+     * @return 指定名称的当前版本, 不存在时返回null
+     */
+    public DagVersion getVersion(String name) {
+        return registry.get(name);
+    }
 
-        graph.setPrepared(traceId);
-        graph.setInput(inputParam);
+    /**
+     * 调度指定名称的图的当前版本, 获取版本的过程无锁, 调度期间版本被替换也不影响本次调度
+     *
+     * @param name       图名称
+     * @param inputParam 起始输入参数
+     * @param outputs    按需调度的输出节点名称, 参见{@link DagScheduler#schedule(Dag, Object, String...)}
+     * @return 调度结果
+     */
+    public <P, R> DagResult<R> schedule(String name, P inputParam, String... outputs) {
+        return schedule(name, inputParam, newTraceId(), Collections.emptyMap(), null, outputs);
+    }
 
-        int times = 0;
-        while (true) {
-            List<DagNode<?>> todoNodes = new ArrayList<>();
-            for (DagNode<?> dagNode : times == 0 ? graph.getRootNodes() : graph.getDagNodes()) {
-                if (!dagNode.isScheduled()) {
-                    Set<DagNode<? extends NodeBean<?>>> depends = graph.getDepends().get(dagNode);
-                    if (null == depends || depends.isEmpty() || depends.stream().allMatch(DagNode::isScheduled)) {
-                        dagNode.setPrepared();
-                        todoNodes.add(dagNode);
-                    }
-                }
-            }
+    /**
+     * 增量调度指定名称的图的当前版本, 参见{@link DagScheduler#recompute(Dag, Object, DagMemo)};
+     * 版本被替换后上一次的句柄不再适用, 所有节点重新执行
+     *
+     * @param name       图名称
+     * @param inputParam 起始输入参数
+     * @param previous   上一次调度结果中的{@link DagResult#getMemo()}, 为null时执行所有节点
+     * @return 调度结果, 包含本次调度的句柄
+     */
+    public <P, R> DagResult<R> recompute(String name, P inputParam, DagMemo previous) {
+        return schedule(name, inputParam, newTraceId(), Collections.emptyMap(), null == previous ? DagMemo.EMPTY : previous);
+    }
 
-            if (!todoNodes.isEmpty()) {
-                graph.setScheduling();
-                for (DagNode<? extends NodeBean<?>> node : todoNodes) {
-                    Future<TraceInfo> future = pool.submit(() -> scheduleNode(graph, node));
-                    cache.add(future);
-                }
-            } else {
-                break;
-            }
-            times++;
-        }
-
-        //pool.shutdown();
-        long timeout = graph.getTimeout() < 0 ? 2000 : graph.getTimeout() + 500;
-        for (Future<TraceInfo> future : cache) {
-            try {
-                history.add(future.get(timeout, TimeUnit.MILLISECONDS));
-            } catch (InterruptedException e) {
-                log.warn("Scheduler thread pool interrupted error", e);
-            } catch (ExecutionException e) {
-                log.error("Scheduler thread pool execution error, future: {}, {}", future, e);
-            } catch (TimeoutException e) {
-                log.error("Scheduler thread pool timeout error", e);
+    private <P, R> DagResult<R> schedule(String name, P inputParam, String traceId, Map<String, Object> restored, DagMemo memo, String... outputs) {
+        DagVersion version;
+        do {
+            version = registry.get(name);
+            if (null == version) {
+                throw new IllegalArgumentException(String.format("No graph named [%s] published", name));
             }
+        } while (!version.retain());
+
+        try {
+            return schedule(demand(version.getPlan(), outputs), inputParam, name, traceId, restored, memo);
+        } finally {
+            version.release();
         }
+    }
 
-        log.info("{} done, graph={}, result={}", this.getClass().getSimpleName(), graph, graph.getOutput());
+    /**
+     * 调度图<br/>
+     * 指定输出节点时按需调度: 只执行计算这些输出节点所需的节点(输出节点及其全部上游节点),
+     * 输出节点的结果通过{@link DagResult#getOutputs()}返回; 终节点未被请求时{@link DagResult#getResult()}为null
+     *
+     * @param graph      {@link Dag}实例
+     * @param inputParam 起始输入参数
+     * @param outputs    输出节点名称, 为空时执行整个图
+     * @return 调度结果
+     */
+    public <P, R> DagResult<R> schedule(Dag<R> graph, P inputParam, String... outputs) {
+        return schedule(demand(graph.compile(), outputs), inputParam, "", newTraceId(), Collections.emptyMap(), null);
+    }
+
+    /**
+     * 增量调度图<br/>
+     * 传入上一次调度的句柄, 输入参数与上一次相同的节点直接使用上一次的结果(按输入指纹判断),
+     * 只有输入变化的节点及其结果变化影响到的下游节点重新执行; 适用于输入只有部分变化的反复调度
+     *
+     * @param graph      {@link Dag}实例
+     * @param inputParam 起始输入参数
+     * @param previous   上一次调度结果中的{@link DagResult#getMemo()}, 为null时执行所有节点
+     * @return 调度结果, 包含本次调度的句柄
+     */
+    public <P, R> DagResult<R> recompute(Dag<R> graph, P inputParam, DagMemo previous) {
+        return schedule(graph.compile(), inputParam, "", newTraceId(), Collections.emptyMap(), null == previous ? DagMemo.EMPTY : previous);
+    }
 
+    /**
+     * 共同调度一批图<br/>
+     * 所有图以同一个输入参数同时开始, 实现{@link SharableNodeBean}且共享标识相同、上游结构相同的节点组成的公共子图
+     * 在这批调度中只执行一次, 结果分发给每个使用它的图; 同一个图内部的相同子图同样只执行一次.<br/>
+     * 未声明共享标识的节点、终节点、子图节点和流式节点以及它们的下游不共享
+     *
+     * @param graphs     {@link Dag}实例
+     * @param inputParam 起始输入参数
+     * @return 与graphs顺序一致的调度结果
+     */
+    public <P> List<DagResult<?>> scheduleAll(List<? extends Dag<?>> graphs, P inputParam) {
+        DagSharing sharing = new DagSharing();
+        List<Pending<?>> started = new ArrayList<>(graphs.size());
         try {
-            return new DagResult<>(graph.getGraphId(), traceId, graph.getMode(), history, graph.getOutput());
-        } finally {
-            graph.setCompleted();
-        }
-    }
-
-    private TraceInfo scheduleNode(Dag<?> graph, DagNode<? extends NodeBean<?>> node) {
-        node.beforeRuntime();
-        Set<DagNode<? extends NodeBean<?>>> children = graph.getChildren().getOrDefault(node, new HashSet<>());
-        boolean nodeExecSucceed = node.execute(new DagNodeExecutionCallback() {
-            @Override
-            public <R> void onCompleted(DagNodeExecuteResult<R> result) {
-                log.debug("Node[{}] executed done, begin delivering execute result [{}] to {} children", node.getInfo().getName(), result, children.size());
-                if (!result.isSucceed()) {
-                    node.getTrace().setFinalResult(result.getThrowable());
-                    for (DagNode<?> child : children) {
-                        log.debug("Delivering node[{}] failure to child {}", result.getInfo().getName(), child);
-                        child.notifyDependFail(node);
-                    }
-                } else {
-                    node.getTrace().setFinalResult(result.getResult());
-                    for (DagNode<?> child : children) {
-                        log.debug("Delivering node[{}] result to child {}", result.getInfo().getName(), child);
-                        child.putParam(result.getResult());
-                    }
-                }
+            for (Dag<?> graph : graphs) {
+                started.add(start(graph.compile(), inputParam, "", newTraceId(), Collections.emptyMap(), null, sharing));
             }
-        });
+        } catch (RuntimeException e) {
+            // 已经开始的调度仍然等待结束, 以便归还运行时上下文
+            started.forEach(this::finish);
+            throw e;
+        }
+        List<DagResult<?>> results = new ArrayList<>(started.size());
+        for (Pending<?> pending : started) {
+            results.add(finish(pending));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("{} scheduled {} graphs sharing {} sub graphs", this.getClass().getSimpleName(), graphs.size(), sharing.size());
+        }
+        return results;
+    }
 
-        if (!nodeExecSucceed) {
-            log.error("{} execute fail, trace={}, {}", node, node.getTrace(), node.getNodeThrowable());
+    /**
+     * 恢复通过名称调度且未成功结束的调度, 使用该名称的当前版本<br/>
+     * 检查点中已经执行成功的节点直接使用记录的结果, 只执行其余节点; 恢复后的调度沿用原来的traceId
+     *
+     * @param traceId 原调度的traceId
+     * @return 调度结果
+     */
+    public <R> DagResult<R> resume(String traceId) {
+        DagCheckpointStore.Checkpoint checkpoint = checkpoint(traceId);
+        if (checkpoint.getGraphName().isEmpty()) {
+            throw new IllegalArgumentException(String.format("Run [%s] was not scheduled by graph name, resume it with the graph", traceId));
         }
+        return schedule(checkpoint.getGraphName(), checkpoints.loadInput(traceId), traceId, checkpoints.loadResults(traceId), null);
+    }
+
+    /**
+     * 使用指定的图恢复未成功结束的调度, 参见{@link DagScheduler#resume(String)}
+     *
+     * @param traceId 原调度的traceId
+     * @param graph   {@link Dag}实例, 节点名称与原调度一致
+     * @return 调度结果
+     */
+    public <R> DagResult<R> resume(String traceId, Dag<R> graph) {
+        DagCheckpointStore.Checkpoint checkpoint = checkpoint(traceId);
+        return schedule(graph.compile(), checkpoints.loadInput(traceId), checkpoint.getGraphName(), traceId, checkpoints.loadResults(traceId), null);
+    }
+
+    private DagCheckpointStore.Checkpoint checkpoint(String traceId) {
+        if (null == checkpoints) {
+            throw new IllegalStateException(String.format("%s has no checkpoint store", this.getClass().getSimpleName()));
+        }
+        DagCheckpointStore.Checkpoint checkpoint = checkpoints.get(traceId);
+        if (null == checkpoint) {
+            throw new IllegalArgumentException(String.format("No checkpoint of run [%s]", traceId));
+        }
+        if (checkpoint.isCompleted()) {
+            throw new IllegalStateException(String.format("Run [%s] already completed", traceId));
+        }
+        return checkpoint;
+    }
+
+    // traceId由进程随机前缀和递增序号组成, 以16进制编码, 不需要UUID和正则替换
+    private static String newTraceId() {
+        char[] chars = new char[24];
+        encodeHex(TRACE_PREFIX, chars, 0, 8);
+        encodeHex(TRACE_SEQUENCE.incrementAndGet(), chars, 8, 16);
+        return new String(chars);
+    }
 
+    private static void encodeHex(long value, char[] chars, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    private static DagPlan demand(DagPlan plan, String[] outputs) {
+        return null == outputs || outputs.length == 0 ? plan : plan.demand(Arrays.asList(outputs));
+    }
+
+    private <P, R> DagResult<R> schedule(DagPlan plan, P inputParam, String graphName, String traceId, Map<String, Object> restored, DagMemo memo) {
+        return finish(start(plan, inputParam, graphName, traceId, restored, memo, null));
+    }
+
+    // 开始调度, 节点提交到线程池后立即返回
+    @SuppressWarnings("unchecked")
+    private <P, R> Pending<R> start(DagPlan plan, P inputParam, String graphName, String traceId, Map<String, Object> restored, DagMemo memo, DagSharing sharing) {
+        Dag<R> graph = (Dag<R>) plan.getGraph();
+
+        if (log.isInfoEnabled()) {
+            log.info("{}[{}] start with input={} to graph={}", traceId, this.getClass().getSimpleName(), inputParam, graph);
+        }
+
+        Executor executor = null == fairExecutor ? this.executor : fairExecutor.tenant(graphName.isEmpty() ? DagFairExecutor.DEFAULT_TENANT : graphName);
+        long runTimeout = graph.getRunTimeout();
+        long deadline = runTimeout < 0 ? DagRun.NO_DEADLINE : System.currentTimeMillis() + runTimeout;
+        DagRun<R> run = DagRun.obtain(plan, traceId, executor, deadline);
+        if (!workers.isEmpty()) {
+            run.distribute(new DagRemoteBatcher(traceId, workers, codec, plan.partition(workers.size()), executor));
+        }
+        boolean checkpointed = startCheckpoint(traceId, graphName, inputParam);
+        if (checkpointed) {
+            run.checkpoint(checkpoints);
+        }
+        run.restore(restored);
+        if (null != memo) {
+            run.incremental(memo);
+        }
+        if (null != sharing) {
+            run.share(sharing);
+        }
+
+        graph.setPrepared();
+        scheduledRuns.increment();
+        Pending<R> pending = new Pending<>(run, checkpointed);
+        try {
+            run.prepare();
+            run.track(this);
+            graph.setScheduling();
+            run.start(inputParam);
+            return pending;
+        } catch (RuntimeException e) {
+            close(pending);
+            throw e;
+        }
+    }
+
+    // 等待调度结束
+    private <R> DagResult<R> finish(Pending<R> pending) {
+        DagRun<R> run = pending.run;
+        DagPlan plan = run.getPlan();
         try {
-            return node.getTrace();
+            DagResult<R> result = run.await(run.getDeadline() == DagRun.NO_DEADLINE ? -1 : Math.max(0, run.getDeadline() - System.currentTimeMillis()));
+            boolean succeeded = isSucceeded(plan, result);
+            if (!succeeded) {
+                failedRuns.increment();
+            }
+            if (pending.checkpointed && succeeded) {
+                checkpoints.completed(run.getTraceId());
+            }
+            if (log.isInfoEnabled()) {
+                log.info("{} done, graph={}, result={}", this.getClass().getSimpleName(), plan.getGraph(), result.getResult());
+            }
+            return result;
         } finally {
-            node.afterRuntime();
+            close(pending);
+        }
+    }
+
+    private static void close(Pending<?> pending) {
+        Dag<?> graph = pending.run.getPlan().getGraph();
+        pending.run.untrack();
+        pending.run.recycle();
+        graph.setCompleted();
+    }
+
+    private boolean startCheckpoint(String traceId, String graphName, Object inputParam) {
+        if (null == checkpoints) {
+            return false;
+        }
+        try {
+            checkpoints.started(traceId, graphName, inputParam);
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("{}[{}] checkpoint disabled, input can not be recorded", traceId, this.getClass().getSimpleName(), e);
+            return false;
+        }
+    }
+
+    // 终节点执行成功, 或者按需调度时所有输出节点都执行成功
+    private static boolean isSucceeded(DagPlan plan, DagResult<?> result) {
+        if (null != result.getResult()) {
+            return true;
+        }
+        return !result.getOutputs().isEmpty() && result.getOutputs().size() == plan.getOutputIndexes().length;
+    }
+
+    /**
+     * 注册JMX监控, 参见{@link DagSchedulerMXBean}
+     *
+     * @return 注册的对象名称
+     */
+    public ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(String.format("com.dvbug.dag:type=%s,id=%s", getClass().getSimpleName(), MBEAN_SEQUENCE.incrementAndGet()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new DagSchedulerMonitor(this), name);
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException(String.format("%s register MBean error", getClass().getSimpleName()), e);
+        }
+    }
+
+    /**
+     * @param name {@link DagScheduler#registerMBean()}返回的对象名称
+     */
+    public void unregisterMBean(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException(String.format("%s unregister MBean %s error", getClass().getSimpleName(), name), e);
         }
     }
 
+    // 由 DAG调度器监控调用
+    int getPublishedCount() {
+        return registry.size();
+    }
+
+    // 由 DAG调度器监控调用
+    long getScheduledRuns() {
+        return scheduledRuns.sum();
+    }
+
+    // 由 DAG调度器监控调用
+    long getFailedRuns() {
+        return failedRuns.sum();
+    }
+
     public String printDagResult(DagResult<?> dagResult) {
         StringBuilder builder = new StringBuilder();
         String title = String.format("%s HISTORY INFOS", dagResult.getClass().getSimpleName());
@@ -137,4 +486,15 @@ public final class DagScheduler {
             pool.shutdown();
         }
     }
+
+    // 已经开始、尚未结束的调度
+    private static final class Pending<R> {
+        private final DagRun<R> run;
+        private final boolean checkpointed;
+
+        private Pending(DagRun<R> run, boolean checkpointed) {
+            this.run = run;
+            this.checkpointed = checkpointed;
+        }
+    }
 }
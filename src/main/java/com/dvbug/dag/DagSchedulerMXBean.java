@@ -0,0 +1,50 @@
+package com.dvbug.dag;
+
+import java.util.List;
+
+/**
+ * {@link DagScheduler}的JMX监控接口, 通过{@link DagScheduler#registerMBean()}注册
+ * <p>
+ * 所有读取都不加锁, 不阻塞也不减慢调度
+ */
+public interface DagSchedulerMXBean {
+    /**
+     * @return 执行器的线程数, 执行器不支持统计时为-1
+     */
+    int getPoolSize();
+
+    /**
+     * @return 正在执行任务的线程数, 执行器不支持统计时为-1
+     */
+    int getActiveThreads();
+
+    /**
+     * @return 执行器中排队的任务数, 执行器不支持统计时为-1
+     */
+    long getQueuedTasks();
+
+    /**
+     * @return 已发布的图数量
+     */
+    int getPublishedGraphs();
+
+    /**
+     * @return 开始过的调度数
+     */
+    long getScheduledRuns();
+
+    /**
+     * @return 未成功结束(终节点或输出节点没有结果)的调度数
+     */
+    long getFailedRuns();
+
+    /**
+     * @return 正在进行的调度数
+     */
+    int getInFlightRuns();
+
+    /**
+     * @return 正在进行的调度快照, 包含各节点的状态和耗时
+     */
+    List<DagRunSnapshot> getInFlightSnapshots();
+}
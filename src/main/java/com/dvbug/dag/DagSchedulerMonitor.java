@@ -0,0 +1,85 @@
+package com.dvbug.dag;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * {@link DagSchedulerMXBean}的实现, 只读取调度器和执行器已有的计数
+ */
+final class DagSchedulerMonitor implements DagSchedulerMXBean {
+    private final DagScheduler scheduler;
+
+    DagSchedulerMonitor(DagScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public int getPoolSize() {
+        Executor executor = scheduler.getExecutor();
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getPoolSize();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getActiveThreads() {
+        if (null != scheduler.getFairExecutor()) {
+            return scheduler.getFairExecutor().getRunning();
+        }
+        Executor executor = scheduler.getExecutor();
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getActiveThreadCount();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return -1;
+    }
+
+    @Override
+    public long getQueuedTasks() {
+        if (null != scheduler.getFairExecutor()) {
+            return scheduler.getFairExecutor().getPending();
+        }
+        Executor executor = scheduler.getExecutor();
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getPublishedGraphs() {
+        return scheduler.getPublishedCount();
+    }
+
+    @Override
+    public long getScheduledRuns() {
+        return scheduler.getScheduledRuns();
+    }
+
+    @Override
+    public long getFailedRuns() {
+        return scheduler.getFailedRuns();
+    }
+
+    @Override
+    public int getInFlightRuns() {
+        return DagRun.countInFlight(scheduler);
+    }
+
+    @Override
+    public List<DagRunSnapshot> getInFlightSnapshots() {
+        return DagRun.snapshots(run -> run.getOwner() == scheduler);
+    }
+}
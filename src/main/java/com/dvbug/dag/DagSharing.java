@@ -0,0 +1,149 @@
+package com.dvbug.dag;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 同一批共同调度的图之间(以及一个图内部)的公共子图共享, 由 DAG调度器调用
+ * <p>
+ * 只有实现{@link SharableNodeBean}的节点参与共享, 节点的子图标识由内连Bean对象的类型与{@link SharableNodeBean#getSharingKey()}、
+ * 汇合模式以及全部上游节点的子图标识(与顺序无关)组成,
+ * 根节点的标识对同一批调度相同(同一个输入参数). 子图标识相同的节点在一批调度中只执行一次,
+ * 第一个到达的节点正常执行, 其余节点等待其结果, 不占用线程.<br/>
+ * 共享的前提与{@link DagMemo}一样是节点结果只由输入参数决定, 由实现者通过共享标识声明;
+ * 终节点、子图节点和流式节点以及它们的下游不共享
+ */
+final class DagSharing {
+    // 规范化的子图标识, 相同的子图标识是同一个对象, 比较上游时不需要递归; 执行计划释放后随之回收
+    private static final Map<Key, WeakReference<Key>> CANONICAL = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ConcurrentMap<Key, CompletableFuture<Object>> results = new ConcurrentHashMap<>();
+
+    /**
+     * @param key   节点的子图标识
+     * @param owned 本节点执行时回填的结果
+     * @return 其他节点已经登记的结果; 本节点第一个登记时返回null, 由本节点执行
+     */
+    CompletableFuture<Object> join(Key key, CompletableFuture<Object> owned) {
+        return results.putIfAbsent(key, owned);
+    }
+
+    /**
+     * @return 已经登记的子图数
+     */
+    int size() {
+        return results.size();
+    }
+
+    /**
+     * 按拓扑序计算执行计划中各节点的子图标识, 不共享的节点为null
+     */
+    static Key[] keys(DagPlan plan) {
+        int size = plan.size();
+        Key[] keys = new Key[size];
+        for (int i = 0; i < size; i++) {
+            DagNode<? extends NodeBean<?>> node = plan.node(i);
+            NodeBean<?> bean = node.getBean();
+            if (i == plan.getRootIndex()) {
+                keys[i] = Key.ROOT;
+                continue;
+            }
+            Object sharingKey;
+            if (bean.isFinal() || bean instanceof SubDagNodeBean || bean instanceof StreamingNodeBean
+                    || !(bean instanceof SharableNodeBean) || null == (sharingKey = ((SharableNodeBean<?>) bean).getSharingKey())) {
+                continue;
+            }
+            int count = plan.parentCount(i);
+            Key[] parents = new Key[count];
+            boolean shared = true;
+            for (int k = 0; k < count && shared; k++) {
+                parents[k] = keys[plan.parentAt(i, k)];
+                shared = null != parents[k];
+            }
+            if (shared) {
+                keys[i] = canonical(new Key(bean.getClass(), sharingKey, node.getInfo().getMode(), node.getInfo().getQuorum(), parents));
+            }
+        }
+        return keys;
+    }
+
+    private static Key canonical(Key key) {
+        synchronized (CANONICAL) {
+            WeakReference<Key> reference = CANONICAL.get(key);
+            Key existing = null == reference ? null : reference.get();
+            if (null != existing) {
+                return existing;
+            }
+            CANONICAL.put(key, new WeakReference<>(key));
+            return key;
+        }
+    }
+
+    static final class Key {
+        static final Key ROOT = new Key(null, null, null, 0, new Key[0]);
+        private final Class<?> type;
+        private final Object sharingKey;
+        private final DagMode mode;
+        private final int quorum;
+        private final Key[] parents;
+        private final int hash;
+
+        private Key(Class<?> type, Object sharingKey, DagMode mode, int quorum, Key[] parents) {
+            this.type = type;
+            this.sharingKey = sharingKey;
+            this.mode = mode;
+            this.quorum = quorum;
+            this.parents = parents;
+            int hash = 31 * (null == type ? 0 : type.hashCode() * 31 + sharingKey.hashCode()) + (null == mode ? 0 : mode.ordinal() * 31 + quorum);
+            // 上游标识的散列相加, 与顺序无关
+            for (Key parent : parents) {
+                hash += parent.hash * 0x9E3779B9;
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            if (hash != that.hash || mode != that.mode || quorum != that.quorum || parents.length != that.parents.length) {
+                return false;
+            }
+            if (type != that.type || !Objects.equals(sharingKey, that.sharingKey)) {
+                return false;
+            }
+            // 上游标识都已规范化, 按引用比较
+            List<Key> remaining = new ArrayList<>(Arrays.asList(that.parents));
+            for (Key parent : parents) {
+                if (!removeSame(remaining, parent)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean removeSame(List<Key> keys, Key key) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i) == key) {
+                    keys.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * {@link Dag}二进制快照
+ * <p>
+ * 将校验并编译后的图结构(节点表、CSR邻接表、层级、策略标识)写入紧凑的二进制文件,
+ * 启动时通过内存映射直接加载, 跳过逐个节点的重复性检测和逐条边的事件通知.<br/>
+ * 文件格式:
+ * <pre>
+ * magic(int) version(short)
+ * graphId mode(byte) timeout(long) runTimeout(long) maxParallelism(int) inputType resultType
+ * strategyCount(int) strategyId...
+ * nodeCount(int) edgeCount(int)
+ * [name strategyIndex(int) timeout(long) flags(byte) join(byte, -1为使用图的模式) quorum(int) level(int)]...
+ * childOffsets(int[nodeCount+1]) childIndexes(int[edgeCount])
+ * crc32(long)
+ * </pre>
+ * 字符串以 长度(int)+UTF-8字节 存放, crc32覆盖version之后trailer之前的全部内容
+ */
+@Slf4j
+public final class DagSnapshot {
+    public static final int MAGIC = 0x44414753;
+    public static final short VERSION = 5;
+
+    private static final int HEADER_SIZE = 6;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FLAG_ROOT = 1;
+    private static final int FLAG_FINAL = 2;
+
+    private DagSnapshot() {
+    }
+
+    /**
+     * 编译图结构并写入快照文件, 先写临时文件再原子替换, 避免读到写了一半的快照
+     *
+     * @param graph {@link Dag}实例
+     * @param file  快照文件
+     */
+    public static void write(Dag<?> graph, Path file) throws IOException {
+        DagPlan plan = graph.compile();
+        int size = plan.size();
+
+        Map<String, Integer> strategyIds = new LinkedHashMap<>();
+        int[] strategyIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            String strategyId = plan.node(i).getBean().getClass().getName();
+            Integer index = strategyIds.get(strategyId);
+            if (null == index) {
+                index = strategyIds.size();
+                strategyIds.put(strategyId, index);
+            }
+            strategyIndexes[i] = index;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + size * 48 + plan.edgeCount() * 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeString(out, graph.getGraphId());
+        out.writeByte(graph.getMode().ordinal());
+        out.writeLong(graph.getTimeout());
+        out.writeLong(graph.getRunTimeout());
+        out.writeInt(plan.getMaxParallelism());
+        writeString(out, null == graph.getInputType() ? "" : graph.getInputType().getName());
+        writeString(out, null == graph.getResultType() ? "" : graph.getResultType().getName());
+
+        out.writeInt(strategyIds.size());
+        for (String strategyId : strategyIds.keySet()) {
+            writeString(out, strategyId);
+        }
+
+        out.writeInt(size);
+        out.writeInt(plan.edgeCount());
+        for (int i = 0; i < size; i++) {
+            DagNode<? extends NodeBean<?>> node = plan.node(i);
+            writeString(out, node.getBean().getName());
+            out.writeInt(strategyIndexes[i]);
+            out.writeLong(node.getInfo().getTimeout());
+            out.writeByte((node.getInfo().isRoot() ? FLAG_ROOT : 0) | (node.getInfo().isFinal() ? FLAG_FINAL : 0));
+            out.writeByte(null == node.getJoin() ? -1 : node.getJoin().ordinal());
+            out.writeInt(node.getJoin() == DagMode.QUORUM ? node.getInfo().getQuorum() : 0);
+            out.writeInt(plan.level(i));
+        }
+        for (int offset : plan.getChildOffsets()) {
+            out.writeInt(offset);
+        }
+        for (int child : plan.getChildIndexes()) {
+            out.writeInt(child);
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        byte[] data = bytes.toByteArray();
+        crc.update(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 内存映射快照文件并还原{@link Dag}实例
+     *
+     * @param file    快照文件
+     * @param factory 节点内连Bean对象工厂, 根节点和终节点在快照记录了输入输出类型时由图自行创建
+     * @param <R>     最终输出参数类型
+     * @return 还原后的{@link Dag}实例
+     * @throws IOException           快照文件无法读取
+     * @throws IllegalStateException 快照格式、版本或校验和不匹配
+     */
+    public static <R> Dag<R> read(Path file, NodeBeanFactory factory) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), factory);
+        }
+    }
+
+    /**
+     * 加载快照文件, 快照不存在或者损坏时由源定义重新构建图, 并重新写入快照
+     *
+     * @param file    快照文件
+     * @param factory 节点内连Bean对象工厂
+     * @param source  图的源定义
+     * @param <R>     最终输出参数类型
+     * @return {@link Dag}实例
+     */
+    public static <R> Dag<R> load(Path file, NodeBeanFactory factory, Supplier<Dag<R>> source) {
+        if (Files.exists(file)) {
+            try {
+                return read(file, factory);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Dag snapshot[{}] is unusable, rebuild from source: {}", file, e.toString());
+            }
+        }
+
+        Dag<R> graph = source.get();
+        try {
+            write(graph, file);
+        } catch (IOException e) {
+            log.warn("Dag snapshot[{}] write error", file, e);
+        }
+        return graph;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> Dag<R> read(ByteBuffer buffer, NodeBeanFactory factory) {
+        int total = buffer.limit();
+        if (total < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Dag snapshot magic mismatch");
+        }
+        short version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IllegalStateException(String.format("Dag snapshot version[%s] mismatch, expect %s", version, VERSION));
+        }
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_SIZE).limit(total - TRAILER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != buffer.getLong(total - TRAILER_SIZE)) {
+            throw new IllegalStateException("Dag snapshot checksum mismatch");
+        }
+
+        buffer.position(HEADER_SIZE);
+        String graphId = readString(buffer);
+        DagMode mode = DagMode.values()[buffer.get()];
+        long timeout = buffer.getLong();
+        long runTimeout = buffer.getLong();
+        int maxParallelism = buffer.getInt();
+        Class<?> inputType = readType(buffer);
+        Class<R> resultType = (Class<R>) readType(buffer);
+
+        String[] strategyIds = new String[buffer.getInt()];
+        for (int i = 0; i < strategyIds.length; i++) {
+            strategyIds[i] = readString(buffer);
+        }
+
+        Dag<R> graph = new Dag<>(graphId, mode, timeout, inputType, resultType, null);
+        graph.setRunTimeout(runTimeout);
+        // 在生成执行计划之前设置, 加载后的计划保持快照中的最大并行度
+        graph.setMaxParallelism(maxParallelism);
+        int size = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        DagNode<? extends NodeBean<?>>[] nodes = new DagNode[size];
+        int[] levels = new int[size];
+        for (int i = 0; i < size; i++) {
+            String name = readString(buffer);
+            String strategyId = strategyIds[buffer.getInt()];
+            long nodeTimeout = buffer.getLong();
+            int flags = buffer.get();
+            int join = buffer.get();
+            int quorum = buffer.getInt();
+            levels[i] = buffer.getInt();
+
+            if ((flags & FLAG_ROOT) != 0 && null != graph.getRootDagNode()) {
+                nodes[i] = graph.getRootDagNode();
+            } else if ((flags & FLAG_FINAL) != 0 && null != graph.getFinalDagNode()) {
+                nodes[i] = graph.getFinalDagNode();
+            } else {
+                nodes[i] = new DagNode<>(factory.create(strategyId, name), nodeTimeout, join < 0 ? null : DagMode.values()[join], quorum);
+                graph.attachNode(nodes[i]);
+            }
+        }
+
+        int[] childOffsets = new int[size + 1];
+        int[] childIndexes = new int[edgeCount];
+        buffer.asIntBuffer().get(childOffsets);
+        buffer.position(buffer.position() + childOffsets.length * 4);
+        buffer.asIntBuffer().get(childIndexes);
+
+        for (int i = 0; i < size; i++) {
+            for (int k = childOffsets[i]; k < childOffsets[i + 1]; k++) {
+                if (!graph.attachEdge(nodes[childIndexes[k]], nodes[i])) {
+                    throw new IllegalStateException(String.format("Dag snapshot edge of node[%s] is duplicated", nodes[i].getInfo().getName()));
+                }
+            }
+        }
+
+        graph.attached(new DagPlan(graph, nodes, childOffsets, childIndexes, levels));
+        return graph;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Class<?> readType(ByteBuffer buffer) {
+        String name = readString(buffer);
+        if (name.isEmpty()) {
+            return null;
+        }
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(String.format("Dag snapshot type[%s] not found", name), e);
+        }
+    }
+}
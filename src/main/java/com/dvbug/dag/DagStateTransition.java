@@ -1,6 +1,5 @@
 package com.dvbug.dag;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,6 +8,8 @@ import static com.dvbug.dag.DagState.*;
 
 /**
  * {@link DagState}状态机
+ * <p>
+ * 状态转化定义在类加载时编译为位掩码表, 所有检测均为O(1)
  */
 public class DagStateTransition {
     public static final Map<DagState, DagState[]> ALLOWED_TRANSFERS = new HashMap<DagState, DagState[]>() {{
@@ -18,6 +19,7 @@ public class DagStateTransition {
         put(SCHEDULING, new DagState[]{PREPARED});
         put(COMPLETED, new DagState[]{SCHEDULING});
     }};
+    private static final TransitionTable<DagState> TABLE = new TransitionTable<>(DagState.class, ALLOWED_TRANSFERS);
 
     /**
      * 状态改变合法性检测
@@ -27,9 +29,7 @@ public class DagStateTransition {
      * @return 是否可以转化
      */
     public static boolean transAllow(DagState oldState, DagState newState) {
-        return !ALLOWED_TRANSFERS.containsKey(newState) ||
-                ALLOWED_TRANSFERS.get(newState).length == 0 ||
-                Arrays.stream(ALLOWED_TRANSFERS.get(newState)).anyMatch(t -> t == oldState);
+        return TABLE.transAllow(oldState, newState);
     }
 
     /**
@@ -40,7 +40,7 @@ public class DagStateTransition {
      * @return 是否可能转化
      */
     public static boolean maybeTransAllow(DagState current, DagState maybeState) {
-        return Arrays.stream(ALLOWED_TRANSFERS.get(maybeState)).anyMatch(t -> t == current || maybeTransAllow(current, t));
+        return TABLE.maybeTransAllow(current, maybeState);
     }
 
     /**
@@ -50,6 +50,6 @@ public class DagStateTransition {
      * @return 是否是最终状态
      */
     public static boolean isFinalState(DagState state) {
-        return Arrays.stream(values()).noneMatch(t -> maybeTransAllow(state, t));
+        return TABLE.isFinalState(state);
     }
 }
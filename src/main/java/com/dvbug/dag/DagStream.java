@@ -0,0 +1,311 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式节点的输出数据流
+ * <p>
+ * 元素由非阻塞的{@link Source}拉取, 只有所有订阅者都有需求时才拉取下一个元素.<br/>
+ * 拉取动作以任务形式在线程池中执行, 同一时刻最多只有一个拉取任务(wip计数),
+ * 订阅者声明需求或者上游有新元素到达时重新触发, 没有需求时不占用任何线程.<br/>
+ * 预期的订阅者全部到齐(订阅或者放弃)之前不会拉取, 避免元素丢失
+ *
+ * @param <T> 元素类型
+ */
+final class DagStream<T> implements DagPublisher<T> {
+    /**
+     * 非阻塞数据源
+     */
+    interface Source<T> {
+        /**
+         * @return 下一个元素, 暂时没有元素时返回null
+         */
+        T poll() throws Exception;
+
+        boolean isCompleted();
+    }
+
+    /**
+     * 数据流结束时完成, 结果为输出的元素总数
+     */
+    @Getter
+    private final CompletableFuture<Long> completion = new CompletableFuture<>();
+    private final Source<T> source;
+    private final Executor executor;
+    private final List<Slot> slots = new CopyOnWriteArrayList<>();
+    private final AtomicInteger pending;
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean done;
+    private volatile Throwable error;
+    private long emitted;
+
+    DagStream(Source<T> source, int expectSubscribers, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+        this.pending = new AtomicInteger(expectSubscribers);
+    }
+
+    static <T> DagStream<T> of(Iterator<T> iterator, int expectSubscribers, Executor executor) {
+        return new DagStream<>(new IteratorSource<>(iterator), expectSubscribers, executor);
+    }
+
+    static <T> DagStream<T> transform(DagPublisher<?> upstream, StreamingNodeBean<T> bean, int expectSubscribers, Executor executor) {
+        TransformSource<T> source = new TransformSource<>(bean);
+        DagStream<T> stream = new DagStream<>(source, expectSubscribers, executor);
+        source.downstream = stream;
+        upstream.subscribe(source);
+        return stream;
+    }
+
+    @Override
+    public void subscribe(DagSubscriber<? super T> subscriber) {
+        Slot slot = new Slot(subscriber);
+        subscriber.onSubscribe(slot);
+        if (done) {
+            if (null == error) subscriber.onComplete();
+            else subscriber.onError(error);
+        } else {
+            slots.add(slot);
+        }
+        pending.decrementAndGet();
+        signal();
+    }
+
+    /**
+     * 预期的订阅者不再订阅(例如节点已经变为INEFFECTIVE)
+     */
+    void abandon() {
+        pending.decrementAndGet();
+        signal();
+    }
+
+    void signal() {
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                terminate(e);
+            }
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        for (; ; ) {
+            failSlots();
+            if (!done && pending.get() <= 0) {
+                drainOnce();
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void drainOnce() {
+        try {
+            for (; ; ) {
+                long demand = demand();
+                if (demand == 0) {
+                    return;
+                }
+                if (demand < 0) {
+                    // 所有订阅者都已取消
+                    terminate(null);
+                    return;
+                }
+                T item = source.poll();
+                if (null == item) {
+                    break;
+                }
+                emitted++;
+                for (Slot slot : slots) {
+                    if (!slot.cancelled) {
+                        slot.emitted++;
+                        slot.subscriber.onNext(item);
+                    }
+                }
+            }
+            if (source.isCompleted()) {
+                terminate(null);
+            }
+        } catch (Throwable e) {
+            terminate(e);
+        }
+    }
+
+    // 在拉取任务中向请求非法的订阅者发出onError, 与onNext串行
+    private void failSlots() {
+        for (Slot slot : slots) {
+            Throwable failure = slot.failure;
+            if (null != failure) {
+                slot.failure = null;
+                slot.subscriber.onError(failure);
+            }
+        }
+    }
+
+    // 所有有效订阅者需求的最小值, 没有订阅者时不限, 订阅者全部取消时返回-1
+    private long demand() {
+        if (slots.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        long demand = Long.MAX_VALUE;
+        boolean active = false;
+        for (Slot slot : slots) {
+            if (!slot.cancelled) {
+                active = true;
+                demand = Math.min(demand, slot.requested.get() - slot.emitted);
+            }
+        }
+        return active ? demand : -1;
+    }
+
+    private void terminate(Throwable throwable) {
+        if (done) {
+            return;
+        }
+        error = throwable;
+        done = true;
+        for (Slot slot : slots) {
+            if (!slot.cancelled) {
+                if (null == throwable) slot.subscriber.onComplete();
+                else slot.subscriber.onError(throwable);
+            }
+        }
+        if (null == throwable) completion.complete(emitted);
+        else completion.completeExceptionally(throwable);
+    }
+
+    private final class Slot implements DagSubscription {
+        private final DagSubscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+        // 请求数非法时只终止本订阅者
+        private volatile Throwable failure;
+        private long emitted;
+
+        private Slot(DagSubscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (!cancelled && !done) {
+                    failure = new IllegalArgumentException(String.format("request %s items is illegal", n));
+                    cancelled = true;
+                    signal();
+                }
+                return;
+            }
+            requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+    }
+
+    private static final class IteratorSource<T> implements Source<T> {
+        private final Iterator<T> iterator;
+        private boolean completed;
+
+        private IteratorSource(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public T poll() {
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+            completed = true;
+            return null;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+
+    // 订阅流式上游, 以有界缓冲区接收上游元素并逐个转换
+    private static final class TransformSource<T> implements Source<T>, DagSubscriber<Object> {
+        private final StreamingNodeBean<T> bean;
+        private final ArrayBlockingQueue<Object> inbound;
+        private volatile DagStream<T> downstream;
+        private volatile DagSubscription upstream;
+        private volatile boolean upstreamCompleted;
+        private volatile Throwable upstreamError;
+
+        private TransformSource(StreamingNodeBean<T> bean) {
+            this.bean = bean;
+            this.inbound = new ArrayBlockingQueue<>(bean.getBufferSize());
+        }
+
+        @Override
+        public void onSubscribe(DagSubscription subscription) {
+            this.upstream = subscription;
+            subscription.request(bean.getBufferSize());
+        }
+
+        @Override
+        public void onNext(Object item) {
+            if (!inbound.offer(item)) {
+                upstreamError = new IllegalStateException("Upstream emits more items than requested");
+            }
+            downstream.signal();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            upstreamError = throwable;
+            downstream.signal();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamCompleted = true;
+            downstream.signal();
+        }
+
+        @Override
+        public T poll() throws Exception {
+            for (; ; ) {
+                Object item = inbound.poll();
+                if (null == item) {
+                    Throwable throwable = upstreamError;
+                    if (null != throwable) {
+                        throw throwable instanceof Exception ? (Exception) throwable : new IllegalStateException(throwable);
+                    }
+                    return null;
+                }
+                upstream.request(1);
+                T result = bean.transform(item);
+                if (null != result) {
+                    return result;
+                }
+            }
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return upstreamCompleted && inbound.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.dvbug.dag;
+
+/**
+ * 流式节点数据流订阅者(Reactive Streams风格)
+ * <p>
+ * 同一订阅者的方法调用不会并发进行, 但可能发生在不同的线程上
+ *
+ * @param <T> 数据元素类型
+ */
+public interface DagSubscriber<T> {
+    void onSubscribe(DagSubscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+}
@@ -0,0 +1,15 @@
+package com.dvbug.dag;
+
+/**
+ * 数据流订阅关系, 订阅者以此向发布者声明需求(背压)或者取消订阅
+ */
+public interface DagSubscription {
+    /**
+     * 声明还可以接收的元素数量, 多次调用累加
+     *
+     * @param n 元素数量, 必须大于0
+     */
+    void request(long n);
+
+    void cancel();
+}
@@ -0,0 +1,365 @@
+package com.dvbug.dag;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 调度时间线导出器, 将{@link DagResult}中的节点轨迹导出到本地文件, 用于离线分析调度间隙和线程争用
+ * <p>
+ * 每个节点按轨迹划分为三个阶段: 排队(依赖满足到开始执行)、等待(开始执行到进入RUNNING)、运行(RUNNING到最终状态),
+ * 同时导出执行线程和上游依赖边; 子图节点以子图graphId限定名称, 与外层图的同名节点区分.<br/>
+ * 支持两种格式:
+ * <ul>
+ *     <li>{@link Format#CHROME} Chrome Trace Event格式(JSON数组格式), 可直接在chrome://tracing或Perfetto中打开</li>
+ *     <li>{@link Format#OTLP} OTLP JSON格式, 每行一个ExportTraceServiceRequest, 可被OpenTelemetry Collector的文件接收器读取</li>
+ * </ul>
+ * 导出只把结果放入队列, 序列化和写文件在后台线程中进行, 文件超过指定大小后滚动
+ */
+public final class DagTraceExporter implements AutoCloseable {
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final Gson GSON = new Gson();
+    private static final String SERVICE_NAME = "dag-scheduler";
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        CHROME("json", "[\n"),
+        OTLP("jsonl", "");
+
+        private final String extension;
+        private final String header;
+
+        Format(String extension, String header) {
+            this.extension = extension;
+            this.header = header;
+        }
+    }
+
+    @Getter
+    private final Format format;
+    private final DagTraceWriter writer;
+
+    public DagTraceExporter(Path directory, Format format) throws IOException {
+        this(directory, format, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param directory    输出目录
+     * @param format       导出格式
+     * @param maxFileBytes 单个文件最大字节数, 超过后滚动到新文件
+     * @param maxFiles     最多保留的文件数, 超过后删除最早的文件
+     */
+    public DagTraceExporter(Path directory, Format format, long maxFileBytes, int maxFiles) throws IOException {
+        this.format = format;
+        this.writer = new DagTraceWriter(directory, "dag-trace", format.extension, format.header, maxFileBytes, maxFiles, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 异步导出一次调度的时间线, 不阻塞调用线程
+     *
+     * @param result 调度结果
+     * @return 是否放入导出队列, 队列已满时丢弃并返回false
+     */
+    public boolean export(DagResult<?> result) {
+        return writer.offer(() -> format == Format.CHROME ? chromeRecord(result) : otlpRecord(result));
+    }
+
+    /**
+     * @return 因队列已满或写入失败而被丢弃的调度数
+     */
+    public long getDroppedCount() {
+        return writer.getDroppedCount();
+    }
+
+    /**
+     * 等待队列中的调度全部写入文件
+     */
+    public void flush() {
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    private static String chromeRecord(DagResult<?> result) {
+        StringBuilder builder = new StringBuilder();
+        for (JsonElement event : toChromeTrace(result)) {
+            builder.append(GSON.toJson(event)).append(",\n");
+        }
+        return builder.toString();
+    }
+
+    private static String otlpRecord(DagResult<?> result) {
+        return GSON.toJson(toOtlp(result)) + "\n";
+    }
+
+    /**
+     * 转换为Chrome Trace Event数组: 每个节点阶段一个完整事件(ph=X), 每条依赖边一对流事件(ph=s/f)
+     *
+     * @param result 调度结果
+     * @return 事件数组
+     */
+    public static JsonArray toChromeTrace(DagResult<?> result) {
+        JsonArray events = new JsonArray();
+        long pid = Integer.toUnsignedLong(result.getTraceId().hashCode());
+
+        JsonObject process = metadata("process_name", pid, 0);
+        process.getAsJsonObject("args").addProperty("name", String.format("%s/%s", result.getGraphId(), result.getTraceId()));
+        events.add(process);
+
+        Set<Long> threads = new HashSet<>();
+        Map<String, TraceInfo> traces = new HashMap<>();
+        for (TraceInfo trace : result.getHistory()) {
+            traces.put(qualify(result, trace, trace.getNodeInfo().getName()), trace);
+            if (threads.add(trace.getThreadId())) {
+                JsonObject thread = metadata("thread_name", pid, trace.getThreadId());
+                thread.getAsJsonObject("args").addProperty("name", String.valueOf(trace.getThreadName()));
+                events.add(thread);
+            }
+        }
+
+        for (TraceInfo trace : result.getHistory()) {
+            Phases phases = new Phases(trace);
+            String name = qualify(result, trace, trace.getNodeInfo().getName());
+            addPhase(events, pid, trace, name, "queued", phases.ready, phases.start);
+            addPhase(events, pid, trace, name, "waiting", phases.start, phases.running > 0 ? phases.running : phases.end);
+            addPhase(events, pid, trace, name, "running", phases.running, phases.end);
+        }
+
+        // 依赖边: 从上游结束指向下游就绪
+        int flowId = 0;
+        for (TraceInfo trace : result.getHistory()) {
+            String name = qualify(result, trace, trace.getNodeInfo().getName());
+            for (String parent : trace.getParents()) {
+                String parentName = qualify(result, trace, parent);
+                TraceInfo parentTrace = traces.get(parentName);
+                if (null == parentTrace) {
+                    continue;
+                }
+                long from = new Phases(parentTrace).end;
+                long to = new Phases(trace).ready;
+                if (from <= 0 || to <= 0) {
+                    continue;
+                }
+                flowId++;
+                events.add(flow("s", pid, parentTrace.getThreadId(), from, flowId, parentName + "->" + name));
+                JsonObject end = flow("f", pid, trace.getThreadId(), Math.max(from, to), flowId, parentName + "->" + name);
+                end.addProperty("bp", "e");
+                events.add(end);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 转换为OTLP JSON(ExportTraceServiceRequest): 每次调度一个根span, 每个节点一个子span, 依赖边以span link表示
+     *
+     * @param result 调度结果
+     * @return OTLP JSON对象
+     */
+    public static JsonObject toOtlp(DagResult<?> result) {
+        String traceId = otlpTraceId(result.getTraceId());
+        String runSpanId = spanId(result.getTraceId(), "");
+        JsonArray spans = new JsonArray();
+
+        long runStart = Long.MAX_VALUE;
+        long runEnd = 0;
+        boolean failed = false;
+        for (TraceInfo trace : result.getHistory()) {
+            Phases phases = new Phases(trace);
+            long start = phases.ready > 0 ? phases.ready : phases.start;
+            if (start <= 0 || phases.end <= 0) {
+                continue;
+            }
+            runStart = Math.min(runStart, start);
+            runEnd = Math.max(runEnd, phases.end);
+            String name = qualify(result, trace, trace.getNodeInfo().getName());
+            boolean success = trace.getFinalState() == DagNodeState.SUCCESS;
+            failed |= !success;
+
+            JsonObject span = span(traceId, spanId(result.getTraceId(), name), runSpanId, name, start, phases.end, success);
+            JsonArray attributes = span.getAsJsonArray("attributes");
+            attributes.add(attribute("dag.node.state", String.valueOf(trace.getFinalState())));
+            attributes.add(attribute("dag.node.queued_us", phases.start - start));
+            attributes.add(attribute("dag.node.waiting_us", (phases.running > 0 ? phases.running : phases.end) - phases.start));
+            attributes.add(attribute("dag.node.running_us", phases.running > 0 ? phases.end - phases.running : 0));
+            attributes.add(attribute("thread.id", trace.getThreadId()));
+            attributes.add(attribute("thread.name", String.valueOf(trace.getThreadName())));
+            JsonArray links = new JsonArray();
+            for (String parent : trace.getParents()) {
+                JsonObject link = new JsonObject();
+                link.addProperty("traceId", traceId);
+                link.addProperty("spanId", spanId(result.getTraceId(), qualify(result, trace, parent)));
+                links.add(link);
+            }
+            span.add("links", links);
+            spans.add(span);
+        }
+        if (runEnd > 0) {
+            JsonObject run = span(traceId, runSpanId, null, String.format("dag-run %s", result.getGraphId()), runStart, runEnd, !failed || null != result.getResult());
+            run.getAsJsonArray("attributes").add(attribute("dag.graph.id", result.getGraphId()));
+            run.getAsJsonArray("attributes").add(attribute("dag.graph.mode", String.valueOf(result.getGraphMode())));
+            spans.add(run);
+        }
+
+        JsonObject scope = new JsonObject();
+        scope.addProperty("name", DagTraceExporter.class.getPackage().getName());
+        JsonObject scopeSpans = new JsonObject();
+        scopeSpans.add("scope", scope);
+        scopeSpans.add("spans", spans);
+        JsonArray scopeSpansList = new JsonArray();
+        scopeSpansList.add(scopeSpans);
+
+        JsonObject resource = new JsonObject();
+        JsonArray resourceAttributes = new JsonArray();
+        resourceAttributes.add(attribute("service.name", SERVICE_NAME));
+        resource.add("attributes", resourceAttributes);
+        JsonObject resourceSpans = new JsonObject();
+        resourceSpans.add("resource", resource);
+        resourceSpans.add("scopeSpans", scopeSpansList);
+        JsonArray resourceSpansList = new JsonArray();
+        resourceSpansList.add(resourceSpans);
+
+        JsonObject request = new JsonObject();
+        request.add("resourceSpans", resourceSpansList);
+        return request;
+    }
+
+    // 子图与外层图共享traceId和轨迹列表, 子图的节点名称(包括上游名称)以子图graphId限定
+    private static String qualify(DagResult<?> result, TraceInfo trace, String name) {
+        return DagAnalyzer.qualify(result.getGraphId(), trace.getNodeInfo().getGraphId(), name);
+    }
+
+    // 节点轨迹中各阶段的起止时间(微秒), 未进入的阶段为0
+    private static final class Phases {
+        private final long ready;
+        private final long start;
+        private final long running;
+        private final long end;
+
+        private Phases(TraceInfo trace) {
+            this.start = trace.getStateTimeMicros(DagNodeState.START);
+            this.ready = trace.getReadyTime() > 0 ? trace.getReadyTime() : start;
+            this.running = trace.getStateTimeMicros(DagNodeState.RUNNING);
+            DagNodeState state = trace.getFinalState();
+            this.end = null != state && DagNodeStateTransition.isFinalState(state) ? trace.getStateTimeMicros(state) : 0;
+        }
+    }
+
+    private static void addPhase(JsonArray events, long pid, TraceInfo trace, String name, String phase, long from, long to) {
+        if (from <= 0 || to < from) {
+            return;
+        }
+        JsonObject event = new JsonObject();
+        event.addProperty("name", name);
+        event.addProperty("cat", phase);
+        event.addProperty("ph", "X");
+        event.addProperty("ts", from);
+        event.addProperty("dur", to - from);
+        event.addProperty("pid", pid);
+        event.addProperty("tid", trace.getThreadId());
+        JsonObject args = new JsonObject();
+        args.addProperty("traceId", trace.getId());
+        args.addProperty("state", String.valueOf(trace.getFinalState()));
+        JsonArray parents = new JsonArray();
+        trace.getParents().forEach(parents::add);
+        args.add("parents", parents);
+        event.add("args", args);
+        events.add(event);
+    }
+
+    private static JsonObject metadata(String name, long pid, long tid) {
+        JsonObject event = new JsonObject();
+        event.addProperty("name", name);
+        event.addProperty("ph", "M");
+        event.addProperty("pid", pid);
+        event.addProperty("tid", tid);
+        event.add("args", new JsonObject());
+        return event;
+    }
+
+    private static JsonObject flow(String ph, long pid, long tid, long ts, int id, String name) {
+        JsonObject event = new JsonObject();
+        event.addProperty("name", name);
+        event.addProperty("cat", "dependency");
+        event.addProperty("ph", ph);
+        event.addProperty("id", id);
+        event.addProperty("ts", ts);
+        event.addProperty("pid", pid);
+        event.addProperty("tid", tid);
+        return event;
+    }
+
+    private static JsonObject span(String traceId, String spanId, String parentSpanId, String name, long startMicros, long endMicros, boolean ok) {
+        JsonObject span = new JsonObject();
+        span.addProperty("traceId", traceId);
+        span.addProperty("spanId", spanId);
+        if (null != parentSpanId) {
+            span.addProperty("parentSpanId", parentSpanId);
+        }
+        span.addProperty("name", name);
+        span.addProperty("kind", 1);
+        span.addProperty("startTimeUnixNano", String.valueOf(startMicros * 1000));
+        span.addProperty("endTimeUnixNano", String.valueOf(endMicros * 1000));
+        span.add("attributes", new JsonArray());
+        JsonObject status = new JsonObject();
+        status.addProperty("code", ok ? 1 : 2);
+        span.add("status", status);
+        return span;
+    }
+
+    private static JsonObject attribute(String key, String value) {
+        JsonObject wrapped = new JsonObject();
+        wrapped.addProperty("stringValue", value);
+        JsonObject attribute = new JsonObject();
+        attribute.addProperty("key", key);
+        attribute.add("value", wrapped);
+        return attribute;
+    }
+
+    private static JsonObject attribute(String key, long value) {
+        JsonObject wrapped = new JsonObject();
+        wrapped.addProperty("intValue", String.valueOf(value));
+        JsonObject attribute = new JsonObject();
+        attribute.addProperty("key", key);
+        attribute.add("value", wrapped);
+        return attribute;
+    }
+
+    // OTLP要求32位十六进制traceId, 不符合时以哈希补齐
+    private static String otlpTraceId(String traceId) {
+        if (traceId.length() == 32 && traceId.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return traceId.toLowerCase();
+        }
+        return String.format("%016x%016x", fnv(traceId, 0), fnv(traceId, 1));
+    }
+
+    private static String spanId(String traceId, String name) {
+        return String.format("%016x", fnv(traceId + '/' + name, 0));
+    }
+
+    private static long fnv(String value, int seed) {
+        long hash = 0xcbf29ce484222325L ^ seed;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
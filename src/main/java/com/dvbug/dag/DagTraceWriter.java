@@ -0,0 +1,197 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 异步缓冲的滚动文件写入器
+ * <p>
+ * 调用线程只把记录放入有界队列, 由专用线程批量生成记录内容并写入缓冲文件, 每批写完后刷盘.<br/>
+ * 当前文件超过指定大小后滚动到新文件, 只保留最近的若干个文件.<br/>
+ * 写入或刷盘失败时放弃当前文件, 下一条记录滚动到新文件重试, 失败的记录计为丢弃
+ */
+@Slf4j
+final class DagTraceWriter implements AutoCloseable {
+    private static final int BATCH_SIZE = 256;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final Path directory;
+    private final String prefix;
+    private final String extension;
+    private final String header;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final BlockingQueue<Supplier<String>> queue;
+    private final Deque<Path> files = new ArrayDeque<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+    private BufferedWriter writer;
+    private long fileBytes;
+    private int sequence;
+
+    DagTraceWriter(Path directory, String prefix, String extension, String header, long maxFileBytes, int maxFiles, int capacity) throws IOException {
+        if (maxFileBytes <= 0 || maxFiles <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Illegal trace writer options, maxFileBytes=%s, maxFiles=%s, capacity=%s", maxFileBytes, maxFiles, capacity));
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.extension = extension;
+        this.header = header;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::run, String.format("dag-trace-writer-%s", THREAD_COUNT.incrementAndGet()));
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @param record 记录内容, 在写入线程中生成
+     * @return 是否放入队列
+     */
+    boolean offer(Supplier<String> record) {
+        if (closed || !queue.offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return 因队列已满、写入器已关闭或写入失败而被丢弃的记录数
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 等待已经放入队列的记录全部写入文件
+     */
+    void flush() {
+        long target = accepted.get();
+        while (written.get() < target && worker.isAlive()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Supplier<String>> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Supplier<String> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                int failed = 0;
+                for (Supplier<String> record : batch) {
+                    if (!write(record)) {
+                        failed++;
+                    }
+                }
+                if (null != writer) {
+                    try {
+                        writer.flush();
+                    } catch (IOException e) {
+                        // 无法确定缓冲区中哪些记录已经落盘, 整批计为丢弃
+                        log.error("{} flush error, rotate to a new file", getClass().getSimpleName(), e);
+                        failed = batch.size();
+                        closeFile();
+                    }
+                }
+                dropped.addAndGet(failed);
+                written.addAndGet(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeFile();
+        }
+    }
+
+    // 记录写入缓冲文件, 文件出错时放弃当前文件, 下一条记录滚动到新文件
+    private boolean write(Supplier<String> record) {
+        String content;
+        try {
+            content = record.get();
+        } catch (RuntimeException e) {
+            log.error("{} build record error", getClass().getSimpleName(), e);
+            return false;
+        }
+        try {
+            int bytes = content.getBytes(StandardCharsets.UTF_8).length;
+            if (null == writer || (fileBytes > header.length() && fileBytes + bytes > maxFileBytes)) {
+                rotate();
+            }
+            writer.write(content);
+            fileBytes += bytes;
+            return true;
+        } catch (IOException e) {
+            log.error("{} write record error, rotate to a new file", getClass().getSimpleName(), e);
+            closeFile();
+            return false;
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path file = directory.resolve(String.format("%s-%s-%04d.%s", prefix, time, ++sequence, extension));
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(header);
+        fileBytes = header.length();
+        files.addLast(file);
+        while (files.size() > maxFiles) {
+            Files.deleteIfExists(files.pollFirst());
+        }
+        log.debug("{} rotated to {}", getClass().getSimpleName(), file);
+    }
+
+    private void closeFile() {
+        if (null == writer) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("{} close file error", getClass().getSimpleName(), e);
+        }
+        writer = null;
+    }
+}
@@ -0,0 +1,96 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通过{@link DagScheduler#publish(String, Dag)}发布的图版本
+ * <p>
+ * 每个版本持有发布时编译好的不可变执行计划, 调度开始时获取版本引用, 调度结束时释放.<br/>
+ * 注册表自身也持有一个引用, 新版本发布后旧版本被注册表释放,
+ * 旧版本上最后一个调度结束时引用数归零, 执行计划随之释放
+ */
+@Slf4j
+public final class DagVersion {
+    @Getter
+    private final String name;
+    @Getter
+    private final long version;
+    // 引用数: 注册表1个 + 正在进行的调度数, 归零后不能再被获取
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean retired;
+    private volatile DagPlan plan;
+
+    DagVersion(String name, long version, DagPlan plan) {
+        this.name = name;
+        this.version = version;
+        this.plan = plan;
+    }
+
+    /**
+     * @return 图实例, 版本已释放时返回null
+     */
+    public Dag<?> getGraph() {
+        DagPlan current = plan;
+        return null == current ? null : current.getGraph();
+    }
+
+    /**
+     * @return 正在使用本版本的调度数
+     */
+    public int getRunningCount() {
+        return Math.max(0, references.get() - (retired ? 0 : 1));
+    }
+
+    /**
+     * @return 版本是否已经被新版本替换或者被撤销
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * @return 版本是否已经被释放
+     */
+    public boolean isReleased() {
+        return references.get() <= 0;
+    }
+
+    DagPlan getPlan() {
+        return plan;
+    }
+
+    // 由 DAG调度器调用, 引用数已经归零的版本不能再被获取
+    boolean retain() {
+        for (; ; ) {
+            int current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // 由 DAG调度器调用, 注册表释放自身持有的引用
+    void retire() {
+        retired = true;
+        release();
+    }
+
+    // 由 DAG调度器调用
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            plan = null;
+            log.debug("DagVersion[{}:{}] released", name, version);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s:%s, running=%s, released=%s]", getClass().getSimpleName(), name, version, getRunningCount(), isReleased());
+    }
+}
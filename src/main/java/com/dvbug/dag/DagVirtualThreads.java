@@ -0,0 +1,51 @@
+package com.dvbug.dag;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 每个节点一个虚拟线程的执行器, 用于以阻塞IO为主的图
+ * <p>
+ * 通过{@link DagScheduler#DagScheduler(java.util.concurrent.Executor)}使用, 节点阻塞时只挂起虚拟线程, 不占用载体线程.<br/>
+ * 项目以Java 8编译, 打包为多版本JAR: JDK 21及以上运行时加载META-INF/versions/21中的实现直接创建执行器;
+ * 本实现在未打包的类路径上通过方法句柄查找, 低于JDK 21时不可用
+ */
+public final class DagVirtualThreads {
+    private static final MethodHandle FACTORY = lookup();
+
+    private DagVirtualThreads() {
+    }
+
+    /**
+     * @return 当前运行时是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return null != FACTORY;
+    }
+
+    /**
+     * @return 每个任务一个虚拟线程的执行器
+     * @throws UnsupportedOperationException 当前运行时不支持虚拟线程
+     */
+    public static ExecutorService newExecutor() {
+        if (null == FACTORY) {
+            throw new UnsupportedOperationException(String.format("Virtual threads require JDK 21+, current %s", System.getProperty("java.version")));
+        }
+        try {
+            return (ExecutorService) FACTORY.invoke();
+        } catch (Throwable e) {
+            throw new UnsupportedOperationException(String.format("Virtual threads are not available in JDK %s", System.getProperty("java.version")), e);
+        }
+    }
+
+    private static MethodHandle lookup() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
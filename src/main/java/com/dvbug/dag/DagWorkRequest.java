@@ -0,0 +1,72 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次调度中发送给同一个{@link DagWorker}的一批节点执行请求
+ */
+@Getter
+@RequiredArgsConstructor
+public final class DagWorkRequest {
+    private final String runId;
+    private final List<Task> tasks;
+
+    /**
+     * 单个节点执行请求, 参数已经序列化
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class Task {
+        private final int taskId;
+        private final String strategyId;
+        private final String name;
+        // 节点超时毫秒数, 异步节点在worker中同步等待结果时使用
+        private final long timeout;
+        private final List<byte[]> params;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(runId);
+        out.writeInt(tasks.size());
+        for (Task task : tasks) {
+            out.writeInt(task.taskId);
+            out.writeUTF(task.strategyId);
+            out.writeUTF(task.name);
+            out.writeLong(task.timeout);
+            out.writeInt(task.params.size());
+            for (byte[] param : task.params) {
+                out.writeInt(param.length);
+                out.write(param);
+            }
+        }
+    }
+
+    static DagWorkRequest readFrom(DataInputStream in) throws IOException {
+        String runId = in.readUTF();
+        int count = in.readInt();
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int taskId = in.readInt();
+            String strategyId = in.readUTF();
+            String name = in.readUTF();
+            long timeout = in.readLong();
+            int paramCount = in.readInt();
+            List<byte[]> params = new ArrayList<>(paramCount);
+            for (int k = 0; k < paramCount; k++) {
+                byte[] param = new byte[in.readInt()];
+                in.readFully(param);
+                params.add(param);
+            }
+            tasks.add(new Task(taskId, strategyId, name, timeout, Collections.unmodifiableList(params)));
+        }
+        return new DagWorkRequest(runId, Collections.unmodifiableList(tasks));
+    }
+}
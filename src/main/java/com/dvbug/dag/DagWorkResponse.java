@@ -0,0 +1,65 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link DagWorkRequest}的执行结果, 与请求一一对应批量返回
+ */
+@Getter
+@RequiredArgsConstructor
+public final class DagWorkResponse {
+    private final String runId;
+    private final List<Result> results;
+
+    /**
+     * 单个节点执行结果, 成功时payload为序列化后的结果, 失败时error为异常信息
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class Result {
+        private final int taskId;
+        private final boolean success;
+        private final byte[] payload;
+        private final String error;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(runId);
+        out.writeInt(results.size());
+        for (Result result : results) {
+            out.writeInt(result.taskId);
+            out.writeBoolean(result.success);
+            if (result.success) {
+                out.writeInt(result.payload.length);
+                out.write(result.payload);
+            } else {
+                out.writeUTF(String.valueOf(result.error));
+            }
+        }
+    }
+
+    static DagWorkResponse readFrom(DataInputStream in) throws IOException {
+        String runId = in.readUTF();
+        int count = in.readInt();
+        List<Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int taskId = in.readInt();
+            if (in.readBoolean()) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                results.add(new Result(taskId, true, payload, null));
+            } else {
+                results.add(new Result(taskId, false, null, in.readUTF()));
+            }
+        }
+        return new DagWorkResponse(runId, Collections.unmodifiableList(results));
+    }
+}
@@ -0,0 +1,24 @@
+package com.dvbug.dag;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 远程worker, 接收一批节点执行请求并返回这批请求的执行结果
+ * <p>
+ * 同一次调度中同时就绪、分配到同一个worker的节点合并为一个{@link DagWorkRequest}发送.<br/>
+ * 内置两种传输方式: 进程内的{@link LoopbackDagWorker}和基于本地socket的{@link SocketDagWorker}
+ */
+public interface DagWorker {
+    /**
+     * @return worker标识
+     */
+    String getId();
+
+    /**
+     * 发送一批节点执行请求, 不阻塞调用线程
+     *
+     * @param request 执行请求
+     * @return 执行结果, 传输失败时异常结束
+     */
+    CompletableFuture<DagWorkResponse> execute(DagWorkRequest request);
+}
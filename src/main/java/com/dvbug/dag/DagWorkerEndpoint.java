@@ -0,0 +1,73 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * worker端的节点执行入口, 被各种传输方式的worker共用
+ * <p>
+ * 一批请求中的节点在线程池中并行执行, 全部结束后合并为一个{@link DagWorkResponse}返回.<br/>
+ * Bean对象按策略标识和名称缓存, 运行时状态由Bean对象自身按线程隔离
+ */
+@Slf4j
+public final class DagWorkerEndpoint {
+    private final NodeBeanFactory factory;
+    private final DagCodec codec;
+    private final Executor executor;
+    private final Map<String, NodeBean<?>> beans = new ConcurrentHashMap<>();
+
+    public DagWorkerEndpoint(NodeBeanFactory factory, DagCodec codec, Executor executor) {
+        this.factory = factory;
+        this.codec = codec;
+        this.executor = executor;
+    }
+
+    /**
+     * 执行一批节点
+     *
+     * @param request 执行请求
+     * @return 全部节点的执行结果
+     */
+    public CompletableFuture<DagWorkResponse> handle(DagWorkRequest request) {
+        List<CompletableFuture<DagWorkResponse.Result>> futures = new ArrayList<>(request.getTasks().size());
+        for (DagWorkRequest.Task task : request.getTasks()) {
+            futures.add(CompletableFuture.supplyAsync(() -> execute(request.getRunId(), task), executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<DagWorkResponse.Result> results = new ArrayList<>(futures.size());
+            futures.forEach(f -> results.add(f.join()));
+            return new DagWorkResponse(request.getRunId(), results);
+        });
+    }
+
+    private DagWorkResponse.Result execute(String runId, DagWorkRequest.Task task) {
+        NodeBean<?> bean = null;
+        try {
+            bean = beans.computeIfAbsent(task.getStrategyId() + '/' + task.getName(), k -> factory.create(task.getStrategyId(), task.getName()));
+            if (bean instanceof AsyncNodeBean) {
+                ((AsyncNodeBean<?>) bean).setTimeout(task.getTimeout());
+            }
+            bean.beforeRuntime();
+            for (byte[] param : task.getParams()) {
+                bean.setParam(codec.decode(param));
+            }
+            if (bean.execute()) {
+                return new DagWorkResponse.Result(task.getTaskId(), true, codec.encode(bean.getResult()), null);
+            }
+            return new DagWorkResponse.Result(task.getTaskId(), false, null, String.valueOf(bean.getThrowable()));
+        } catch (Throwable e) {
+            log.warn("{} execute {} error, runId={}", getClass().getSimpleName(), task.getName(), runId, e);
+            return new DagWorkResponse.Result(task.getTaskId(), false, null, e.toString());
+        } finally {
+            if (null != bean) {
+                bean.afterRuntime();
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 进程内worker, 请求不经过网络直接交给{@link DagWorkerEndpoint}执行
+ * <p>
+ * 参数和结果仍然经过序列化, 可以在单机上验证节点是否满足远程执行的要求
+ */
+public final class LoopbackDagWorker implements DagWorker {
+    @Getter
+    private final String id;
+    private final DagWorkerEndpoint endpoint;
+
+    public LoopbackDagWorker(String id, DagWorkerEndpoint endpoint) {
+        this.id = id;
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public CompletableFuture<DagWorkResponse> execute(DagWorkRequest request) {
+        return endpoint.handle(request);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]", getClass().getSimpleName(), id);
+    }
+}
@@ -0,0 +1,16 @@
+package com.dvbug.dag;
+
+/**
+ * {@link NodeBean}工厂, 用于从{@link DagSnapshot}快照中还原节点内连Bean对象, 或者在{@link DagWorkerEndpoint}中创建远程执行的Bean对象
+ */
+@FunctionalInterface
+public interface NodeBeanFactory {
+    /**
+     * 创建节点内连Bean对象
+     *
+     * @param strategyId 策略标识, 写入快照时为Bean对象的类名
+     * @param name       Bean对象名称
+     * @return {@link NodeBean}实例
+     */
+    NodeBean<?> create(String strategyId, String name);
+}
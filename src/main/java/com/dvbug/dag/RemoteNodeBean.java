@@ -0,0 +1,20 @@
+package com.dvbug.dag;
+
+/**
+ * 可以在远程worker中执行的节点内连Bean对象
+ * <p>
+ * {@link DagScheduler}配置了{@link DagWorker}时, 实现本接口的节点由{@link DagPartitioner}分配到各个worker执行:
+ * 节点的上游参数经{@link DagCodec}序列化后发送给worker, worker通过{@link NodeBeanFactory}以策略标识和名称创建Bean对象执行,
+ * 执行结果序列化后返回.<br/>
+ * 节点的执行只能依赖上游参数, 不能依赖本地状态
+ *
+ * @param <T> 节点输出类型
+ */
+public interface RemoteNodeBean<T> extends NodeBean<T> {
+    /**
+     * @return 策略标识, worker以此创建Bean对象, 默认为类名
+     */
+    default String getStrategyId() {
+        return getClass().getName();
+    }
+}
@@ -0,0 +1,17 @@
+package com.dvbug.dag;
+
+/**
+ * 可以在共同调度的图之间共享执行结果的节点内连Bean对象
+ * <p>
+ * {@link DagScheduler#scheduleAll}共同调度一批图时, 共享标识相同、类型相同、汇合模式相同且上游结构相同的节点只执行一次,
+ * 结果分发给每个使用它的图. 未实现本接口的节点以及它们的下游不共享.<br/>
+ * 实现者需要保证共享标识相同的节点结果只由上游参数决定
+ *
+ * @param <T> 节点输出类型
+ */
+public interface SharableNodeBean<T> extends NodeBean<T> {
+    /**
+     * @return 共享标识, 例如特征名称与版本; 为null时本节点不共享
+     */
+    Object getSharingKey();
+}
@@ -0,0 +1,97 @@
+package com.dvbug.dag;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于socket的worker客户端, 与{@link SocketDagWorkerServer}配套使用
+ * <p>
+ * 一个实例维护一个长连接, 请求以requestId区分, 由专用线程读取响应并结束对应的请求
+ */
+@Slf4j
+public final class SocketDagWorker implements DagWorker, AutoCloseable {
+    @Getter
+    private final String id;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<DagWorkResponse>> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public SocketDagWorker(String id, String host, int port) throws IOException {
+        this.id = id;
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread reader = new Thread(() -> read(in), String.format("dag-worker-client-%s", id));
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public CompletableFuture<DagWorkResponse> execute(DagWorkRequest request) {
+        CompletableFuture<DagWorkResponse> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException(String.format("%s is closed", this)));
+            return future;
+        }
+        long requestId = requestIds.incrementAndGet();
+        pending.put(requestId, future);
+        try {
+            synchronized (out) {
+                out.writeLong(requestId);
+                request.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+    }
+
+    private void read(DataInputStream in) {
+        try {
+            for (; ; ) {
+                long requestId = in.readLong();
+                DagWorkResponse response = DagWorkResponse.readFrom(in);
+                CompletableFuture<DagWorkResponse> future = pending.remove(requestId);
+                if (null != future) {
+                    future.complete(response);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("{} connection lost", this, e);
+            }
+        } finally {
+            closed = true;
+            IllegalStateException lost = new IllegalStateException(String.format("%s connection closed", this));
+            pending.values().forEach(f -> f.completeExceptionally(lost));
+            pending.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, %s]", getClass().getSimpleName(), id, socket.getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,107 @@
+package com.dvbug.dag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于socket的worker服务端, 参考实现, 默认只监听本地回环地址
+ * <p>
+ * 帧格式: 请求 requestId(long) + {@link DagWorkRequest}, 响应 requestId(long) + {@link DagWorkResponse}.<br/>
+ * 同一连接上的多个请求可以并发执行, 响应按完成顺序写回
+ */
+@Slf4j
+public final class SocketDagWorkerServer implements AutoCloseable {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final DagWorkerEndpoint endpoint;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param endpoint worker端执行入口
+     * @param port     监听端口, 0表示随机端口
+     */
+    public SocketDagWorkerServer(DagWorkerEndpoint endpoint, int port) throws IOException {
+        this.endpoint = endpoint;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, String.format("dag-worker-acceptor-%s", THREAD_COUNT.incrementAndGet()));
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread reader = new Thread(() -> serve(socket), String.format("dag-worker-connection-%s", THREAD_COUNT.incrementAndGet()));
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("{} accept error", getClass().getSimpleName(), e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            for (; ; ) {
+                long requestId = in.readLong();
+                DagWorkRequest request = DagWorkRequest.readFrom(in);
+                endpoint.handle(request).whenComplete((response, throwable) -> {
+                    if (null != throwable) {
+                        log.error("{} handle request error, runId={}", getClass().getSimpleName(), request.getRunId(), throwable);
+                        return;
+                    }
+                    synchronized (out) {
+                        try {
+                            out.writeLong(requestId);
+                            response.writeTo(out);
+                            out.flush();
+                        } catch (IOException e) {
+                            log.warn("{} write response error, runId={}", getClass().getSimpleName(), request.getRunId(), e);
+                        }
+                    }
+                });
+            }
+        } catch (EOFException e) {
+            log.debug("{} connection closed by peer {}", getClass().getSimpleName(), socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("{} connection error", getClass().getSimpleName(), e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+}
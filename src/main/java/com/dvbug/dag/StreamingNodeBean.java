@@ -0,0 +1,39 @@
+package com.dvbug.dag;
+
+import java.util.Iterator;
+
+/**
+ * 流式输出的节点内连Bean对象
+ * <p>
+ * 节点进入RUNNING后逐个产出元素, 流式下游节点在上游仍在产出时就开始消费,
+ * 上下游之间的缓冲区有界, 上游按下游的需求产出(背压), 等待需求期间不占用工作线程.<br/>
+ * 没有流式上游时通过{@link StreamingNodeBean#open()}打开数据源;
+ * 有流式上游时(上游参数中包含{@link DagPublisher})对上游元素逐个调用{@link StreamingNodeBean#transform(Object)}.<br/>
+ * 数据流结束后节点执行成功, 非流式下游节点收到全部元素组成的列表
+ *
+ * @param <T> 输出元素类型
+ */
+public interface StreamingNodeBean<T> extends NodeBean<T> {
+    int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * 在节点运行时内被调用, 可以读取上游节点传递过来的参数<br/>
+     * 返回的迭代器在线程池中按需拉取, 不要求线程安全但不能依赖节点运行时的线程上下文
+     *
+     * @return 数据源
+     */
+    Iterator<T> open();
+
+    /**
+     * 转换流式上游的元素, 在线程池中被逐个调用, 不能依赖节点运行时的线程上下文
+     *
+     * @param item 上游元素
+     * @return 输出元素, 返回null时丢弃该元素
+     */
+    T transform(Object item);
+
+    /**
+     * @return 与流式上游之间的缓冲区大小
+     */
+    int getBufferSize();
+}
@@ -0,0 +1,24 @@
+package com.dvbug.dag;
+
+/**
+ * 内嵌子图的节点内连Bean对象
+ * <p>
+ * 节点进入RUNNING后, 调度器将子图展开到当前调度中异步执行:
+ * 子图节点与外层图共用调度线程池、调度截止时间和traceId, 执行轨迹并入外层调度历史,
+ * 子图终节点的结果作为本节点的结果传递给下游节点, 等待子图期间不占用任何工作线程
+ *
+ * @param <T> 子图最终输出参数类型
+ */
+public interface SubDagNodeBean<T> extends NodeBean<T> {
+    /**
+     * @return 被内嵌的子图
+     */
+    Dag<T> getSubDag();
+
+    /**
+     * 在节点运行时内被调用, 可以读取上游节点传递过来的参数
+     *
+     * @return 子图根节点的输入参数
+     */
+    Object getSubDagInput();
+}
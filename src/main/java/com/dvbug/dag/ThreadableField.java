@@ -1,8 +1,10 @@
 package com.dvbug.dag;
 
 public class ThreadableField<T> implements RuntimeInitializable {
-    private ThreadLocal<T> threadLocalField;
-    private T mainThreadField;
+    // 每个线程独立持有运行时的字段值, 同一字段可以在多个线程中同时处于运行时;
+    // 运行时内只访问本线程的值, 不需要加锁, 也不会在虚拟线程中占住载体线程
+    private final ThreadLocal<Holder<T>> threadLocalField = new ThreadLocal<>();
+    private volatile T mainThreadField;
 
     public ThreadableField() {
     }
@@ -11,42 +13,40 @@ public class ThreadableField<T> implements RuntimeInitializable {
         this.mainThreadField = value;
     }
 
-    public synchronized T get() {
-        if (null != threadLocalField) {
-            if (null == threadLocalField.get() && null != mainThreadField) {
-                this.threadLocalField.set(mainThreadField);
-            }
-            return threadLocalField.get();
+    public T get() {
+        Holder<T> holder = threadLocalField.get();
+        if (null != holder) {
+            return holder.value;
         } else return mainThreadField;
     }
 
-    public synchronized void set(T value) {
-        if (null != threadLocalField) {
-            threadLocalField.set(value);
+    public void set(T value) {
+        Holder<T> holder = threadLocalField.get();
+        if (null != holder) {
+            holder.value = value;
         } else mainThreadField = value;
     }
 
-    public synchronized void reset() {
-        if (null != threadLocalField) {
-            threadLocalField.remove();
-        }
-        threadLocalField = null;
+    public void reset() {
+        threadLocalField.remove();
         mainThreadField = null;
     }
 
     @Override
-    public synchronized void beforeRuntime() {
-        this.threadLocalField = new ThreadLocal<>();
-        if (null != mainThreadField) {
-            this.threadLocalField.set(mainThreadField);
-        }
+    public void beforeRuntime() {
+        this.threadLocalField.set(new Holder<>(mainThreadField));
     }
 
     @Override
-    public synchronized void afterRuntime() {
-        if (null != threadLocalField) {
-            threadLocalField.remove();
+    public void afterRuntime() {
+        threadLocalField.remove();
+    }
+
+    private static final class Holder<T> {
+        private T value;
+
+        private Holder(T value) {
+            this.value = value;
         }
-        this.threadLocalField = null;
     }
 }
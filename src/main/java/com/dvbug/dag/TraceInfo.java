@@ -4,10 +4,11 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
 public class TraceInfo {
@@ -16,33 +17,96 @@ public class TraceInfo {
     private String id;
     @Getter
     private final DagNodeInfo nodeInfo;
-    private final Map<DagNodeState, Long> stateChangedTimeMap = new HashMap<>();
+    private static final DagNodeState[] STATES = DagNodeState.values();
+    // 以单调时钟推算的微秒级墙上时间
+    private static final long ORIGIN_MICROS = System.currentTimeMillis() * 1000;
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    // 以状态序号为下标的状态变化时间(微秒)
+    private final AtomicLongArray stateChangedTimes = new AtomicLongArray(STATES.length);
+    // 当前状态序号, -1表示尚未设置
+    private final AtomicInteger state = new AtomicInteger(-1);
     @Getter
-    private DagNodeState finalState;
-    @Getter
-    private final List<DagNode<? extends NodeBean<?>>> failedDepends = new ArrayList<>();
+    private final List<DagNode<? extends NodeBean<?>>> failedDepends = new CopyOnWriteArrayList<>();
     @Setter(AccessLevel.MODULE)
     @Getter
     private Object finalResult;
+    /**
+     * 依赖满足、节点提交到线程池的时间(微秒)
+     */
+    @Getter
+    private volatile long readyTime;
+    /**
+     * 执行节点的线程
+     */
+    @Getter
+    private volatile long threadId;
+    @Getter
+    private volatile String threadName;
+    /**
+     * 依赖的上游节点名称
+     */
+    @Setter(AccessLevel.MODULE)
+    @Getter
+    private List<String> parents = Collections.emptyList();
 
     TraceInfo(DagNodeInfo nodeInfo) {
         this.nodeInfo = nodeInfo;
-        for (DagNodeState state : DagNodeState.values()) {
-            stateChangedTimeMap.put(state, 0L);
-        }
+    }
+
+    public DagNodeState getFinalState() {
+        int current = state.get();
+        return current < 0 ? null : STATES[current];
     }
 
     public void setFinalState(DagNodeState state) {
-        this.finalState = state;
-        stateChangedTimeMap.replace(state, System.currentTimeMillis());
+        this.state.set(state.ordinal());
+        stateChangedTimes.set(state.ordinal(), currentTimeMicros());
+    }
+
+    /**
+     * 以CAS方式改变状态, 并发的状态改变(例如超时与执行完成)只有一个成功
+     *
+     * @param expect 期望的现态
+     * @param update 次态
+     * @return 是否改变成功
+     */
+    boolean compareAndSetFinalState(DagNodeState expect, DagNodeState update) {
+        if (!state.compareAndSet(null == expect ? -1 : expect.ordinal(), update.ordinal())) {
+            return false;
+        }
+        stateChangedTimes.set(update.ordinal(), currentTimeMicros());
+        return true;
     }
 
     public boolean isCompleted() {
-        return DagNodeStateTransition.isFinalState(finalState);
+        return DagNodeStateTransition.isFinalState(getFinalState());
     }
 
     public long getStateTime(DagNodeState state) {
-        return stateChangedTimeMap.get(state);
+        return stateChangedTimes.get(state.ordinal()) / 1000;
+    }
+
+    /**
+     * @param state 状态
+     * @return 进入指定状态的微秒时间, 未进入过时为0
+     */
+    public long getStateTimeMicros(DagNodeState state) {
+        return stateChangedTimes.get(state.ordinal());
+    }
+
+    // 由 DAG调度器调用
+    void markReady() {
+        readyTime = currentTimeMicros();
+    }
+
+    // 由 DAG调度器调用
+    void markThread(Thread thread) {
+        threadId = thread.getId();
+        threadName = thread.getName();
+    }
+
+    static long currentTimeMicros() {
+        return ORIGIN_MICROS + (System.nanoTime() - ORIGIN_NANOS) / 1000;
     }
 
     @Override
@@ -51,10 +115,10 @@ public class TraceInfo {
         builder.append(this.getClass().getSimpleName()).append("[");
         builder.append("id=").append(id).append(",");
         builder.append("nodeInfo=").append(nodeInfo).append(",");
-        stateChangedTimeMap.forEach(((state, ts) -> {
-            builder.append(state.toString().toLowerCase()).append("T=").append(ts).append(",");
-        }));
-        builder.append("state=").append(finalState.toString()).append(",");
+        for (DagNodeState s : STATES) {
+            builder.append(s.toString().toLowerCase()).append("T=").append(getStateTime(s)).append(",");
+        }
+        builder.append("state=").append(getFinalState()).append(",");
         builder.append("failedDepends=[").append(failedDepends.stream().map(n -> n.getInfo().getName()).collect(Collectors.joining(","))).append("],");
         builder.append("result=").append(finalResult);
         builder.append("]");
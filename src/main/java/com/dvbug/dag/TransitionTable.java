@@ -0,0 +1,72 @@
+package com.dvbug.dag;
+
+import java.util.Map;
+
+/**
+ * 编译后的状态转化表
+ * <p>
+ * 将"次态 -> 允许的现态"定义编译为以枚举序号为下标的位掩码数组,
+ * 转化检测、可达检测和最终状态检测都是O(1)的位运算, 不产生对象分配.<br/>
+ * 状态数不能超过64个
+ *
+ * @param <E> 状态枚举类型
+ */
+final class TransitionTable<E extends Enum<E>> {
+    // 次态 -> 允许的现态掩码, -1表示任意现态(包括null)
+    private final long[] allowedFrom;
+    // 现态 -> 将来可能转化到的状态掩码(传递闭包)
+    private final long[] reachable;
+
+    TransitionTable(Class<E> type, Map<E, E[]> allowedTransfers) {
+        E[] states = type.getEnumConstants();
+        int size = states.length;
+        if (size > Long.SIZE) {
+            throw new IllegalArgumentException(String.format("%s has more than %s states", type.getSimpleName(), Long.SIZE));
+        }
+        this.allowedFrom = new long[size];
+        long[] next = new long[size];
+        for (E state : states) {
+            E[] froms = allowedTransfers.get(state);
+            if (null == froms || froms.length == 0) {
+                allowedFrom[state.ordinal()] = -1L;
+                continue;
+            }
+            for (E from : froms) {
+                allowedFrom[state.ordinal()] |= 1L << from.ordinal();
+                next[from.ordinal()] |= 1L << state.ordinal();
+            }
+        }
+
+        // 只沿显式定义的转化计算可达关系, 与原有的递归判断保持一致
+        this.reachable = next.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < size; i++) {
+                long closure = reachable[i];
+                for (int j = 0; j < size; j++) {
+                    if ((reachable[i] & (1L << j)) != 0) {
+                        closure |= reachable[j];
+                    }
+                }
+                if (closure != reachable[i]) {
+                    reachable[i] = closure;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    boolean transAllow(E oldState, E newState) {
+        long mask = allowedFrom[newState.ordinal()];
+        return mask == -1L || (null != oldState && (mask & (1L << oldState.ordinal())) != 0);
+    }
+
+    boolean maybeTransAllow(E current, E maybeState) {
+        return null != current && (reachable[current.ordinal()] & (1L << maybeState.ordinal())) != 0;
+    }
+
+    boolean isFinalState(E state) {
+        return null == state || reachable[state.ordinal()] == 0;
+    }
+}
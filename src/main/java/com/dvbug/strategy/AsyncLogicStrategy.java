@@ -0,0 +1,64 @@
+package com.dvbug.strategy;
+
+import com.dvbug.dag.AsyncNodeBean;
+import lombok.EqualsAndHashCode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步逻辑策略, 以{@link CompletionStage}返回结果, 等待结果期间不占用工作线程
+ * <p>
+ * 由调度器异步执行, 具体参见{@link AsyncNodeBean}接口介绍.<br/>
+ * 子类实现{@link AsyncLogicStrategy#executeAsync()}, 可以通过{@link StrategyBean#getParams()}读取上游参数.<br/>
+ * 在不支持异步的执行路径(例如远程worker)中同步执行时, 按节点超时阻塞等待{@link AsyncLogicStrategy#executeAsync()}的结果
+ *
+ * @param <R> 策略输出结果类型
+ */
+@EqualsAndHashCode(callSuper = true)
+public abstract class AsyncLogicStrategy<R> extends LogicStrategy<R> implements AsyncNodeBean<R> {
+    // 同步执行时等待结果的毫秒数, 小于0时一直等待
+    @EqualsAndHashCode.Exclude
+    private volatile long timeout = -1;
+
+    public AsyncLogicStrategy(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean doExecute() {
+        CompletionStage<R> stage = executeAsync();
+        if (null == stage) {
+            throw new IllegalStateException(String.format("%s returns no completion stage", getName()));
+        }
+        CompletableFuture<R> future = stage.toCompletableFuture();
+        long wait = timeout;
+        try {
+            setResult(wait < 0 ? future.get() : future.get(wait, TimeUnit.MILLISECONDS));
+            return true;
+        } catch (ExecutionException e) {
+            setThrowable(null == e.getCause() ? e : e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            setThrowable(new IllegalStateException(String.format("%s async result timeout after %sms", getName(), wait), e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            setThrowable(e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean canExecute() {
+        return true;
+    }
+}
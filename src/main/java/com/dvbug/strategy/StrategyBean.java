@@ -10,7 +10,6 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * 策略基础类
@@ -20,6 +19,7 @@ import java.util.stream.Collectors;
 @Slf4j
 @RequiredArgsConstructor
 public abstract class StrategyBean<R> implements NodeBean<R> {
+    private static final Comparator<Object> PARAM_ORDER = Comparator.comparing(Objects::hashCode);
     @Getter
     private final String name;
     @Getter
@@ -37,6 +37,9 @@ public abstract class StrategyBean<R> implements NodeBean<R> {
         this.isSetError.beforeRuntime();
         this.throwable.beforeRuntime();
         this.params.beforeRuntime();
+
+        // 运行时的参数列表为线程独享, 不与其他线程共用同一个列表
+        this.params.set(new ArrayList<>(this.params.get()));
     }
 
     @Override
@@ -62,7 +65,8 @@ public abstract class StrategyBean<R> implements NodeBean<R> {
     }
 
     public final boolean execute() {
-        params.set(params.get().stream().sorted(Comparator.comparing(Objects::hashCode)).collect(Collectors.toList()));
+        // 运行时的参数列表为线程独享, 原地排序
+        params.get().sort(PARAM_ORDER);
 
         log.debug("{} execute: params={}", this, getParams());
         try {
@@ -88,7 +92,9 @@ public abstract class StrategyBean<R> implements NodeBean<R> {
             return false;
         } finally {
             if (null == throwable.get()) {
-                log.debug("{} do {} to: {}", this, getParams(), getResult());
+                if (log.isDebugEnabled()) {
+                    log.debug("{} do {} to: {}", this, getParams(), getResult());
+                }
             } else {
                 log.warn("{} do {} err: {}", this, getParams(), getThrowable());
             }
@@ -0,0 +1,33 @@
+package com.dvbug.strategy;
+
+import lombok.EqualsAndHashCode;
+
+import java.util.Iterator;
+
+/**
+ * 流式数据源策略, 没有流式上游, 由{@link StreamingSourceStrategy#open()}打开数据源逐个产出元素
+ *
+ * @param <T> 输出元素类型
+ */
+@EqualsAndHashCode(callSuper = true)
+public abstract class StreamingSourceStrategy<T> extends StreamingStrategy<T> {
+
+    public StreamingSourceStrategy(String name) {
+        super(name);
+    }
+
+    public StreamingSourceStrategy(String name, int bufferSize) {
+        super(name, bufferSize);
+    }
+
+    @Override
+    public abstract Iterator<T> open();
+
+    /**
+     * 数据源不能订阅流式上游, 参见{@link StreamingTransformStrategy}
+     */
+    @Override
+    public final T transform(Object item) {
+        throw new IllegalStateException(String.format("%s is a streaming source and can not depend on a streaming upstream", this));
+    }
+}
@@ -0,0 +1,42 @@
+package com.dvbug.strategy;
+
+import com.dvbug.dag.StreamingNodeBean;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * 流式策略, 逐个产出元素而不是一次性产出完整结果
+ * <p>
+ * 由调度器以数据流的方式执行, 具体参见{@link StreamingNodeBean}接口介绍.<br/>
+ * 作为数据源时继承{@link StreamingSourceStrategy}, 作为流式上游的下游时继承{@link StreamingTransformStrategy}
+ *
+ * @param <T> 输出元素类型
+ */
+@EqualsAndHashCode(callSuper = true)
+public abstract class StreamingStrategy<T> extends LogicStrategy<T> implements StreamingNodeBean<T> {
+    @Getter
+    private final int bufferSize;
+
+    public StreamingStrategy(String name) {
+        this(name, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingStrategy(String name, int bufferSize) {
+        super(name);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException(String.format("%s buffer size must be positive, but %s", name, bufferSize));
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public boolean doExecute() {
+        setThrowable(new UnsupportedOperationException(String.format("%s must be scheduled by DagScheduler", this)));
+        return false;
+    }
+
+    @Override
+    public boolean canExecute() {
+        return true;
+    }
+}
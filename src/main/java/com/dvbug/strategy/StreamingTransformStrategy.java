@@ -0,0 +1,33 @@
+package com.dvbug.strategy;
+
+import lombok.EqualsAndHashCode;
+
+import java.util.Iterator;
+
+/**
+ * 流式转换策略, 订阅一个流式上游, 由{@link StreamingTransformStrategy#transform(Object)}逐个转换上游元素
+ *
+ * @param <T> 输出元素类型
+ */
+@EqualsAndHashCode(callSuper = true)
+public abstract class StreamingTransformStrategy<T> extends StreamingStrategy<T> {
+
+    public StreamingTransformStrategy(String name) {
+        super(name);
+    }
+
+    public StreamingTransformStrategy(String name, int bufferSize) {
+        super(name, bufferSize);
+    }
+
+    @Override
+    public abstract T transform(Object item);
+
+    /**
+     * 转换策略必须有流式上游, 参见{@link StreamingSourceStrategy}
+     */
+    @Override
+    public final Iterator<T> open() {
+        throw new IllegalStateException(String.format("%s is a streaming transform and needs a streaming upstream", this));
+    }
+}
@@ -0,0 +1,46 @@
+package com.dvbug.strategy;
+
+import com.dvbug.dag.Dag;
+import com.dvbug.dag.SubDagNodeBean;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 子图策略, 将另一个{@link Dag}作为一个节点嵌入到当前图中
+ * <p>
+ * 由调度器展开到外层调度中异步执行, 具体参见{@link SubDagNodeBean}接口介绍.<br/>
+ * 上游只有一个参数时直接作为子图的输入, 多个参数时以列表形式作为子图的输入,
+ * 子类可以重写{@link SubDagStrategy#getSubDagInput()}自定义输入
+ *
+ * @param <R> 子图最终输出参数类型
+ */
+@EqualsAndHashCode(callSuper = true)
+public class SubDagStrategy<R> extends LogicStrategy<R> implements SubDagNodeBean<R> {
+    @Getter
+    private final Dag<R> subDag;
+
+    public SubDagStrategy(String name, Dag<R> subDag) {
+        super(name);
+        this.subDag = subDag;
+    }
+
+    @Override
+    public Object getSubDagInput() {
+        List<Object> params = getParams();
+        return params.size() == 1 ? params.get(0) : new ArrayList<>(params);
+    }
+
+    @Override
+    public boolean doExecute() {
+        setThrowable(new UnsupportedOperationException(String.format("%s must be scheduled by DagScheduler", this)));
+        return false;
+    }
+
+    @Override
+    public boolean canExecute() {
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package com.dvbug.dag;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 每个节点一个虚拟线程的执行器, JDK 21及以上版本的实现(多版本JAR的META-INF/versions/21)
+ */
+public final class DagVirtualThreads {
+
+    private DagVirtualThreads() {
+    }
+
+    /**
+     * @return 当前运行时是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @return 每个任务一个虚拟线程的执行器
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
@@ -0,0 +1,90 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 调度路径的内存分配基准, 分配量明显上升时失败
+ */
+public class AllocationBenchmarkTest {
+    static final int WARMUP_RUNS = 500;
+    static final int MEASURE_RUNS = 2000;
+    // 每次调度的分配上限(字节), 包含返回给调用方的节点轨迹和结果; 6个节点的图实测JDK 8约13.4K, JDK 21约9.6K, 留出约20%余量
+    static final long BYTES_PER_RUN_LIMIT = 16 * 1024;
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new StringStrategy("s1"));
+        graph.addNode(new StringStrategy("s2"));
+        graph.addNode(new StringStrategy("s3"));
+        graph.addNode(new StringStrategy("s4"));
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", "s1");
+        graph.addEdge("s3", "s1");
+        graph.addEdge("s4", "s2");
+        graph.addEdge("s4", "s3");
+        graph.addEdge(FinalStrategy.NAME, "s4");
+        return graph;
+    }
+
+    // 调度线程池的线程和调用线程的累计分配字节数, 不包含JVM的其他线程; 线程池的线程在基准期间保持存活
+    static long allocatedBytes(List<Thread> threads) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (Thread thread : threads) {
+            total += Math.max(0, bean.getThreadAllocatedBytes(thread.getId()));
+        }
+        return total;
+    }
+
+    @Test
+    public void testAllocationPerRun() {
+        Level level = LogManager.getLogger("com.dvbug").getLevel();
+        Configurator.setLevel("com.dvbug", Level.WARN);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        try {
+            DagScheduler dagScheduler = new DagScheduler(pool);
+            Dag<String> graph = buildGraph();
+            int nodes = graph.compile().size();
+            Set<String> traceIds = new HashSet<>();
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                assertNotNull(dagScheduler.schedule(graph, "input").getResult());
+            }
+
+            long before = allocatedBytes(threads);
+            for (int i = 0; i < MEASURE_RUNS; i++) {
+                DagResult<String> result = dagScheduler.schedule(graph, "input");
+                traceIds.add(result.getTraceId());
+            }
+            long perRun = (allocatedBytes(threads) - before) / MEASURE_RUNS;
+
+            assertEquals(MEASURE_RUNS, traceIds.size());
+            assertTrue(perRun < BYTES_PER_RUN_LIMIT,
+                    String.format("%s bytes allocated per run of %s nodes exceeds limit %s", perRun, nodes, BYTES_PER_RUN_LIMIT));
+        } finally {
+            pool.shutdown();
+            Configurator.setLevel("com.dvbug", level);
+        }
+    }
+}
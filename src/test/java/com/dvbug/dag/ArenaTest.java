@@ -0,0 +1,118 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import lombok.EqualsAndHashCode;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArenaTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    @EqualsAndHashCode(callSuper = true)
+    static class ProduceStrategy extends LogicStrategy<DagBuffer> {
+        final int size;
+        volatile DagBuffer produced;
+
+        ProduceStrategy(String name, int size) {
+            super(name);
+            this.size = size;
+        }
+
+        @Override
+        public boolean doExecute() {
+            DagBuffer buffer = DagArena.current().allocate(size);
+            ByteBuffer bytes = buffer.buffer();
+            for (int i = 0; i < size; i++) {
+                bytes.put((byte) i);
+            }
+            produced = buffer;
+            setResult(buffer);
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    @EqualsAndHashCode(callSuper = true)
+    static class ReadStrategy extends LogicStrategy<DagBuffer> {
+        final Map<String, DagBuffer> received;
+
+        ReadStrategy(String name, Map<String, DagBuffer> received) {
+            super(name);
+            this.received = received;
+        }
+
+        @Override
+        public boolean doExecute() {
+            DagBuffer buffer = (DagBuffer) getParams().get(0);
+            received.put(getName(), buffer);
+            assertThrows(java.nio.ReadOnlyBufferException.class, () -> buffer.buffer().put((byte) 1));
+            setResult(buffer);
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testZeroCopyAndBulkFree() {
+        int opened = DagArena.getOpenedCount();
+        long bulkFreed = DagArena.getBulkFreedBytes();
+        Map<String, DagBuffer> received = new ConcurrentHashMap<>();
+        ProduceStrategy producer = new ProduceStrategy("producer", 3 * DagArena.DEFAULT_CHUNK_SIZE);
+        Dag<DagBuffer> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, DagBuffer.class);
+        graph.addNode(producer);
+        graph.addNode(new ReadStrategy("r1", received));
+        graph.addNode(new ReadStrategy("r2", received));
+        graph.addEdge("producer", RootStrategy.NAME);
+        graph.addEdge("r1", "producer");
+        graph.addEdge("r2", "producer");
+        graph.addEdge(FinalStrategy.NAME, "r1");
+
+        DagResult<DagBuffer> result = dagScheduler.schedule(graph, "input");
+        assertEquals(2, received.size());
+        received.values().forEach(b -> {
+            assertTrue(b.isReadOnly());
+            assertTrue(b.isDirect());
+            assertEquals(producer.produced.size(), b.size());
+        });
+
+        // 调度结果在内存区释放后复制到堆上
+        DagBuffer output = result.getResult();
+        assertFalse(output.isDirect());
+        assertEquals((byte) 7, output.buffer().get(7));
+        assertEquals(opened, DagArena.getOpenedCount());
+        assertTrue(DagArena.getBulkFreedBytes() - bulkFreed >= producer.size);
+
+        long stale = DagArena.getStaleAccessCount();
+        assertThrows(IllegalStateException.class, () -> producer.produced.buffer());
+        assertEquals(stale + 1, DagArena.getStaleAccessCount());
+    }
+
+    @Test
+    public void testArenaOutsideRuntime() {
+        assertThrows(IllegalStateException.class, DagArena::current);
+        DagArena arena = new DagArena("test", 64);
+        DagBuffer small = arena.allocate(16);
+        arena.allocate(128);
+        small.release();
+        small.release();
+        assertEquals(128, arena.getLiveBytes());
+        arena.close();
+        assertTrue(arena.isClosed());
+        assertThrows(IllegalStateException.class, () -> arena.allocate(1));
+    }
+}
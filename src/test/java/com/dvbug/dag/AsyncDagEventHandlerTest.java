@@ -0,0 +1,111 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncDagEventHandlerTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static class SlowHandler implements DagEventHandler, DagNodeStateChanged {
+        final AtomicInteger received = new AtomicInteger();
+        final long delay;
+
+        SlowHandler(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void onCreated(Dag<?> graph) {
+        }
+
+        @Override
+        public void onNodeAdded(DagNode<? extends NodeBean<?>> node, Dag<?> graph) {
+        }
+
+        @Override
+        public void onEdgeAdded(DagNode<? extends NodeBean<?>> from, DagNode<? extends NodeBean<?>> to, Dag<?> graph) {
+        }
+
+        @Override
+        public void onPrepared(Dag<?> graph) {
+        }
+
+        @Override
+        public void onScheduling(Dag<?> graph) {
+        }
+
+        @Override
+        public void onCompleted(Dag<?> graph) {
+        }
+
+        @Override
+        public void onNodeStateChanged(DagNodeState oldState, DagNodeState newState, DagNodeInfo node) {
+            received.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static Dag<String> buildGraph(DagEventHandler handler) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class, handler);
+        graph.addNode(new StringStrategy("s1"));
+        graph.addNode(new StringStrategy("s2"));
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", "s1");
+        graph.addEdge(FinalStrategy.NAME, "s2");
+        return graph;
+    }
+
+    @Test
+    public void testSlowListenerOffCriticalPath() {
+        SlowHandler listener = new SlowHandler(50);
+        try (AsyncDagEventHandler handler = new AsyncDagEventHandler(listener, 4, AsyncDagEventHandler.OverflowPolicy.DROP)) {
+            Dag<String> graph = buildGraph(handler);
+            long start = System.currentTimeMillis();
+            assertEquals("input+s1+s2", dagScheduler.schedule(graph, "input").getResult());
+            assertTrue(System.currentTimeMillis() - start < 500);
+            assertTrue(handler.getDroppedCount() > 0);
+        }
+    }
+
+    @Test
+    public void testBlockDeliversAllEvents() {
+        SlowHandler listener = new SlowHandler(0);
+        AsyncDagEventHandler handler = new AsyncDagEventHandler(listener, 2, AsyncDagEventHandler.OverflowPolicy.BLOCK);
+        Dag<String> graph = buildGraph(handler);
+        assertEquals("input+s1+s2", dagScheduler.schedule(graph, "input").getResult());
+        handler.close();
+        assertEquals(0, handler.getDroppedCount());
+        assertEquals(0, handler.getPendingCount());
+        // 4个节点, 每个节点至少经历PREPARED、START、RUNNING、SUCCESS
+        assertTrue(listener.received.get() >= 16, "received " + listener.received.get());
+    }
+
+    @Test
+    public void testIdleDispatcherWakesOnPublish() throws InterruptedException {
+        SlowHandler listener = new SlowHandler(0);
+        try (AsyncDagEventHandler handler = new AsyncDagEventHandler(listener, 4, AsyncDagEventHandler.OverflowPolicy.DROP)) {
+            for (int i = 1; i <= 200; i++) {
+                // 每个事件都在分发线程空闲挂起后发布, 不能丢失唤醒
+                handler.onNodeStateChanged(DagNodeState.RUNNING, DagNodeState.SUCCESS, null);
+                long deadline = System.currentTimeMillis() + 1000;
+                while (listener.received.get() < i && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                assertEquals(i, listener.received.get());
+                if (i % 20 == 0) {
+                    Thread.sleep(5);
+                }
+            }
+        }
+    }
+}
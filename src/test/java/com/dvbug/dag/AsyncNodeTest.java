@@ -0,0 +1,157 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.AsyncLogicStrategy;
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncNodeTest {
+    // 模拟IO回调线程
+    static final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+
+    static class IoStrategy extends AsyncLogicStrategy<String> {
+        final Function<Object, CompletionStage<String>> call;
+
+        IoStrategy(String name, Function<Object, CompletionStage<String>> call) {
+            super(name);
+            this.call = call;
+        }
+
+        @Override
+        public CompletionStage<String> executeAsync() {
+            return call.apply(getParams().get(0));
+        }
+    }
+
+    static CompletionStage<String> delayed(String value, long millis) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        io.schedule(() -> future.complete(value), millis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    @AfterAll
+    static void shutdown() {
+        io.shutdownNow();
+    }
+
+    @Test
+    public void testThousandsInFlight() {
+        int width = 1000;
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        for (int i = 0; i < width; i++) {
+            graph.addNode(new IoStrategy("io" + i, p -> delayed(p + "+io", 100)));
+            graph.addEdge("io" + i, RootStrategy.NAME);
+            graph.addEdge(FinalStrategy.NAME, "io" + i);
+        }
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+        // 同步等待时24个线程至少需要 1000 * 100 / 24 毫秒
+        assertEquals("input+io", result.getResult());
+        assertEquals(width + 2, result.getHistory().size());
+        assertTrue(elapsed < 1500, String.format("elapsed %sms", elapsed));
+    }
+
+    @Test
+    public void testSynchronousFallback() {
+        IoStrategy io = new IoStrategy("sync", p -> delayed(p + "+io", 20));
+        io.beforeRuntime();
+        io.setParam("input");
+        assertTrue(io.execute());
+        assertEquals("input+io", io.getResult());
+        io.afterRuntime();
+
+        CompletableFuture<String> never = new CompletableFuture<>();
+        IoStrategy slow = new IoStrategy("slow", p -> never);
+        // 加入图时同步等待的超时设置为节点超时
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new DagNode<>(slow, 50));
+        slow.beforeRuntime();
+        slow.setParam("input");
+        assertFalse(slow.execute());
+        assertTrue(slow.getThrowable().getMessage().contains("timeout"), String.valueOf(slow.getThrowable()));
+        assertTrue(never.isCancelled());
+        slow.afterRuntime();
+
+        IoStrategy broken = new IoStrategy("broken", p -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("rpc failed"));
+            return future;
+        });
+        broken.beforeRuntime();
+        broken.setParam("input");
+        assertFalse(broken.execute());
+        assertEquals("rpc failed", broken.getThrowable().getMessage());
+        broken.afterRuntime();
+    }
+
+    static Dag<String> buildChain(long millis) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        String parent = RootStrategy.NAME;
+        for (String name : new String[]{"c1", "c2", "c3"}) {
+            graph.addNode(new IoStrategy(name, p -> delayed(p + "+" + name, millis)));
+            graph.addEdge(name, parent);
+            parent = name;
+        }
+        graph.addEdge(FinalStrategy.NAME, parent);
+        return graph;
+    }
+
+    @Test
+    public void testNoRunTimeoutByDefault() {
+        // 节点没有超时时整体也不限时, 累计超过2秒的链仍然完整执行
+        DagResult<String> result = new DagScheduler().schedule(buildChain(800), "input");
+        assertEquals("input+c1+c2+c3", result.getResult());
+    }
+
+    @Test
+    public void testRunTimeoutOptIn() {
+        Dag<String> graph = buildChain(200);
+        graph.setRunTimeout(300);
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+        // 调度在整体超时时返回部分结果, 只有第一个节点执行完成
+        assertNull(result.getResult());
+        assertTrue(elapsed < 550, String.format("elapsed %sms", elapsed));
+        TraceInfo c1 = result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-c1")).findFirst().get();
+        assertEquals(DagNodeState.SUCCESS, c1.getFinalState());
+        assertTrue(result.getHistory().stream().noneMatch(t -> t.getNodeInfo().getName().equals("node-c3") && t.getFinalState() == DagNodeState.SUCCESS));
+    }
+
+    @Test
+    public void testTimeoutAndFailure() {
+        CompletableFuture<String> never = new CompletableFuture<>();
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new DagNode<>(new IoStrategy("slow", p -> never), 50));
+        graph.addNode(new IoStrategy("broken", p -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            io.execute(() -> future.completeExceptionally(new IllegalStateException("rpc failed")));
+            return future;
+        }));
+        graph.addEdge("slow", RootStrategy.NAME);
+        graph.addEdge("broken", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "slow");
+        graph.addEdge(FinalStrategy.NAME, "broken");
+
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        assertNull(result.getResult());
+        TraceInfo slow = result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-slow")).findFirst().get();
+        TraceInfo broken = result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-broken")).findFirst().get();
+        assertEquals(DagNodeState.TIMEOUT, slow.getFinalState());
+        assertEquals(DagNodeState.FAILED, broken.getFinalState());
+        assertTrue(((Throwable) broken.getFinalResult()).getMessage().contains("rpc failed"));
+        assertTrue(never.isCancelled());
+    }
+}
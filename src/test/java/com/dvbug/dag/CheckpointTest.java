@@ -0,0 +1,90 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import lombok.EqualsAndHashCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointTest {
+    @EqualsAndHashCode(callSuper = true)
+    static class CountingStrategy extends LogicStrategy<String> {
+        final AtomicInteger executions = new AtomicInteger();
+        volatile boolean failing;
+
+        CountingStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean doExecute() {
+            executions.incrementAndGet();
+            if (failing) {
+                setThrowable(new IllegalStateException(getName() + " failed"));
+                return false;
+            }
+            setResult(getParams().get(0) + "+" + getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testResumeFromCheckpoint(@TempDir Path dir) throws Exception {
+        CountingStrategy s1 = new CountingStrategy("s1");
+        CountingStrategy s2 = new CountingStrategy("s2");
+        CountingStrategy late = new CountingStrategy("late");
+        late.failing = true;
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(s1);
+        graph.addNode(s2);
+        graph.addNode(late);
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", "s1");
+        graph.addEdge("late", "s2");
+        graph.addEdge(FinalStrategy.NAME, "late");
+
+        Path file = dir.resolve("checkpoint.journal");
+        String traceId;
+        try (DagCheckpointStore store = new DagCheckpointStore(file, DagCodec.JAVA, 1024)) {
+            DagScheduler scheduler = new DagScheduler(store);
+            scheduler.publish("checkpoint", graph);
+            DagResult<String> failed = scheduler.schedule("checkpoint", "input");
+            assertNull(failed.getResult());
+            traceId = failed.getTraceId();
+            assertEquals(1, store.getUnfinishedRuns().size());
+        }
+
+        // 重新打开日志, 从文件恢复索引后继续调度
+        late.failing = false;
+        try (DagCheckpointStore store = new DagCheckpointStore(file, DagCodec.JAVA, 1024)) {
+            assertEquals("input+s1+s2", store.loadResults(traceId).get("s2"));
+            DagScheduler scheduler = new DagScheduler(store);
+            scheduler.publish("checkpoint", graph);
+            DagResult<String> resumed = scheduler.resume(traceId);
+            assertEquals("input+s1+s2+late", resumed.getResult());
+            assertEquals(traceId, resumed.getTraceId());
+            assertEquals(1, s1.executions.get());
+            assertEquals(1, s2.executions.get());
+            assertEquals(2, late.executions.get());
+            assertTrue(store.get(traceId).isCompleted());
+            assertThrows(IllegalStateException.class, () -> scheduler.resume(traceId));
+
+            DagResult<String> other = scheduler.schedule("checkpoint", "other");
+            assertEquals("other+s1+s2+late", other.getResult());
+            assertEquals(2, store.compact());
+            assertNull(store.get(traceId));
+            assertTrue(store.getUnfinishedRuns().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactGraphTest {
+    static final NodeBeanFactory FACTORY = (strategyId, name) -> new StringStrategy(name);
+    static final String STRATEGY_ID = StringStrategy.class.getName();
+
+    @Test
+    public void testLargeGraph() {
+        int size = 100_000;
+        DagCompactGraph.Builder builder = DagCompactGraph.builder(DagMode.PARALLEL, -1).input(String.class).result(String.class);
+        // 倒序添加, 构建时按拓扑序重排
+        for (int i = size - 1; i >= 0; i--) {
+            builder.addNode("s" + i, STRATEGY_ID);
+        }
+        for (int i = 1; i < size; i++) {
+            builder.addEdge("s" + i, "s" + ((i - 1) / 2));
+        }
+        builder.addEdge("s0", RootStrategy.NAME);
+        for (int i = size / 2; i < size; i++) {
+            builder.addEdge(FinalStrategy.NAME, "s" + i);
+        }
+        DagCompactGraph compact = builder.build();
+
+        assertEquals(size + 2, compact.size());
+        assertTrue(compact.isRoot(0));
+        assertTrue(compact.isFinal(compact.size() - 1));
+        int s1 = compact.indexOf("s1");
+        assertEquals(1, compact.parentCount(s1));
+        assertEquals("s0", compact.getName(compact.parentAt(s1, 0)));
+        assertEquals(2, compact.childCount(s1));
+        assertEquals(2, compact.getLevel(s1));
+        assertEquals(-1, compact.indexOf("missing"));
+        for (int i = 0; i < compact.size(); i++) {
+            for (int k = 0; k < compact.childCount(i); k++) {
+                assertTrue(compact.childAt(i, k) > i);
+            }
+        }
+        assertEquals("s99999", compact.node(compact.indexOf("s99999"), FACTORY).getBean().getName());
+
+        // 结构约50字节, 名称字符串约50字节
+        long perNode = compact.estimateBytes() / compact.size();
+        assertTrue(perNode > 64 && perNode < 128, String.format("%s bytes per node", perNode));
+    }
+
+    @Test
+    public void testCycle() {
+        DagCompactGraph.Builder builder = DagCompactGraph.builder(DagMode.PARALLEL, -1)
+                .addNode("a", STRATEGY_ID)
+                .addNode("b", STRATEGY_ID)
+                .addEdge("a", "b")
+                .addEdge("b", "a");
+        assertThrows(IllegalStateException.class, builder::build);
+        assertThrows(IllegalArgumentException.class, () -> builder.addNode("a", STRATEGY_ID));
+        assertThrows(IllegalArgumentException.class, () -> builder.addEdge("a", "missing"));
+    }
+
+    @Test
+    public void testScheduleMaterialized() {
+        Dag<String> origin = DagSnapshotTest.buildGraph();
+        DagCompactGraph compact = DagCompactGraph.of(origin);
+        assertEquals(origin.getDagNodes().size(), compact.size());
+        assertEquals(origin.getEdgeCount(), compact.getEdgeCount());
+        assertEquals(STRATEGY_ID, compact.getStrategyId(compact.indexOf("s3")));
+
+        Dag<String> loaded = compact.toDag(FACTORY);
+        assertEquals(origin.getGraphId(), loaded.getGraphId());
+        assertEquals(2, loaded.getDepends().get(loaded.getDagNode("s3")).size());
+
+        DagScheduler scheduler = new DagScheduler();
+        assertEquals(scheduler.schedule(origin, "input").getResult(), scheduler.schedule(loaded, "input").getResult());
+    }
+
+    @Test
+    public void testNodeJoinMode() {
+        Dag<String> origin = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        origin.addNode(new StringStrategy("a"));
+        origin.addNode(new StringStrategy("b"));
+        origin.addNode(new StringStrategy("c"));
+        origin.addNode(new DagNode<>(new StringStrategy("first"), DagMode.RACE));
+        origin.addNode(DagNode.quorum(new StringStrategy("vote"), 2));
+        for (String name : new String[]{"a", "b", "c"}) {
+            origin.addEdge(name, RootStrategy.NAME);
+            origin.addEdge("first", name);
+            origin.addEdge("vote", name);
+        }
+        origin.addEdge(FinalStrategy.NAME, "first");
+        origin.addEdge(FinalStrategy.NAME, "vote");
+
+        DagCompactGraph compact = DagCompactGraph.of(origin);
+        assertEquals(DagMode.RACE, compact.getJoin(compact.indexOf("first")));
+        assertEquals(DagMode.QUORUM, compact.getJoin(compact.indexOf("vote")));
+        assertEquals(2, compact.getQuorum(compact.indexOf("vote")));
+        assertNull(compact.getJoin(compact.indexOf("a")));
+
+        Dag<String> loaded = compact.toDag(FACTORY);
+        assertEquals(DagMode.RACE, loaded.getDagNode("first").getInfo().getMode());
+        assertEquals(DagMode.QUORUM, loaded.getDagNode("vote").getInfo().getMode());
+        assertEquals(2, loaded.getDagNode("vote").getInfo().getQuorum());
+
+        // 法定数超过上游数
+        DagCompactGraph.Builder builder = DagCompactGraph.builder(DagMode.PARALLEL, -1)
+                .addNode("a", STRATEGY_ID)
+                .addNode("vote", STRATEGY_ID, -1, DagMode.QUORUM, 2)
+                .addEdge("vote", "a");
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+}
@@ -0,0 +1,89 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DagAnalyzerTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static class SleepStrategy extends StringStrategy {
+        final long millis;
+
+        SleepStrategy(String name, long millis) {
+            super(name);
+            this.millis = millis;
+        }
+
+        @Override
+        public boolean doExecute() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.doExecute();
+        }
+    }
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.SWITCH, -1, String.class, String.class);
+        graph.addNode(new SleepStrategy("slow", 40));
+        graph.addNode(new SleepStrategy("fast", 5));
+        graph.addNode(new SleepStrategy("tail", 10));
+        graph.addEdge("slow", RootStrategy.NAME);
+        graph.addEdge("fast", RootStrategy.NAME);
+        graph.addEdge("tail", "slow");
+        graph.addEdge(FinalStrategy.NAME, "tail");
+        graph.addEdge(FinalStrategy.NAME, "fast");
+        return graph;
+    }
+
+    @Test
+    public void testCriticalPath() {
+        Dag<String> graph = buildGraph();
+        List<DagResult<?>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(dagScheduler.schedule(graph, "input"));
+        }
+        // SWITCH模式下终节点在fast完成后即可执行, 关键路径按实际依赖耗时计算
+        DagAnalysis analysis = DagAnalyzer.analyze(results.get(0));
+        assertTrue(analysis.getCriticalPath().contains("node-slow"), analysis.toText());
+        assertTrue(analysis.getCriticalPath().contains("node-tail"), analysis.toText());
+        DagAnalysis.NodeStats fast = analysis.getNodes().stream().filter(n -> n.getName().equals("node-fast")).findFirst().get();
+        assertTrue(fast.getSlack() > 30_000, analysis.toText());
+        assertTrue(analysis.getPeakParallelism() >= 2);
+        assertFalse(analysis.getParallelismTimeline().isEmpty());
+
+        DagAnalysis aggregated = DagAnalyzer.analyze(results, DagScheduler.DEFAULT_POOL_SIZE);
+        assertEquals(3, aggregated.getRunCount());
+        assertEquals(analysis.getCriticalPath(), aggregated.getCriticalPath());
+        JsonObject json = new JsonParser().parse(aggregated.toJson()).getAsJsonObject();
+        assertEquals(3, json.get("runCount").getAsInt());
+        assertTrue(json.has("threadUtilization"));
+    }
+
+    @Test
+    public void testSubDagNodesKeptApart() {
+        DagResult<String> result = dagScheduler.schedule(SubDagTest.buildGraph(), "input");
+        DagAnalysis analysis = DagAnalyzer.analyze(result);
+        // 子图的根节点和终节点不与外层图的同名节点合并
+        assertEquals(result.getHistory().size(), analysis.getNodes().size(), analysis.toText());
+        assertEquals(2, analysis.getNodes().stream().filter(n -> n.getName().endsWith("node-root")).count());
+
+        // 没有轨迹的调度不计入平均
+        DagResult<String> empty = new DagResult<>(result.getGraphId(), "empty", DagMode.PARALLEL, new ArrayList<>(), null, null, null);
+        DagAnalysis aggregated = DagAnalyzer.analyze(Arrays.asList(result, empty), DagScheduler.DEFAULT_POOL_SIZE);
+        assertEquals(1, aggregated.getRunCount());
+        assertEquals(analysis.getMakespan(), aggregated.getMakespan());
+    }
+}
@@ -0,0 +1,411 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import lombok.Builder;
+import lombok.Getter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测和浸泡测试工具, 不属于单元测试, 由{@link LoadGeneratorTest}驱动
+ * <p>
+ * 按目标形状随机生成分层的图: 节点数、层数、相邻层之间的边密度, 节点耗时服从指数分布并按失败率随机失败.<br/>
+ * 多个客户端线程以开环方式调度: 每个请求按预定的到达时刻发出, 延迟从预定时刻算起,
+ * 调度变慢时不会减少发出的请求(避免协同遗漏), 因此可以找到配置的饱和点.<br/>
+ * 报告按采样间隔输出吞吐、p50/p99/p999延迟、失败和超时次数、堆内存和GC,
+ * 最后一行为汇总, 各列固定便于在不同提交之间比较
+ */
+public final class DagLoadGenerator {
+
+    /**
+     * 随机图的形状
+     */
+    @Getter
+    @Builder
+    public static final class Shape {
+        @Builder.Default
+        private final int nodes = 50;
+        @Builder.Default
+        private final int layers = 5;
+        // 相邻层任意两个节点之间存在边的概率, 每个节点至少有一个上游
+        @Builder.Default
+        private final double edgeDensity = 0.2;
+        // 节点平均耗时(微秒), 服从指数分布
+        @Builder.Default
+        private final long meanCostMicros = 200;
+        @Builder.Default
+        private final double failureRate = 0;
+        @Builder.Default
+        private final long timeout = 1000;
+        @Builder.Default
+        private final long seed = 42;
+    }
+
+    /**
+     * 开环负载
+     */
+    @Getter
+    @Builder
+    public static final class Load {
+        // 每秒发出的调度数, 平均分配给各客户端线程
+        @Builder.Default
+        private final int rate = 200;
+        @Builder.Default
+        private final int clients = 4;
+        @Builder.Default
+        private final long durationMillis = 3000;
+        @Builder.Default
+        private final long sampleMillis = 1000;
+    }
+
+    static final class LoadStrategy extends LogicStrategy<Integer> {
+        private final long meanCostNanos;
+        private final double failureRate;
+
+        LoadStrategy(String name, long meanCostMicros, double failureRate) {
+            super(name);
+            this.meanCostNanos = TimeUnit.MICROSECONDS.toNanos(meanCostMicros);
+            this.failureRate = failureRate;
+        }
+
+        @Override
+        public boolean doExecute() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (failureRate > 0 && random.nextDouble() < failureRate) {
+                throw new IllegalStateException(String.format("%s injected failure", getName()));
+            }
+            // 忙等模拟计算耗时, 睡眠的精度不足以模拟微秒级节点
+            long cost = (long) (-Math.log(1 - random.nextDouble()) * meanCostNanos);
+            long deadline = System.nanoTime() + cost;
+            int sum = 0;
+            while (System.nanoTime() < deadline) {
+                sum++;
+            }
+            setResult(sum + getParams().size());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    /**
+     * 按形状生成随机图, 相同的种子生成相同的结构
+     */
+    public static Dag<Integer> randomDag(Shape shape) {
+        if (shape.nodes < shape.layers || shape.layers < 1) {
+            throw new IllegalArgumentException(String.format("invalid shape, nodes=%s, layers=%s", shape.nodes, shape.layers));
+        }
+        Random random = new Random(shape.seed);
+        Dag<Integer> graph = new Dag<>(DagMode.PARALLEL, shape.timeout, String.class, Integer.class);
+        List<List<String>> layers = new ArrayList<>();
+        for (int i = 0; i < shape.nodes; i++) {
+            int layer = i < shape.layers ? i : random.nextInt(shape.layers);
+            while (layers.size() <= layer) {
+                layers.add(new ArrayList<>());
+            }
+            String name = "n" + i;
+            graph.addNode(new LoadStrategy(name, shape.meanCostMicros, shape.failureRate));
+            layers.get(layer).add(name);
+        }
+        List<String> previous = new ArrayList<>();
+        previous.add(RootStrategy.NAME);
+        for (List<String> layer : layers) {
+            for (String name : layer) {
+                boolean linked = false;
+                for (String parent : previous) {
+                    if (random.nextDouble() < shape.edgeDensity) {
+                        graph.addEdge(name, parent);
+                        linked = true;
+                    }
+                }
+                if (!linked) {
+                    graph.addEdge(name, previous.get(random.nextInt(previous.size())));
+                }
+            }
+            previous = layer;
+        }
+        for (String name : previous) {
+            graph.addEdge(FinalStrategy.NAME, name);
+        }
+        return graph;
+    }
+
+    /**
+     * 以开环负载驱动调度器, 运行期间按采样间隔打印报告
+     *
+     * @return 汇总报告
+     */
+    public static Report run(DagScheduler scheduler, Dag<Integer> graph, Load load) throws InterruptedException {
+        Level level = LogManager.getLogger("com.dvbug").getLevel();
+        Configurator.setLevel("com.dvbug", Level.OFF);
+        try {
+            return drive(scheduler, graph, load);
+        } finally {
+            Configurator.setLevel("com.dvbug", level);
+        }
+    }
+
+    /**
+     * 逐步提高到达率直到饱和: 完成的吞吐低于到达率的90%, 或p99超过图的超时时间
+     *
+     * @return 未饱和的最后一次报告, 第一档就饱和时为第一档报告
+     */
+    public static Report findSaturation(DagScheduler scheduler, Dag<Integer> graph, Load load, int maxRate) throws InterruptedException {
+        Report last = null;
+        for (int rate = load.rate; rate <= maxRate; rate *= 2) {
+            Load step = Load.builder().rate(rate).clients(load.clients).durationMillis(load.durationMillis).sampleMillis(load.sampleMillis).build();
+            Report report = run(scheduler, graph, step);
+            if (report.getThroughput() < rate * 0.9 || report.percentile(0.99) > TimeUnit.MILLISECONDS.toMicros(graph.getTimeout())) {
+                System.out.printf("saturated at rate=%s%n", rate);
+                return null == last ? report : last;
+            }
+            last = report;
+        }
+        return last;
+    }
+
+    private static Report drive(DagScheduler scheduler, Dag<Integer> graph, Load load) throws InterruptedException {
+        Histogram total = new Histogram();
+        Histogram[] histograms = new Histogram[load.clients];
+        Thread[] clients = new Thread[load.clients];
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * load.clients / load.rate;
+        long timeoutMicros = TimeUnit.MILLISECONDS.toMicros(graph.getTimeout());
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(load.durationMillis);
+        for (int c = 0; c < load.clients; c++) {
+            Histogram histogram = histograms[c] = new Histogram();
+            // 各客户端错开发出, 合起来为均匀到达
+            long offset = intervalNanos * c / load.clients;
+            clients[c] = new Thread(() -> {
+                for (long intended = start + offset; intended < end; intended += intervalNanos) {
+                    long wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    DagResult<Integer> result = scheduler.schedule(graph, "load");
+                    long latency = (System.nanoTime() - intended) / 1000;
+                    histogram.record(latency, outcome(result, latency, timeoutMicros));
+                }
+            }, "dag-load-client-" + c);
+            clients[c].start();
+        }
+
+        Report.printHeader();
+        Sampler sampler = new Sampler();
+        long next = start;
+        while (System.nanoTime() < end) {
+            next += TimeUnit.MILLISECONDS.toNanos(load.sampleMillis);
+            LockSupport.parkNanos(Math.max(0, Math.min(next, end) - System.nanoTime()));
+            Histogram window = new Histogram();
+            for (Histogram histogram : histograms) {
+                histogram.drainTo(window);
+            }
+            total.add(window);
+            sampler.sample(window).print((System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        Histogram tail = new Histogram();
+        for (Histogram histogram : histograms) {
+            histogram.drainTo(tail);
+        }
+        total.add(tail);
+        Report report = new Report(load.rate, (System.nanoTime() - start) / 1_000_000, total, sampler.heapUsed(), sampler.gcCount, sampler.gcMillis);
+        report.print("total");
+        return report;
+    }
+
+    private static int outcome(DagResult<Integer> result, long latencyMicros, long timeoutMicros) {
+        if (null != result.getResult()) {
+            return Histogram.SUCCEEDED;
+        }
+        boolean timeout = latencyMicros >= timeoutMicros && timeoutMicros > 0;
+        for (TraceInfo trace : result.getHistory()) {
+            timeout |= trace.getFinalState() == DagNodeState.TIMEOUT;
+        }
+        return timeout ? Histogram.TIMEOUT : Histogram.FAILED;
+    }
+
+    /**
+     * 对数分桶的延迟直方图(微秒), 相对误差不超过1/16
+     */
+    static final class Histogram {
+        static final int SUCCEEDED = 0;
+        static final int FAILED = 1;
+        static final int TIMEOUT = 2;
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private final long[] outcomes = new long[3];
+        private long count;
+        private long max;
+
+        synchronized void record(long micros, int outcome) {
+            counts[bucket(Math.max(0, micros))]++;
+            outcomes[outcome]++;
+            count++;
+            max = Math.max(max, micros);
+        }
+
+        synchronized void drainTo(Histogram target) {
+            target.add(this);
+            Arrays.fill(counts, 0);
+            Arrays.fill(outcomes, 0);
+            count = 0;
+            max = 0;
+        }
+
+        synchronized void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] += other.outcomes[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        synchronized long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, upperBound(i));
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - 4;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+        }
+    }
+
+    // 采样堆内存和GC
+    private static final class Sampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final long gcCountStart = gcCount();
+        private final long gcMillisStart = gcMillis();
+        private long last = System.nanoTime();
+        private long gcCount;
+        private long gcMillis;
+
+        Report sample(Histogram window) {
+            long now = System.nanoTime();
+            long elapsed = (now - last) / 1_000_000;
+            last = now;
+            gcCount = gcCount() - gcCountStart;
+            gcMillis = gcMillis() - gcMillisStart;
+            return new Report(0, elapsed, window, heapUsed(), gcCount, gcMillis);
+        }
+
+        long heapUsed() {
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+
+        private static long gcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long gcMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return millis;
+        }
+    }
+
+    /**
+     * 一个采样间隔或整次压测的报告
+     */
+    @Getter
+    public static final class Report {
+        private final int rate;
+        private final long elapsedMillis;
+        private final long completed;
+        private final long failed;
+        private final long timeouts;
+        private final long heapUsed;
+        private final long gcCount;
+        private final long gcMillis;
+        private final Histogram histogram;
+
+        Report(int rate, long elapsedMillis, Histogram histogram, long heapUsed, long gcCount, long gcMillis) {
+            this.rate = rate;
+            this.elapsedMillis = elapsedMillis;
+            this.histogram = histogram;
+            this.completed = histogram.count;
+            this.failed = histogram.outcomes[Histogram.FAILED];
+            this.timeouts = histogram.outcomes[Histogram.TIMEOUT];
+            this.heapUsed = heapUsed;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * @return 每秒完成的调度数
+         */
+        public double getThroughput() {
+            return elapsedMillis == 0 ? 0 : completed * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * @param p 分位, 如0.99
+         * @return 延迟(微秒)
+         */
+        public long percentile(double p) {
+            return histogram.percentile(p);
+        }
+
+        static void printHeader() {
+            System.out.printf("%-8s %10s %10s %10s %10s %8s %8s %10s %6s %8s%n",
+                    "time", "ops/s", "p50(us)", "p99(us)", "p999(us)", "failed", "timeout", "heap(MB)", "gc", "gc(ms)");
+        }
+
+        void print(String label) {
+            System.out.printf("%-8s %10.1f %10d %10d %10d %8d %8d %10d %6d %8d%n",
+                    label, getThroughput(), percentile(0.5), percentile(0.99), percentile(0.999),
+                    failed, timeouts, heapUsed >> 20, gcCount, gcMillis);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.dvbug.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static com.dvbug.dag.DagNodeState.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DagNodeStateTransitionTest {
+
+    @Test
+    public void testTransitionTable() {
+        assertTrue(DagNodeStateTransition.transAllow(null, CREATED));
+        assertTrue(DagNodeStateTransition.transAllow(SUCCESS, CREATED));
+        assertTrue(DagNodeStateTransition.transAllow(WAITING, RUNNING));
+        assertFalse(DagNodeStateTransition.transAllow(null, PREPARED));
+        assertFalse(DagNodeStateTransition.transAllow(SUCCESS, FAILED));
+
+        assertTrue(DagNodeStateTransition.maybeTransAllow(PREPARED, SUCCESS));
+        assertFalse(DagNodeStateTransition.maybeTransAllow(RUNNING, WAITING));
+        assertFalse(DagNodeStateTransition.maybeTransAllow(null, RUNNING));
+
+        EnumSet<DagNodeState> finals = EnumSet.noneOf(DagNodeState.class);
+        for (DagNodeState state : DagNodeState.values()) {
+            if (DagNodeStateTransition.isFinalState(state)) finals.add(state);
+        }
+        assertEquals(EnumSet.of(SUCCESS, FAILED, INEFFECTIVE, TIMEOUT), finals);
+        assertTrue(DagStateTransition.isFinalState(DagState.COMPLETED));
+        assertFalse(DagStateTransition.isFinalState(DagState.PREPARED));
+    }
+
+    @Test
+    public void testConcurrentStateChange() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            TraceInfo trace = new TraceInfo(new DagNodeInfo("node", -1, false, false));
+            trace.setFinalState(RUNNING);
+            boolean[] won = new boolean[2];
+            Thread success = new Thread(() -> won[0] = trace.compareAndSetFinalState(RUNNING, SUCCESS));
+            Thread timeout = new Thread(() -> won[1] = trace.compareAndSetFinalState(RUNNING, TIMEOUT));
+            success.start();
+            timeout.start();
+            success.join();
+            timeout.join();
+            assertTrue(won[0] ^ won[1]);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DagSnapshotTest {
+    static final NodeBeanFactory FACTORY = (strategyId, name) -> new StringStrategy(name);
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new StringStrategy("s1"));
+        graph.addNode(new StringStrategy("s2"));
+        graph.addNode(new StringStrategy("s3"));
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", RootStrategy.NAME);
+        graph.addEdge("s3", "s1");
+        graph.addEdge("s3", "s2");
+        graph.addEdge(FinalStrategy.NAME, "s3");
+        return graph;
+    }
+
+    @Test
+    public void testWriteAndRead(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("graph.dag");
+        Dag<String> origin = buildGraph();
+        origin.setMaxParallelism(2);
+        origin.setRunTimeout(5000);
+        DagSnapshot.write(origin, file);
+
+        Dag<String> loaded = DagSnapshot.read(file, FACTORY);
+        assertEquals(origin.getGraphId(), loaded.getGraphId());
+        assertEquals(origin.getDagNodes().size(), loaded.getDagNodes().size());
+        assertEquals(origin.getEdgeCount(), loaded.getEdgeCount());
+        assertEquals(2, loaded.getDepends().get(loaded.getDagNode("s3")).size());
+        assertEquals(loaded.getRootDagNode(), loaded.compile().node(loaded.compile().getRootIndex()));
+        assertEquals(2, loaded.getMaxParallelism());
+        assertEquals(2, loaded.compile().getMaxParallelism());
+        assertEquals(5000, loaded.getRunTimeout());
+
+        DagScheduler scheduler = new DagScheduler();
+        assertEquals(scheduler.schedule(origin, "input").getResult(), scheduler.schedule(loaded, "input").getResult());
+    }
+
+    @Test
+    public void testNodeJoinMode(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("race.dag");
+        Dag<String> origin = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        origin.addNode(new StringStrategy("s1"));
+        origin.addNode(new DagNode<>(new StringStrategy("s2"), DagMode.RACE));
+        origin.addNode(DagNode.quorum(new StringStrategy("s3"), 2));
+        origin.addEdge("s1", RootStrategy.NAME);
+        origin.addEdge("s2", "s1");
+        origin.addEdge("s3", "s1");
+        origin.addEdge("s3", "s2");
+        origin.addEdge(FinalStrategy.NAME, "s3");
+        DagSnapshot.write(origin, file);
+
+        Dag<String> loaded = DagSnapshot.read(file, FACTORY);
+        assertEquals(DagMode.RACE, loaded.getDagNode("s2").getInfo().getMode());
+        assertNull(loaded.getDagNode("s1").getJoin());
+        assertEquals(DagMode.PARALLEL, loaded.getDagNode("s1").getInfo().getMode());
+        assertEquals(DagMode.QUORUM, loaded.getDagNode("s3").getInfo().getMode());
+        assertEquals(2, loaded.getDagNode("s3").getInfo().getQuorum());
+    }
+
+    @Test
+    public void testFallbackOnChecksumMismatch(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("graph.dag");
+        DagSnapshot.write(buildGraph(), file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x5A;
+        Files.write(file, bytes);
+
+        AtomicInteger rebuilt = new AtomicInteger();
+        Dag<String> graph = DagSnapshot.load(file, FACTORY, () -> {
+            rebuilt.incrementAndGet();
+            return buildGraph();
+        });
+        assertEquals(1, rebuilt.get());
+        assertNotNull(graph.getDagNode("s3"));
+
+        // 损坏的快照已被重新写入
+        DagSnapshot.load(file, FACTORY, () -> {
+            rebuilt.incrementAndGet();
+            return buildGraph();
+        });
+        assertEquals(1, rebuilt.get());
+    }
+}
@@ -0,0 +1,127 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DagTraceExporterTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new StringStrategy("s1"));
+        graph.addNode(new StringStrategy("s2"));
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "s1");
+        graph.addEdge(FinalStrategy.NAME, "s2");
+        return graph;
+    }
+
+    @Test
+    public void testChromeTrace() {
+        DagResult<String> result = dagScheduler.schedule(buildGraph(), "input");
+        JsonArray events = DagTraceExporter.toChromeTrace(result);
+        long running = 0, flows = 0;
+        for (int i = 0; i < events.size(); i++) {
+            JsonObject event = events.get(i).getAsJsonObject();
+            if ("running".equals(event.has("cat") ? event.get("cat").getAsString() : null)) running++;
+            if ("s".equals(event.get("ph").getAsString())) flows++;
+        }
+        assertEquals(4, running);
+        // root->s1, root->s2, s1->final, s2->final
+        assertEquals(4, flows);
+    }
+
+    @Test
+    public void testSubDagSpansUnique() {
+        DagResult<String> result = dagScheduler.schedule(SubDagTest.buildGraph(), "input");
+        JsonArray spans = DagTraceExporter.toOtlp(result)
+                .getAsJsonArray("resourceSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("spans");
+        Set<String> spanIds = new HashSet<>();
+        for (int i = 0; i < spans.size(); i++) {
+            spanIds.add(spans.get(i).getAsJsonObject().get("spanId").getAsString());
+        }
+        // 子图的根节点和终节点与外层图的同名节点是不同的span
+        assertEquals(result.getHistory().size() + 1, spans.size());
+        assertEquals(spans.size(), spanIds.size());
+        for (int i = 0; i < spans.size(); i++) {
+            JsonArray links = spans.get(i).getAsJsonObject().getAsJsonArray("links");
+            for (int k = 0; null != links && k < links.size(); k++) {
+                assertTrue(spanIds.contains(links.get(k).getAsJsonObject().get("spanId").getAsString()));
+            }
+        }
+    }
+
+    @Test
+    public void testWriterSurvivesFileError(@TempDir Path dir) throws Exception {
+        Path out = dir.resolve("out");
+        try (DagTraceWriter writer = new DagTraceWriter(out, "test", "log", "", 1, 2, 16)) {
+            assertTrue(writer.offer(() -> "first\n"));
+            writer.flush();
+            // 目录被删除后无法滚动到新文件, 记录计为丢弃, 写入线程继续运行
+            try (Stream<Path> stream = Files.list(out)) {
+                for (Path file : stream.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(out);
+            assertTrue(writer.offer(() -> "second\n"));
+            writer.flush();
+            assertEquals(1, writer.getDroppedCount());
+
+            Files.createDirectories(out);
+            assertTrue(writer.offer(() -> "third\n"));
+            writer.flush();
+            assertEquals(1, writer.getDroppedCount());
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(out)) {
+                files = stream.collect(Collectors.toList());
+            }
+            assertEquals(1, files.size());
+            assertEquals("third", Files.readAllLines(files.get(0), StandardCharsets.UTF_8).get(0));
+        }
+    }
+
+    @Test
+    public void testOtlpRotation(@TempDir Path dir) throws Exception {
+        Dag<String> graph = buildGraph();
+        try (DagTraceExporter exporter = new DagTraceExporter(dir, DagTraceExporter.Format.OTLP, 4096, 3)) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(exporter.export(dagScheduler.schedule(graph, "input" + i)));
+            }
+            exporter.flush();
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.sorted().collect(Collectors.toList());
+        }
+        assertEquals(3, files.size());
+        String line = Files.readAllLines(files.get(files.size() - 1), StandardCharsets.UTF_8).get(0);
+        JsonArray spans = new JsonParser().parse(line).getAsJsonObject()
+                .getAsJsonArray("resourceSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("spans");
+        // 4个节点 + 1个调度根span
+        assertEquals(5, spans.size());
+        assertEquals(32, spans.get(0).getAsJsonObject().get("traceId").getAsString().length());
+    }
+}
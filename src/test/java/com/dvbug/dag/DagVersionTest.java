@@ -0,0 +1,77 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import lombok.EqualsAndHashCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DagVersionTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    @EqualsAndHashCode(callSuper = true)
+    static class LatchStrategy extends LogicStrategy<String> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        LatchStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean doExecute() {
+            started.countDown();
+            try {
+                release.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                setThrowable(e);
+                return false;
+            }
+            setResult(getParams().get(0) + "+" + getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    static Dag<String> buildGraph(LogicStrategy<String> strategy) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(strategy);
+        graph.addEdge(strategy.getName(), RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, strategy.getName());
+        return graph;
+    }
+
+    @Test
+    public void testPublishWhileRunning() throws Exception {
+        LatchStrategy v1Strategy = new LatchStrategy("v1");
+        DagVersion v1 = dagScheduler.publish("graph", buildGraph(v1Strategy));
+
+        CompletableFuture<DagResult<String>> inFlight = CompletableFuture.supplyAsync(() -> dagScheduler.schedule("graph", "input"));
+        assertTrue(v1Strategy.started.await(1, TimeUnit.SECONDS));
+
+        DagVersion v2 = dagScheduler.publish("graph", buildGraph(new StringStrategy("v2")));
+        assertEquals(2, v2.getVersion());
+        assertTrue(v1.isRetired());
+        assertEquals(1, v1.getRunningCount());
+        assertFalse(v1.isReleased());
+
+        assertEquals("input+v2", dagScheduler.<String, String>schedule("graph", "input").getResult());
+
+        v1Strategy.release.countDown();
+        assertEquals("input+v1", inFlight.get().getResult());
+        assertTrue(v1.isReleased());
+        assertNull(v1.getGraph());
+        assertFalse(v2.isReleased());
+    }
+}
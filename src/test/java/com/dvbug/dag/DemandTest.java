@@ -0,0 +1,83 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DemandTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new StringStrategy("s1"));
+        graph.addNode(new StringStrategy("s2"));
+        graph.addNode(new StringStrategy("s3"));
+        graph.addNode(new StringStrategy("s4"));
+        graph.addEdge("s1", RootStrategy.NAME);
+        graph.addEdge("s2", "s1");
+        graph.addEdge(FinalStrategy.NAME, "s2");
+        // s3、s4不能到达终节点
+        graph.addEdge("s3", RootStrategy.NAME);
+        graph.addEdge("s4", "s1");
+        return graph;
+    }
+
+    static Set<String> executed(DagResult<?> result) {
+        return result.getHistory().stream().map(t -> t.getNodeInfo().getName()).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testDemandFinal() {
+        DagResult<String> result = dagScheduler.schedule(buildGraph(), "input", FinalStrategy.NAME);
+        assertEquals("input+s1+s2", result.getResult());
+        assertEquals(4, result.getHistory().size());
+        assertFalse(executed(result).contains("node-s3"));
+        assertFalse(executed(result).contains("node-s4"));
+    }
+
+    @Test
+    public void testDemandIntermediate() {
+        DagResult<String> result = dagScheduler.schedule(buildGraph(), "input", "s1", "s3");
+        assertNull(result.getResult());
+        assertEquals("input+s1", result.getOutput("s1"));
+        assertEquals("input+s3", result.getOutput("s3"));
+        assertEquals(3, result.getHistory().size());
+    }
+
+    @Test
+    public void testDemandPlanCached() {
+        DagPlan plan = buildGraph().compile();
+        assertSame(plan.demand(Arrays.asList("s1", "s3")), plan.demand(Arrays.asList("s3", "s1")));
+        assertThrows(IllegalArgumentException.class, () -> plan.demand(Arrays.asList("missing")));
+    }
+
+    @Test
+    public void testDemandCacheBounded() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        for (int i = 0; i < 8; i++) {
+            graph.addNode(new StringStrategy("s" + i));
+            graph.addEdge("s" + i, RootStrategy.NAME);
+        }
+        DagPlan plan = graph.compile();
+        DagPlan first = plan.demand(Arrays.asList("s0"));
+        // 调用方请求的输出组合超过缓存上限后, 最久未使用的子计划被淘汰
+        for (int mask = 2; mask <= DagPlan.MAX_DEMANDS + 1; mask++) {
+            List<String> outputs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                if ((mask & (1 << i)) != 0) outputs.add("s" + i);
+            }
+            plan.demand(outputs);
+        }
+        assertNotSame(first, plan.demand(Arrays.asList("s0")));
+        assertSame(plan.demand(Arrays.asList("s0")), plan.demand(Arrays.asList("s0")));
+    }
+}
@@ -0,0 +1,111 @@
+package com.dvbug.dag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FairExecutorTest {
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testWeightedRoundRobin() throws Exception {
+        try (DagFairExecutor executor = new DagFairExecutor(1)) {
+            executor.register("a", 3, 0);
+            executor.register("b", 1, 0);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(16);
+            List<String> order = new CopyOnWriteArrayList<>();
+            executor.execute(() -> await(release));
+            for (int i = 0; i < 8; i++) {
+                executor.tenant("a").execute(() -> {
+                    order.add("a");
+                    done.countDown();
+                });
+                executor.tenant("b").execute(() -> {
+                    order.add("b");
+                    done.countDown();
+                });
+            }
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            List<String> firstRounds = order.subList(0, 8);
+            assertEquals(6, firstRounds.stream().filter("a"::equals).count());
+            assertEquals(2, firstRounds.stream().filter("b"::equals).count());
+            assertEquals(8, executor.getStats("b").getCompleted());
+            assertTrue(executor.getStats("b").getQueueLatencyPercentile(99) >= executor.getStats("b").getQueueLatencyPercentile(50));
+        }
+    }
+
+    @Test
+    public void testMinThreadsReserved() throws Exception {
+        try (DagFairExecutor executor = new DagFairExecutor(2)) {
+            executor.register("vip", 1, 1);
+            CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < 10; i++) {
+                executor.tenant("noisy").execute(() -> await(release));
+            }
+            Thread.sleep(50);
+            // 一个线程保留给vip, noisy只能使用另一个线程
+            assertEquals(1, executor.getStats("noisy").getRunning());
+            assertEquals(9, executor.getStats("noisy").getPending());
+
+            CountDownLatch vip = new CountDownLatch(1);
+            executor.tenant("vip").execute(vip::countDown);
+            assertTrue(vip.await(1, TimeUnit.SECONDS));
+            release.countDown();
+            assertThrows(IllegalArgumentException.class, () -> executor.register("other", 1, 2));
+        }
+    }
+
+    @Test
+    public void testScheduleByTenant() {
+        try (DagFairExecutor executor = new DagFairExecutor(4)) {
+            DagScheduler scheduler = new DagScheduler(executor);
+            scheduler.publish("fair", DemandTest.buildGraph());
+            DagResult<String> result = scheduler.schedule("fair", "input");
+            assertEquals("input+s1+s2", result.getResult());
+
+            DagFairExecutor.TenantStats stats = executor.getStats("fair");
+            assertEquals(result.getHistory().size(), stats.getSubmitted());
+            assertEquals(0, stats.getPending());
+        }
+    }
+
+    @Test
+    public void testInstanceUsesDefaultTenant() throws Exception {
+        try (DagFairExecutor executor = new DagFairExecutor(2)) {
+            DagScheduler scheduler = new DagScheduler(executor);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("input+s1+s2", scheduler.schedule(DemandTest.buildGraph(), "input").getResult());
+            }
+            // 图实例不以graphId分租户
+            assertEquals(1, executor.getStats().size());
+            assertEquals(DagFairExecutor.DEFAULT_TENANT, executor.getStats().get(0).getTenant());
+
+            executor.register("vip", 1, 0);
+            CountDownLatch done = new CountDownLatch(2000);
+            for (int i = 0; i < 2000; i++) {
+                executor.tenant("t" + i).execute(done::countDown);
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // 空闲的未注册租户被移除, 注册的租户保留
+            executor.tenant("last").execute(() -> {
+            });
+            assertTrue(executor.getStats().size() < 1024, String.format("%s tenants", executor.getStats().size()));
+            assertNotNull(executor.getStats("vip"));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalTest {
+
+    static class CountingStrategy extends LogicStrategy<Integer> {
+        final AtomicInteger executed = new AtomicInteger();
+        final Function<List<Object>, Integer> function;
+
+        CountingStrategy(String name, Function<List<Object>, Integer> function) {
+            super(name);
+            this.function = function;
+        }
+
+        @Override
+        public boolean doExecute() {
+            executed.incrementAndGet();
+            setResult(function.apply(getParams()));
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<List<Object>, Integer> field(String key) {
+        return params -> ((Map<String, Integer>) params.get(0)).get(key);
+    }
+
+    static Map<String, Integer> input(int a, int b) {
+        Map<String, Integer> input = new HashMap<>();
+        input.put("a", a);
+        input.put("b", b);
+        return input;
+    }
+
+    @Test
+    public void testRecomputeDirtyCone() {
+        CountingStrategy fieldA = new CountingStrategy("fieldA", field("a"));
+        CountingStrategy fieldB = new CountingStrategy("fieldB", field("b"));
+        CountingStrategy square = new CountingStrategy("square", params -> (Integer) params.get(0) * (Integer) params.get(0));
+        CountingStrategy sum = new CountingStrategy("sum", params -> params.stream().mapToInt(p -> (Integer) p).sum());
+        Dag<Integer> graph = new Dag<>(DagMode.PARALLEL, -1, HashMap.class, Integer.class);
+        graph.addNode(fieldA);
+        graph.addNode(fieldB);
+        graph.addNode(square);
+        graph.addNode(sum);
+        graph.addEdge("fieldA", RootStrategy.NAME);
+        graph.addEdge("fieldB", RootStrategy.NAME);
+        graph.addEdge("square", "fieldA");
+        graph.addEdge("sum", "square");
+        graph.addEdge("sum", "fieldB");
+        graph.addEdge(FinalStrategy.NAME, "sum");
+
+        DagScheduler scheduler = new DagScheduler();
+        DagResult<Integer> first = scheduler.recompute(graph, input(3, 1), null);
+        assertEquals(10, first.getResult());
+        assertTrue(first.getMemo().getReused().isEmpty());
+        assertEquals(9, (int) first.getMemo().getResult("square"));
+
+        // 只有b变化: 字段节点重新执行, square的输入没有变化而复用, sum重新计算
+        DagResult<Integer> second = scheduler.recompute(graph, input(3, 2), first.getMemo());
+        assertEquals(11, second.getResult());
+        assertEquals(1, square.executed.get());
+        assertEquals(2, sum.executed.get());
+        assertTrue(second.getMemo().getReused().contains("square"));
+        assertEquals(first.getMemo().size(), second.getMemo().size());
+
+        // 输入完全相同时所有节点复用
+        DagResult<Integer> third = scheduler.recompute(graph, input(3, 2), second.getMemo());
+        assertEquals(11, third.getResult());
+        assertEquals(2, fieldA.executed.get());
+        assertEquals(2, sum.executed.get());
+        assertEquals(third.getMemo().size(), third.getMemo().getReused().size());
+
+        // 普通调度不生成句柄, 其他图的句柄不被复用
+        assertNull(scheduler.schedule(graph, input(3, 2)).getMemo());
+        Dag<String> other = DagSnapshotTest.buildGraph();
+        assertTrue(scheduler.recompute(other, "input", third.getMemo()).getMemo().getReused().isEmpty());
+    }
+}
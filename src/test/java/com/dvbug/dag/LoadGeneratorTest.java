@@ -0,0 +1,53 @@
+package com.dvbug.dag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 默认只做几秒的冒烟压测; 浸泡测试和饱和点搜索通过系统属性调整, 例如
+ * {@code mvn test -Dtest=LoadGeneratorTest -Ddag.load.rate=2000 -Ddag.load.duration=600000 -Ddag.load.saturate=32000}
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    public void testOpenLoopLoad() throws InterruptedException {
+        DagLoadGenerator.Shape shape = DagLoadGenerator.Shape.builder()
+                .nodes(Integer.getInteger("dag.load.nodes", 30))
+                .layers(Integer.getInteger("dag.load.layers", 5))
+                .edgeDensity(Double.parseDouble(System.getProperty("dag.load.density", "0.2")))
+                .meanCostMicros(Long.getLong("dag.load.cost", 100L))
+                .failureRate(Double.parseDouble(System.getProperty("dag.load.failure", "0.001")))
+                .build();
+        DagLoadGenerator.Load load = DagLoadGenerator.Load.builder()
+                .rate(Integer.getInteger("dag.load.rate", 100))
+                .clients(Integer.getInteger("dag.load.clients", 4))
+                .durationMillis(Long.getLong("dag.load.duration", 2000L))
+                .build();
+        Dag<Integer> graph = DagLoadGenerator.randomDag(shape);
+        assertEquals(shape.getNodes() + 2, graph.compile().size());
+
+        DagScheduler scheduler = new DagScheduler();
+        int saturate = Integer.getInteger("dag.load.saturate", 0);
+        DagLoadGenerator.Report report = saturate > 0
+                ? DagLoadGenerator.findSaturation(scheduler, graph, load, saturate)
+                : DagLoadGenerator.run(scheduler, graph, load);
+
+        assertTrue(report.getCompleted() > 0);
+        assertTrue(report.percentile(0.5) <= report.percentile(0.99));
+        assertTrue(report.percentile(0.99) <= report.percentile(0.999));
+        assertTrue(report.getFailed() + report.getTimeouts() <= report.getCompleted());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        DagLoadGenerator.Histogram histogram = new DagLoadGenerator.Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i, DagLoadGenerator.Histogram.SUCCEEDED);
+        }
+        // 对数分桶的相对误差不超过1/16
+        assertEquals(5000, histogram.percentile(0.5), 5000 / 16.0);
+        assertEquals(9900, histogram.percentile(0.99), 9900 / 16.0);
+        assertEquals(10000, histogram.percentile(1));
+    }
+}
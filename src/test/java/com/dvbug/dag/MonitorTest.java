@@ -0,0 +1,87 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MonitorTest {
+
+    static class BlockingStrategy extends LogicStrategy<String> {
+        final CountDownLatch started;
+        final CountDownLatch release;
+
+        BlockingStrategy(String name, CountDownLatch started, CountDownLatch release) {
+            super(name);
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public boolean doExecute() {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            setResult((String) getParams().get(0));
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testInFlightSnapshot() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new BlockingStrategy("blocking", started, release));
+        graph.addEdge("blocking", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "blocking");
+
+        DagScheduler scheduler = new DagScheduler();
+        ObjectName name = scheduler.registerMBean();
+        try {
+            DagSchedulerMXBean bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name, DagSchedulerMXBean.class);
+            CompletableFuture<DagResult<String>> future = CompletableFuture.supplyAsync(() -> scheduler.schedule(graph, "input"));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // 在其他线程读取正在进行的调度
+            assertEquals(1, bean.getInFlightRuns());
+            List<DagRunSnapshot> snapshots = bean.getInFlightSnapshots();
+            assertEquals(1, snapshots.size());
+            DagRunSnapshot snapshot = snapshots.get(0);
+            assertEquals(graph.getGraphId(), snapshot.getGraphId());
+            assertTrue(snapshot.getFinishedNodes() < snapshot.getTotalNodes());
+            assertTrue(snapshot.getNodes().stream().anyMatch(n -> n.getName().equals("node-blocking") && n.getState() == DagNodeState.RUNNING));
+            assertTrue(graph.dumpSnapshot().contains("node-blocking"));
+            assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "InFlightRuns"));
+
+            release.countDown();
+            assertEquals("input", future.get(5, TimeUnit.SECONDS).getResult());
+            assertEquals(0, bean.getInFlightRuns());
+            assertEquals(1, bean.getScheduledRuns());
+            assertEquals(0, bean.getFailedRuns());
+            assertTrue(bean.getInFlightSnapshots().isEmpty());
+        } finally {
+            release.countDown();
+            scheduler.unregisterMBean(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,112 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelismTest {
+    static final int FAN_OUT = 40;
+
+    static class SlowStrategy extends LogicStrategy<String> {
+        final AtomicInteger running;
+        final AtomicInteger peak;
+
+        SlowStrategy(String name, AtomicInteger running, AtomicInteger peak) {
+            super(name);
+            this.running = running;
+            this.peak = peak;
+        }
+
+        @Override
+        public boolean doExecute() {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            setResult(getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    static Dag<String> buildGraph(AtomicInteger running, AtomicInteger peak) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        for (int i = 0; i < FAN_OUT; i++) {
+            graph.addNode(new SlowStrategy("s" + i, running, peak));
+            graph.addEdge("s" + i, RootStrategy.NAME);
+            graph.addEdge(FinalStrategy.NAME, "s" + i);
+        }
+        return graph;
+    }
+
+    @Test
+    public void testMaxParallelism() {
+        DagScheduler scheduler = new DagScheduler();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Dag<String> graph = buildGraph(running, peak);
+
+        graph.setMaxParallelism(3);
+        for (int i = 0; i < 3; i++) {
+            DagResult<String> result = scheduler.schedule(graph, "input");
+            assertNotNull(result.getResult());
+            assertEquals(FAN_OUT + 2, result.getHistory().size());
+        }
+        assertTrue(peak.get() <= 3, String.format("peak parallelism %s", peak.get()));
+
+        graph.setMaxParallelism(0);
+        peak.set(0);
+        assertNotNull(scheduler.schedule(graph, "input").getResult());
+        assertTrue(peak.get() > 3, String.format("peak parallelism %s", peak.get()));
+        assertThrows(IllegalArgumentException.class, () -> graph.setMaxParallelism(-1));
+    }
+
+    @Test
+    public void testPublishedVersionKeepsCap() {
+        DagScheduler scheduler = new DagScheduler();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Dag<String> graph = buildGraph(running, peak);
+        graph.setMaxParallelism(2);
+        scheduler.publish("capped", graph);
+        assertEquals(2, graph.compile().demand(Collections.singletonList("s0")).getMaxParallelism());
+
+        // 发布后修改图的并行度不影响已经发布的版本
+        graph.setMaxParallelism(0);
+        assertNotNull(scheduler.schedule("capped", "input").getResult());
+        assertTrue(peak.get() <= 2, String.format("peak parallelism %s", peak.get()));
+    }
+
+    @Test
+    public void testContinuationOnFinishingThread() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        String previous = RootStrategy.NAME;
+        for (int i = 0; i < 8; i++) {
+            graph.addNode(new StringStrategy("c" + i));
+            graph.addEdge("c" + i, previous);
+            previous = "c" + i;
+        }
+        graph.addEdge(FinalStrategy.NAME, previous);
+
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        assertNotNull(result.getResult());
+        // 链上每个节点只有一个下游, 整条链在同一个线程上连续执行
+        assertEquals(1, result.getHistory().stream().map(TraceInfo::getThreadId).collect(Collectors.toSet()).size());
+    }
+}
@@ -0,0 +1,202 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.AsyncLogicStrategy;
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 竞速汇合和法定数汇合
+ */
+public class RaceTest {
+    // 模拟冗余服务的IO回调线程
+    static final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+
+    static class ProviderStrategy extends AsyncLogicStrategy<String> {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final long millis;
+        final boolean fail;
+
+        ProviderStrategy(String name, long millis) {
+            this(name, millis, false);
+        }
+
+        ProviderStrategy(String name, long millis, boolean fail) {
+            super(name);
+            this.millis = millis;
+            this.fail = fail;
+        }
+
+        @Override
+        public CompletionStage<String> executeAsync() {
+            io.schedule(() -> fail ? future.completeExceptionally(new IllegalStateException(getName() + " unavailable"))
+                    : future.complete(getName()), millis, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+
+    @AfterAll
+    static void shutdown() {
+        io.shutdownNow();
+    }
+
+    static DagNodeState stateOf(DagResult<?> result, String name) {
+        return result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-" + name))
+                .findFirst().map(TraceInfo::getFinalState).orElse(null);
+    }
+
+    @Test
+    public void testFirstSuccessWins() {
+        ProviderStrategy fast = new ProviderStrategy("fast", 20);
+        ProviderStrategy slow = new ProviderStrategy("slow", 1000);
+        ProviderStrategy backup = new ProviderStrategy("backup", 1000);
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        graph.addNode(fast);
+        graph.addNode(slow);
+        graph.addNode(backup);
+        // backup分支的下游节点在取消时还没有执行
+        graph.addNode(new StringStrategy("decode"));
+        graph.addNode(new DagNode<>(new StringStrategy("lookup"), DagMode.RACE));
+        graph.addEdge("fast", RootStrategy.NAME);
+        graph.addEdge("slow", RootStrategy.NAME);
+        graph.addEdge("backup", RootStrategy.NAME);
+        graph.addEdge("decode", "backup");
+        graph.addEdge("lookup", "fast");
+        graph.addEdge("lookup", "slow");
+        graph.addEdge("lookup", "decode");
+        graph.addEdge(FinalStrategy.NAME, "lookup");
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("fast+lookup", result.getResult());
+        assertTrue(elapsed < 500, String.format("elapsed %sms", elapsed));
+        assertEquals(DagNodeState.SUCCESS, stateOf(result, "fast"));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "slow"));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "decode"));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "backup"));
+        assertTrue(slow.future.isCancelled());
+        assertTrue(backup.future.isCancelled());
+    }
+
+    // 同步执行的冗余服务, 执行中无法中断
+    static class BlockingStrategy extends StringStrategy {
+        final long millis;
+
+        BlockingStrategy(String name, long millis) {
+            super(name);
+            this.millis = millis;
+        }
+
+        @Override
+        public boolean doExecute() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.doExecute();
+        }
+    }
+
+    @Test
+    public void testSyncBranchDoesNotDelayRun() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        graph.addNode(new ProviderStrategy("fast", 20));
+        graph.addNode(new BlockingStrategy("blocking", 1000));
+        graph.addNode(new DagNode<>(new StringStrategy("lookup"), DagMode.RACE));
+        graph.addEdge("fast", RootStrategy.NAME);
+        graph.addEdge("blocking", RootStrategy.NAME);
+        graph.addEdge("lookup", "fast");
+        graph.addEdge("lookup", "blocking");
+        graph.addEdge(FinalStrategy.NAME, "lookup");
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 正在同步执行的分支立即记为INEFFECTIVE, 调度不等待其结束
+        assertEquals("fast+lookup", result.getResult());
+        assertTrue(elapsed < 500, String.format("elapsed %sms", elapsed));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "blocking"));
+    }
+
+    static Dag<String> buildEnsemble(int quorum, ProviderStrategy... providers) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        graph.addNode(DagNode.quorum(new StringStrategy("ensemble"), quorum));
+        for (ProviderStrategy provider : providers) {
+            graph.addNode(provider);
+            graph.addEdge(provider.getName(), RootStrategy.NAME);
+            graph.addEdge("ensemble", provider.getName());
+        }
+        graph.addEdge(FinalStrategy.NAME, "ensemble");
+        return graph;
+    }
+
+    @Test
+    public void testQuorumFiresOnKthSuccess() {
+        ProviderStrategy slow = new ProviderStrategy("slow", 1000);
+        Dag<String> graph = buildEnsemble(2, new ProviderStrategy("p1", 20), new ProviderStrategy("p2", 60), slow);
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("p1+ensemble;p2+ensemble", result.getResult());
+        assertTrue(elapsed < 500, String.format("elapsed %sms", elapsed));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "slow"));
+        assertTrue(slow.future.isCancelled());
+    }
+
+    @Test
+    public void testQuorumUnreachable() {
+        ProviderStrategy slow = new ProviderStrategy("slow", 1000);
+        Dag<String> graph = buildEnsemble(2, new ProviderStrategy("p1", 20, true), new ProviderStrategy("p2", 40, true), slow);
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 两个失败后2-of-3已经无法达到, 不再等待slow
+        assertNull(result.getResult());
+        assertTrue(elapsed < 500, String.format("elapsed %sms", elapsed));
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "ensemble"));
+        assertTrue(slow.future.isCancelled());
+
+        assertThrows(IllegalStateException.class, () -> buildEnsemble(3, new ProviderStrategy("p1", 0), new ProviderStrategy("p2", 0)).compile());
+        assertThrows(IllegalArgumentException.class, () -> DagNode.quorum(new StringStrategy("zero"), 0));
+        assertThrows(IllegalArgumentException.class, () -> new Dag<>(DagMode.QUORUM, -1, String.class, String.class));
+    }
+
+    @Test
+    public void testAllProvidersFail() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        StringStrategy first = new StringStrategy("first");
+        StringStrategy second = new StringStrategy("second");
+        first.setMockThrowable();
+        second.setMockThrowable();
+        graph.addNode(first);
+        graph.addNode(second);
+        graph.addNode(new DagNode<>(new StringStrategy("lookup"), DagMode.RACE));
+        graph.addEdge("first", RootStrategy.NAME);
+        graph.addEdge("second", RootStrategy.NAME);
+        graph.addEdge("lookup", "first");
+        graph.addEdge("lookup", "second");
+        graph.addEdge(FinalStrategy.NAME, "lookup");
+
+        DagResult<String> result = new DagScheduler().schedule(graph, "input");
+        assertNull(result.getResult());
+        assertEquals(DagNodeState.INEFFECTIVE, stateOf(result, "lookup"));
+    }
+}
@@ -0,0 +1,148 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.AsyncLogicStrategy;
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RemoteWorkerTest {
+    static final ExecutorService workerPool = Executors.newFixedThreadPool(4);
+    static final AtomicInteger remoteBeans = new AtomicInteger();
+
+    static class RemoteStringStrategy extends StringStrategy implements RemoteNodeBean<String> {
+        RemoteStringStrategy(String name) {
+            super(name);
+        }
+    }
+
+    static class RemoteAsyncStrategy extends AsyncLogicStrategy<String> implements RemoteNodeBean<String> {
+        RemoteAsyncStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public CompletionStage<String> executeAsync() {
+            Object param = getParams().get(0);
+            return CompletableFuture.supplyAsync(() -> param + "+" + getName(), workerPool);
+        }
+    }
+
+    static DagWorkerEndpoint endpoint() {
+        return new DagWorkerEndpoint((strategyId, name) -> {
+            remoteBeans.incrementAndGet();
+            return new RemoteStringStrategy(name);
+        }, DagCodec.JAVA, workerPool);
+    }
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        for (String chain : Arrays.asList("a", "b")) {
+            for (int i = 1; i <= 3; i++) {
+                graph.addNode(new RemoteStringStrategy(chain + i));
+            }
+            graph.addEdge(chain + 1, RootStrategy.NAME);
+            graph.addEdge(chain + 2, chain + 1);
+            graph.addEdge(chain + 3, chain + 2);
+            graph.addEdge(FinalStrategy.NAME, chain + 3);
+        }
+        return graph;
+    }
+
+    @AfterAll
+    static void shutdown() {
+        workerPool.shutdown();
+    }
+
+    @Test
+    public void testPartition() {
+        DagPlan plan = buildGraph().compile();
+        int[] partitions = plan.partition(2);
+        // 每条链整体分配到同一个worker, 跨worker的边只有与本地根节点、终节点相连的4条
+        assertEquals(4, DagPartitioner.crossEdges(plan, partitions));
+        assertEquals(DagPartitioner.LOCAL, partitions[plan.getRootIndex()]);
+        assertSame(partitions, plan.partition(2));
+    }
+
+    @Test
+    public void testLoopbackWorkers() {
+        Dag<String> graph = buildGraph();
+        String expected = new DagScheduler().schedule(graph, "input").getResult();
+
+        DagScheduler scheduler = new DagScheduler(Arrays.asList(
+                new LoopbackDagWorker("w1", endpoint()), new LoopbackDagWorker("w2", endpoint())), DagCodec.JAVA);
+        int before = remoteBeans.get();
+        assertEquals(expected, scheduler.schedule(graph, "input").getResult());
+        assertEquals(6, remoteBeans.get() - before);
+    }
+
+    @Test
+    public void testRemoteAsyncNode() {
+        // worker中的异步节点同步等待结果
+        AtomicInteger created = new AtomicInteger();
+        DagWorkerEndpoint endpoint = new DagWorkerEndpoint((strategyId, name) -> {
+            created.incrementAndGet();
+            return new RemoteAsyncStrategy(name);
+        }, DagCodec.JAVA, workerPool);
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new DagNode<>(new RemoteAsyncStrategy("a1"), 1000));
+        graph.addEdge("a1", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "a1");
+
+        DagScheduler scheduler = new DagScheduler(Collections.singletonList(new LoopbackDagWorker("w1", endpoint)), DagCodec.JAVA);
+        assertEquals("input+a1", scheduler.schedule(graph, "input").getResult());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testRemoteTaskTimeout() {
+        // worker收到请求后一直不返回
+        DagWorker silent = new DagWorker() {
+            @Override
+            public String getId() {
+                return "silent";
+            }
+
+            @Override
+            public CompletableFuture<DagWorkResponse> execute(DagWorkRequest request) {
+                return new CompletableFuture<>();
+            }
+        };
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(new DagNode<>(new RemoteStringStrategy("slow"), 50));
+        graph.addEdge("slow", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "slow");
+
+        long start = System.currentTimeMillis();
+        DagResult<String> result = new DagScheduler(Collections.singletonList(silent), DagCodec.JAVA).schedule(graph, "input");
+        long elapsed = System.currentTimeMillis() - start;
+        assertNull(result.getResult());
+        TraceInfo slow = result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-slow")).findFirst().get();
+        assertEquals(DagNodeState.TIMEOUT, slow.getFinalState());
+        assertTrue(elapsed < 1000, String.format("elapsed %sms", elapsed));
+    }
+
+    @Test
+    public void testSocketWorker() throws Exception {
+        Dag<String> graph = buildGraph();
+        DagScheduler local = new DagScheduler();
+        try (SocketDagWorkerServer server = new SocketDagWorkerServer(endpoint(), 0);
+             SocketDagWorker worker = new SocketDagWorker("socket", "127.0.0.1", server.getPort())) {
+            DagScheduler scheduler = new DagScheduler(Collections.singletonList(worker), DagCodec.JAVA);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(local.schedule(graph, "input" + i).getResult(), scheduler.schedule(graph, "input" + i).getResult());
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharingTest {
+
+    // 以特征名称作为共享标识, 计数器在各个图的实例之间共享
+    static class FeatureStrategy extends LogicStrategy<String> implements SharableNodeBean<String> {
+        final AtomicInteger executed;
+        final boolean fail;
+
+        FeatureStrategy(String name, AtomicInteger executed, boolean fail) {
+            super(name);
+            this.executed = executed;
+            this.fail = fail;
+        }
+
+        @Override
+        public boolean doExecute() {
+            executed.incrementAndGet();
+            if (fail) {
+                throw new IllegalStateException(getName() + " unavailable");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            setResult(getParams().get(0) + "+" + getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+
+        @Override
+        public Object getSharingKey() {
+            return getName();
+        }
+    }
+
+    // 没有声明共享标识, 同名同类型也不共享
+    static class PlainStrategy extends FeatureStrategy {
+        PlainStrategy(String name, AtomicInteger executed) {
+            super(name, executed, false);
+        }
+
+        @Override
+        public Object getSharingKey() {
+            return null;
+        }
+    }
+
+    static Dag<String> buildGraph(String consumer, AtomicInteger fetched, AtomicInteger normalized, AtomicInteger consumed, boolean fail) {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        graph.addNode(new FeatureStrategy("fetch", fetched, fail));
+        graph.addNode(new FeatureStrategy("normalize", normalized, false));
+        graph.addNode(new FeatureStrategy(consumer, consumed, false));
+        graph.addEdge("fetch", RootStrategy.NAME);
+        graph.addEdge("normalize", "fetch");
+        graph.addEdge(consumer, "normalize");
+        graph.addEdge(FinalStrategy.NAME, consumer);
+        return graph;
+    }
+
+    @Test
+    public void testCommonSubgraphRunsOnce() {
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger normalized = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        Dag<String> ranking = buildGraph("ranking", fetched, normalized, consumed, false);
+        Dag<String> filtering = buildGraph("filtering", fetched, normalized, consumed, false);
+
+        List<DagResult<?>> results = new DagScheduler().scheduleAll(Arrays.asList(ranking, filtering), "input");
+        assertEquals("input+fetch+normalize+ranking", results.get(0).getResult());
+        assertEquals("input+fetch+normalize+filtering", results.get(1).getResult());
+        // 公共的fetch->normalize只执行一次, 各自的下游各执行一次
+        assertEquals(1, fetched.get());
+        assertEquals(1, normalized.get());
+        assertEquals(2, consumed.get());
+        assertEquals(DagNodeState.SUCCESS, results.get(1).getHistory().stream()
+                .filter(t -> t.getNodeInfo().getName().equals("node-normalize")).findFirst().get().getFinalState());
+
+        // 单独调度时不共享
+        new DagScheduler().schedule(ranking, "input");
+        assertEquals(2, fetched.get());
+    }
+
+    @Test
+    public void testSharedFailure() {
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger others = new AtomicInteger();
+        Dag<String> ranking = buildGraph("ranking", fetched, others, others, true);
+        Dag<String> filtering = buildGraph("filtering", fetched, others, others, true);
+
+        List<DagResult<?>> results = new DagScheduler().scheduleAll(Arrays.asList(ranking, filtering), "input");
+        assertNull(results.get(0).getResult());
+        assertNull(results.get(1).getResult());
+        assertEquals(1, fetched.get());
+        assertEquals(0, others.get());
+        for (DagResult<?> result : results) {
+            TraceInfo fetch = result.getHistory().stream().filter(t -> t.getNodeInfo().getName().equals("node-fetch")).findFirst().get();
+            assertEquals(DagNodeState.FAILED, fetch.getFinalState());
+        }
+    }
+
+    @Test
+    public void testRaceDoesNotCancelSharedOwner() {
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger others = new AtomicInteger();
+        // fetch被竞速汇合取消时, 其他图仍在等待fetch的共享结果
+        Dag<String> racing = new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class);
+        racing.addNode(new FeatureStrategy("fetch", fetched, false));
+        racing.addNode(new StringStrategy("cache"));
+        racing.addNode(new DagNode<>(new StringStrategy("pick"), DagMode.RACE));
+        racing.addEdge("fetch", RootStrategy.NAME);
+        racing.addEdge("cache", RootStrategy.NAME);
+        racing.addEdge("pick", "fetch");
+        racing.addEdge("pick", "cache");
+        racing.addEdge(FinalStrategy.NAME, "pick");
+        Dag<String> ranking = buildGraph("ranking", fetched, others, others, false);
+
+        List<DagResult<?>> results = new DagScheduler().scheduleAll(Arrays.asList(racing, ranking), "input");
+        assertNotNull(results.get(0).getResult());
+        assertEquals("input+fetch+normalize+ranking", results.get(1).getResult());
+        assertEquals(1, fetched.get());
+    }
+
+    @Test
+    public void testSharingIsOptIn() {
+        AtomicInteger fetched = new AtomicInteger();
+        List<Dag<String>> graphs = Arrays.asList(new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class),
+                new Dag<>(DagMode.PARALLEL, 2000, String.class, String.class));
+        for (Dag<String> graph : graphs) {
+            graph.addNode(new PlainStrategy("fetch", fetched));
+            graph.addEdge("fetch", RootStrategy.NAME);
+            graph.addEdge(FinalStrategy.NAME, "fetch");
+        }
+
+        List<DagResult<?>> results = new DagScheduler().scheduleAll(graphs, "input");
+        assertEquals("input+fetch", results.get(0).getResult());
+        assertEquals("input+fetch", results.get(1).getResult());
+        assertEquals(2, fetched.get());
+    }
+}
@@ -0,0 +1,151 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StreamingSourceStrategy;
+import com.dvbug.strategy.StreamingTransformStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingTest {
+    static final int BUFFER_SIZE = 16;
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static class SourceStrategy extends StreamingSourceStrategy<Integer> {
+        final AtomicInteger produced = new AtomicInteger();
+
+        SourceStrategy(String name) {
+            super(name, BUFFER_SIZE);
+        }
+
+        @Override
+        public Iterator<Integer> open() {
+            int count = (Integer) getParams().get(0);
+            return new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return produced.get() < count;
+                }
+
+                @Override
+                public Integer next() {
+                    return produced.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    static class DoubleItemStrategy extends StreamingTransformStrategy<Integer> {
+        final SourceStrategy source;
+        volatile int producedAtFirstItem = -1;
+
+        DoubleItemStrategy(String name, SourceStrategy source) {
+            super(name, BUFFER_SIZE);
+            this.source = source;
+        }
+
+        @Override
+        public Integer transform(Object item) {
+            if (producedAtFirstItem < 0) {
+                producedAtFirstItem = source.produced.get();
+            }
+            return (Integer) item * 2;
+        }
+    }
+
+    static class SumStrategy extends LogicStrategy<Long> {
+        SumStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean doExecute() {
+            List<?> items = (List<?>) getParams().get(0);
+            setResult(items.stream().mapToLong(i -> (Integer) i).sum());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    static class CollectSubscriber implements DagSubscriber<Integer> {
+        final long initialRequest;
+        final List<Integer> items = new ArrayList<>();
+        volatile Throwable error;
+        volatile boolean completed;
+
+        CollectSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(DagSubscription subscription) {
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void testIllegalRequestFailsOnlyItsSubscriber() {
+        DagStream<Integer> stream = DagStream.of(Arrays.asList(1, 2, 3).iterator(), 2, Runnable::run);
+        CollectSubscriber illegal = new CollectSubscriber(0);
+        CollectSubscriber normal = new CollectSubscriber(Long.MAX_VALUE);
+        stream.subscribe(illegal);
+        stream.subscribe(normal);
+
+        assertTrue(illegal.error instanceof IllegalArgumentException, String.valueOf(illegal.error));
+        assertTrue(illegal.items.isEmpty());
+        assertEquals(Arrays.asList(1, 2, 3), normal.items);
+        assertTrue(normal.completed);
+        assertNull(normal.error);
+        assertEquals(3L, stream.getCompletion().join());
+    }
+
+    @Test
+    public void testStreamingPipeline() {
+        SourceStrategy source = new SourceStrategy("source");
+        DoubleItemStrategy doubled = new DoubleItemStrategy("doubled", source);
+
+        Dag<Long> graph = new Dag<>(DagMode.PARALLEL, -1, Integer.class, Long.class);
+        graph.addNode(source);
+        graph.addNode(doubled);
+        graph.addNode(new SumStrategy("sum"));
+        graph.addEdge("source", RootStrategy.NAME);
+        graph.addEdge("doubled", "source");
+        graph.addEdge("sum", "doubled");
+        graph.addEdge(FinalStrategy.NAME, "sum");
+
+        int count = 1000;
+        DagResult<Long> result = dagScheduler.schedule(graph, count);
+        assertEquals((long) count * (count + 1), result.getResult());
+        // 下游开始消费时上游只产出了有限的元素
+        assertTrue(doubled.producedAtFirstItem <= 2 * BUFFER_SIZE, "produced " + doubled.producedAtFirstItem);
+    }
+}
@@ -0,0 +1,60 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.RootStrategy;
+import com.dvbug.strategy.StrategyDefinitions.StringStrategy;
+import com.dvbug.strategy.SubDagStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SubDagTest {
+    static DagScheduler dagScheduler = new DagScheduler();
+
+    static Dag<String> buildGraph() {
+        Dag<String> inner = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        inner.addNode(new StringStrategy("in1"));
+        inner.addEdge("in1", RootStrategy.NAME);
+        inner.addEdge(FinalStrategy.NAME, "in1");
+
+        Dag<String> outer = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        outer.addNode(new StringStrategy("s1"));
+        outer.addNode(new SubDagStrategy<>("sub", inner));
+        outer.addNode(new StringStrategy("s2"));
+        outer.addEdge("s1", RootStrategy.NAME);
+        outer.addEdge("sub", "s1");
+        outer.addEdge("s2", "sub");
+        outer.addEdge(FinalStrategy.NAME, "s2");
+        return outer;
+    }
+
+    @Test
+    public void testSubDag() {
+        DagResult<String> result = dagScheduler.schedule(buildGraph(), "input");
+        assertEquals("input+s1+in1+s2", result.getResult());
+        // 子图节点轨迹并入外层调度历史
+        assertEquals(8, result.getHistory().size());
+        result.getHistory().forEach(t -> assertEquals(result.getTraceId(), t.getId()));
+    }
+
+    @Test
+    public void testSubDagUnderLoad() throws Exception {
+        Dag<String> graph = buildGraph();
+        ExecutorService clients = Executors.newFixedThreadPool(64);
+        List<Future<DagResult<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final int n = i;
+            futures.add(clients.submit(() -> dagScheduler.schedule(graph, "input" + n)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("input" + i + "+s1+in1+s2", futures.get(i).get().getResult());
+        }
+        clients.shutdown();
+    }
+}
@@ -0,0 +1,136 @@
+package com.dvbug.dag;
+
+import com.dvbug.strategy.FinalStrategy;
+import com.dvbug.strategy.LogicStrategy;
+import com.dvbug.strategy.RootStrategy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 阻塞IO为主的图在默认线程池和虚拟线程执行器中的耗时对比, 需要JDK 21及以上;
+ * 以及不可执行的节点在WAITING状态挂起而不是占用线程自旋
+ */
+public class VirtualThreadBenchmarkTest {
+    static final int WIDTH = 400;
+    static final long BLOCKING_MILLIS = 20;
+    static final int RUNS = 3;
+
+    static class BlockingStrategy extends LogicStrategy<String> {
+        BlockingStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean doExecute() {
+            try {
+                Thread.sleep(BLOCKING_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            setResult(getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            return true;
+        }
+    }
+
+    // 条件满足前不可执行, 记录等待的线程
+    static class GatedStrategy extends LogicStrategy<String> {
+        final CountDownLatch waiting = new CountDownLatch(1);
+        volatile Thread thread;
+        volatile boolean open;
+
+        GatedStrategy(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean doExecute() {
+            setResult(getName());
+            return true;
+        }
+
+        @Override
+        public boolean canExecute() {
+            if (!open) {
+                thread = Thread.currentThread();
+                waiting.countDown();
+            }
+            return open;
+        }
+    }
+
+    static Dag<String> buildGraph() {
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, 5000, String.class, String.class);
+        for (int i = 0; i < WIDTH; i++) {
+            graph.addNode(new BlockingStrategy("b" + i));
+            graph.addEdge("b" + i, RootStrategy.NAME);
+            graph.addEdge(FinalStrategy.NAME, "b" + i);
+        }
+        return graph;
+    }
+
+    static long measure(DagScheduler scheduler, Dag<String> graph) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            assertNotNull(scheduler.schedule(graph, "input").getResult());
+            best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+        }
+        return best;
+    }
+
+    @Test
+    public void testBlockingGraph() {
+        assumeTrue(DagVirtualThreads.isSupported(), "virtual threads require JDK 21+");
+        Level level = LogManager.getLogger("com.dvbug").getLevel();
+        Configurator.setLevel("com.dvbug", Level.WARN);
+        ExecutorService virtualThreads = DagVirtualThreads.newExecutor();
+        try {
+            Dag<String> graph = buildGraph();
+            long pooled = measure(new DagScheduler(), graph);
+            long virtual = measure(new DagScheduler(virtualThreads), graph);
+            System.out.printf("%s: %s blocking nodes, default pool %sms, virtual threads %sms%n", getClass().getSimpleName(), WIDTH, pooled, virtual);
+            assertTrue(virtual < pooled, String.format("virtual threads %sms, default pool %sms", virtual, pooled));
+        } finally {
+            virtualThreads.shutdown();
+            Configurator.setLevel("com.dvbug", level);
+        }
+    }
+
+    @Test
+    public void testWaitingNodeParks() throws Exception {
+        GatedStrategy gated = new GatedStrategy("gated");
+        Dag<String> graph = new Dag<>(DagMode.PARALLEL, -1, String.class, String.class);
+        graph.addNode(gated);
+        graph.addEdge("gated", RootStrategy.NAME);
+        graph.addEdge(FinalStrategy.NAME, "gated");
+
+        CompletableFuture<DagResult<String>> result = CompletableFuture.supplyAsync(() -> new DagScheduler().schedule(graph, "input"));
+        assertTrue(gated.waiting.await(5, TimeUnit.SECONDS));
+        // 等待中的线程大部分时间处于挂起状态
+        int parked = 0;
+        for (int i = 0; i < 20; i++) {
+            if (gated.thread.getState() == Thread.State.TIMED_WAITING) {
+                parked++;
+            }
+            Thread.sleep(5);
+        }
+        gated.open = true;
+        assertEquals("gated", result.get(5, TimeUnit.SECONDS).getResult());
+        assertTrue(parked > 10, String.format("parked %s of 20 samples", parked));
+    }
+}